@@ -0,0 +1,61 @@
+package dev.bungrudi.loanengine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Memory a {@link LoanBookState} book takes in each storage, which JMH does not measure. Builds the book, runs it for
+ * {@value #DAYS} simulated days so loans carry payments, then reports heap retained after a full collection, the
+ * off-heap bytes of a {@link ColumnarLoanEngine}, the loans and bytes in a {@link LoanArchive} and the average end of
+ * day time over those days. Comparing HEAP with HEAP_ARCHIVED on a short term, for example 4 weeks, shows what
+ * archiving paid-off loans saves.
+ * <p>
+ * Arguments: loan count, weeks, behavior, then one or more storages, for example
+ * {@code ./gradlew footprint -PfootprintArgs='1000000 52 MIXED HEAP COLUMNAR'}.
+ */
+public class BookFootprint {
+    private static final int DAYS = 28;
+
+    public static void main(String[] args) {
+        int loanCount = Integer.parseInt(args[0]);
+        int weeks = Integer.parseInt(args[1]);
+        String behavior = args[2];
+        for (int i = 3; i < args.length; i++) {
+            measure(loanCount, weeks, behavior, args[i]);
+        }
+    }
+
+    private static void measure(int loanCount, int weeks, String behavior, String storage) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeap(memory);
+
+        LoanBookState book = new LoanBookState();
+        book.loanCount = loanCount;
+        book.weeks = weeks;
+        book.behavior = behavior;
+        book.storage = storage;
+        book.build();
+        long endOfDayNanos = 0;
+        for (int day = 0; day < DAYS; day++) {
+            book.makePayments();
+            long start = System.nanoTime();
+            book.endOfDay();
+            endOfDayNanos += System.nanoTime() - start;
+        }
+
+        long heap = usedHeap(memory) - heapBefore;
+        long offHeap = book.engine instanceof ColumnarLoanEngine ? ((ColumnarLoanEngine) book.engine).getOffHeapBytes() : 0;
+        LoanArchive archive = book.engine instanceof LoanEngine ? ((LoanEngine) book.engine).getArchive() : new LoanArchive();
+        System.out.printf("%-13s loans=%d weeks=%d behavior=%s heap=%,d B (%d B/loan) off-heap=%,d B (%d B/loan) archived=%d (%,d B) endOfDay=%.3f ms%n",
+                storage, loanCount, weeks, behavior, heap, heap / loanCount, offHeap, offHeap / loanCount,
+                archive.getLoanCount(), archive.getBytes(), endOfDayNanos / 1e6 / DAYS);
+        book.engine = null;
+    }
+
+    private static long usedHeap(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
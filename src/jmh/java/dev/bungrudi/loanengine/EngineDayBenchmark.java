@@ -0,0 +1,57 @@
+package dev.bungrudi.loanengine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One simulated day of a {@link LoanBookState}: the day's payments through {@link LoanEngine#makePayment} and
+ * the following {@link LoanEngine#endOfDay()}, each measured on its own with the other part done in setup.
+ * Scores are time per simulated day. Books of a million loans and more need a larger heap, for example
+ * {@code -jvmArgsAppend -Xmx16g}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineDayBenchmark {
+
+    @State(Scope.Thread)
+    public static class BeforePayments extends LoanBookState {
+        @Setup(Level.Invocation)
+        public void nextDay() {
+            ensureActive();
+            endOfDay();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeEndOfDay extends LoanBookState {
+        @Setup(Level.Invocation)
+        public void payments() {
+            ensureActive();
+            makePayments();
+        }
+    }
+
+    @Benchmark
+    public int makePayments(BeforePayments book) {
+        return book.makePayments();
+    }
+
+    @Benchmark
+    public EndOfDaySummary endOfDay(BeforeEndOfDay book) {
+        return book.endOfDay();
+    }
+}
@@ -0,0 +1,146 @@
+package dev.bungrudi.loanengine;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * A loan book that can be driven forward one simulated day at a time. Loans are originated evenly over seven
+ * consecutive days, so each day about a seventh of the book reaches a due date. How borrowers pay is set by
+ * {@code behavior}:
+ * <ul>
+ *     <li>ON_TIME pays every installment on its due date</li>
+ *     <li>LATE pays every installment three days after its due date, so the loan is LATE for part of each week</li>
+ *     <li>DELINQUENT never pays</li>
+ *     <li>MIXED spreads the three behaviors evenly over the book</li>
+ * </ul>
+ * Once every loan is past its term the book is rebuilt, so benchmarks can run for any number of days.
+ * {@code storage} picks the engine: HEAP for {@link LoanEngine}, HEAP_METRICS for a {@link LoanEngine} recording
+ * {@link EngineMetrics}, HEAP_ARCHIVED for a {@link LoanEngine} compacted as part of every end of day,
+ * HEAP_PENALTIES for a {@link LoanEngine} accruing a {@link DailyPenaltyPolicy} on the loans behind, COLUMNAR for
+ * {@link ColumnarLoanEngine}.
+ */
+@State(Scope.Thread)
+public class LoanBookState {
+    static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+    private static final BigDecimal LOAN_AMOUNT = BigDecimal.valueOf(5_000_000);
+    private static final BigDecimal INTEREST_RATE = BigDecimal.valueOf(0.1);
+    private static final int ON_TIME = 0;
+    private static final int LATE = 1;
+    private static final int DELINQUENT = 2;
+    private static final int LATE_DAYS = 3;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    int loanCount;
+
+    @Param({"25", "52", "104"})
+    int weeks;
+
+    @Param({"ON_TIME", "LATE", "DELINQUENT", "MIXED"})
+    String behavior;
+
+    @Param({"HEAP", "HEAP_METRICS", "HEAP_ARCHIVED", "HEAP_PENALTIES", "COLUMNAR"})
+    String storage;
+
+    LoanOperations engine;
+    /**
+     * loans by origination offset (0-6 days after the first origination day) and by payment behavior
+     */
+    private String[][][] loanIds;
+    private BigDecimal weeklyPayment;
+    /**
+     * days since the first origination day
+     */
+    private int day;
+
+    void build() {
+        engine = newEngine(storage);
+        int[][] counts = new int[7][3];
+        for (int i = 0; i < loanCount; i++) {
+            counts[i % 7][behaviorOf(i)]++;
+        }
+        loanIds = new String[7][3][];
+        for (int offset = 0; offset < 7; offset++) {
+            for (int b = 0; b < 3; b++) {
+                loanIds[offset][b] = new String[counts[offset][b]];
+                counts[offset][b] = 0;
+            }
+        }
+        for (int offset = 0; offset < 7; offset++) {
+            for (int i = offset; i < loanCount; i += 7) {
+                String loanId = String.format("LOAN-%09d", i);
+                Loan loan = engine.createLoan(loanId, LOAN_AMOUNT, INTEREST_RATE, weeks);
+                weeklyPayment = loan.getWeeklyPayment();
+                int b = behaviorOf(i);
+                loanIds[offset][b][counts[offset][b]++] = loanId;
+            }
+            engine.endOfDay();
+        }
+        day = 7;
+    }
+
+    static LoanOperations newEngine(String storage) {
+        switch (storage) {
+            case "HEAP":
+            case "HEAP_ARCHIVED": return new LoanEngine(START_DATE, new ConsumptiveWeeklyLoanFactory());
+            case "HEAP_METRICS": return new LoanEngine(START_DATE, new ConsumptiveWeeklyLoanFactory(), null, new EngineMetrics());
+            case "HEAP_PENALTIES": return new LoanEngine(START_DATE, new ConsumptiveWeeklyLoanFactory(null,
+                    new DailyPenaltyPolicy(BigDecimal.valueOf(1000), new BigDecimal("0.001"))));
+            case "COLUMNAR": return new ColumnarLoanEngine(START_DATE, new ConsumptiveWeeklyLoanFactory());
+            default: throw new IllegalArgumentException("Unknown storage " + storage);
+        }
+    }
+
+    private int behaviorOf(int index) {
+        switch (behavior) {
+            case "ON_TIME": return ON_TIME;
+            case "LATE": return LATE;
+            case "DELINQUENT": return DELINQUENT;
+            case "MIXED": return index % 3;
+            default: throw new IllegalArgumentException("Unknown behavior " + behavior);
+        }
+    }
+
+    /**
+     * Rebuilds the book if it has run past the longest term. Called before each simulated day, outside measurement.
+     */
+    void ensureActive() {
+        if (engine == null || day > 7 * (weeks + 2)) {
+            build();
+        }
+    }
+
+    /**
+     * Applies the payments the borrowers make on the current day.
+     */
+    int makePayments() {
+        return pay(ON_TIME, 0) + pay(LATE, LATE_DAYS);
+    }
+
+    private int pay(int b, int daysAfterDue) {
+        int payments = 0;
+        for (int offset = 0; offset < 7; offset++) {
+            int daysSinceStart = day - offset - daysAfterDue;
+            if (daysSinceStart < 7 || daysSinceStart % 7 != 0 || daysSinceStart / 7 > weeks) {
+                continue;
+            }
+            for (String loanId : loanIds[offset][b]) {
+                engine.makePayment(loanId, weeklyPayment);
+                payments++;
+            }
+        }
+        return payments;
+    }
+
+    EndOfDaySummary endOfDay() {
+        day++;
+        EndOfDaySummary summary = engine.endOfDay();
+        if ("HEAP_ARCHIVED".equals(storage)) {
+            ((LoanEngine) engine).compact();
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,130 @@
+package dev.bungrudi.loanengine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a {@link LoanServer} from a number of connections, each on a virtual thread sending one request and waiting
+ * for its reply before the next, and reports throughput and latency percentiles. Creates the loans first, then sends
+ * a mix of half payments, a third outstanding queries and the rest delinquency queries on random loans. Rejected
+ * requests, such as payments not yet due, count as served.
+ * <p>
+ * Arguments: connections, seconds, loan count, and the port of a running server or 0 to start one in this process,
+ * for example {@code ./gradlew loadtest -PloadtestArgs='64 10 100000 0'}.
+ */
+public class LoanLoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        int connections = Integer.parseInt(args[0]);
+        int seconds = Integer.parseInt(args[1]);
+        int loanCount = Integer.parseInt(args[2]);
+        int port = Integer.parseInt(args[3]);
+
+        LoanServer embedded = port == 0
+                ? new LoanServer(new LoanEngine(LocalDate.of(2023, 3, 1), new ConsumptiveWeeklyLoanFactory()), 0)
+                : null;
+        try {
+            int serverPort = embedded != null ? embedded.getPort() : port;
+            String prefix = Long.toString(System.nanoTime(), 36) + "-";
+            run(serverPort, connections, 0, loanCount, (random, loan) ->
+                    "CREATE " + prefix + loan + " 5000000 0.1 50");
+            System.out.printf("created %d loans%n", loanCount);
+            Result result = run(serverPort, connections, seconds, loanCount, (random, loan) -> {
+                String loanId = prefix + random.nextInt(loanCount);
+                int kind = random.nextInt(6);
+                return kind < 3 ? "PAY " + loanId + " 110840" : kind < 5 ? "OUTSTANDING " + loanId : "DELINQUENT " + loanId;
+            });
+            LatencyHistogram.Snapshot latency = result.latency.snapshot();
+            System.out.printf("connections=%d requests=%d errors=%d throughput=%.0f req/s p50=%.1f us p99=%.1f us p99.9=%.1f us max=%.1f us%n",
+                    connections, latency.getCount(), result.errors.sum(), latency.getCount() / result.elapsedSeconds,
+                    latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(99) / 1e3,
+                    latency.getValueAtPercentile(99.9) / 1e3, latency.getMaxNanos() / 1e3);
+        } finally {
+            if (embedded != null) {
+                embedded.close();
+            }
+        }
+    }
+
+    /**
+     * Sends requests from every connection, for {@code seconds}, or when 0 until each of {@code requests} has been
+     * sent once, split between the connections.
+     */
+    private static Result run(int port, int connections, int seconds, int requests, RequestSource source)
+            throws Exception {
+        Result result = new Result();
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> running = new ArrayList<>(connections);
+            for (int c = 0; c < connections; c++) {
+                int client = c;
+                running.add(clients.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(client);
+                    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                         Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                        socket.setTcpNoDelay(true);
+                        long sent = 0;
+                        for (int request = client; seconds > 0 ? System.nanoTime() < deadline : request < requests;
+                             request += connections) {
+                            long requestStart = System.nanoTime();
+                            out.write(Long.toString(sent++));
+                            out.write(' ');
+                            out.write(source.request(random, request));
+                            out.write('\n');
+                            out.flush();
+                            String reply = in.readLine();
+                            if (reply == null) {
+                                throw new IOException("Server closed the connection");
+                            }
+                            result.latency.record(System.nanoTime() - requestStart);
+                            if (reply.contains(" ERR ")) {
+                                result.errors.increment();
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> client : running) {
+                client.get();
+            }
+        }
+        result.elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        return result;
+    }
+
+    private interface RequestSource {
+        /**
+         * Returns the next request of a connection, without the tag.
+         *
+         * @param request a sequence number unique across connections
+         */
+        String request(SplittableRandom random, int request);
+    }
+
+    private static class Result {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        double elapsedSeconds;
+    }
+}
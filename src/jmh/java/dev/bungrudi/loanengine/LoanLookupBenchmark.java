@@ -0,0 +1,96 @@
+package dev.bungrudi.loanengine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loan lookups in random order over a book of {@code loanCount} loans: a {@link ConcurrentHashMap} keyed by id as the
+ * engine used before handles, the id to handle lookup of {@link LoanEngine#getHandle}, and
+ * {@link LoanEngine#getOutstanding} by id and by handle. Ids are built in setup, so their hash codes are cached and
+ * the scores cover probing and comparing only.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoanLookupBenchmark {
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+
+    @Param({"10000", "1000000"})
+    int loanCount;
+
+    private LoanEngine engine;
+    private Map<String, Loan> map;
+    private String[] loanIds;
+    private int[] handles;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        int next(int length) {
+            if (++position == length) {
+                position = 0;
+            }
+            return position;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        engine = new LoanEngine(START_DATE, new ConsumptiveWeeklyLoanFactory());
+        map = new ConcurrentHashMap<>();
+        for (int i = 0; i < loanCount; i++) {
+            String loanId = String.format("LOAN-%09d", i);
+            map.put(loanId, engine.createLoan(loanId, BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), 52));
+        }
+        // visit the book in random order, so lookups miss the cache as they would in production
+        Random random = new Random(42);
+        loanIds = new String[loanCount];
+        handles = new int[loanCount];
+        for (int i = 0; i < loanCount; i++) {
+            int index = random.nextInt(loanCount);
+            loanIds[i] = String.format("LOAN-%09d", index);
+            loanIds[i].hashCode();
+            handles[i] = engine.getHandle(loanIds[i]);
+        }
+    }
+
+    @Benchmark
+    public Loan hashMapGet(Cursor cursor) {
+        return map.get(loanIds[cursor.next(loanCount)]);
+    }
+
+    @Benchmark
+    public int registryGetHandle(Cursor cursor) {
+        return engine.getHandle(loanIds[cursor.next(loanCount)]);
+    }
+
+    @Benchmark
+    public BigDecimal outstandingById(Cursor cursor) {
+        return engine.getOutstanding(loanIds[cursor.next(loanCount)]);
+    }
+
+    @Benchmark
+    public BigDecimal outstandingByHandle(Cursor cursor) {
+        return engine.getOutstanding(handles[cursor.next(loanCount)]);
+    }
+}
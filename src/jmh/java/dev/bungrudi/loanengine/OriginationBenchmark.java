@@ -0,0 +1,109 @@
+package dev.bungrudi.loanengine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loan origination through {@link ConsumptiveWeeklyLoanFactory#createLoan} alone, through {@link LoanEngine#createLoan},
+ * and through {@link LoanEngine#createLoans} in batches of {@value #BATCH_SIZE} on the common pool.
+ * Loan ids cycle over {@code loanCount} values, so the engine's book grows up to that size and then stays there; a batch
+ * finds its ids already taken once they wrap around, so the batch benchmark starts over with a new engine then.
+ * Loan amounts cycle over {@value #PRODUCTS} values, so there are that many products per term; with a
+ * {@code templateCacheSize} above 0 the factory shares their schedule templates through a {@link ScheduleTemplateCache}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OriginationBenchmark {
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+    private static final BigDecimal LOAN_AMOUNT = BigDecimal.valueOf(5_000_000);
+    private static final BigDecimal INTEREST_RATE = BigDecimal.valueOf(0.1);
+    private static final int PRODUCTS = 100;
+    private static final int BATCH_SIZE = 1024;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    private int loanCount;
+
+    @Param({"25", "52", "104"})
+    private int weeks;
+
+    @Param({"0", "1024"})
+    private int templateCacheSize;
+
+    private ConsumptiveWeeklyLoanFactory factory;
+    private String[] loanIds;
+    private BigDecimal[] loanAmounts;
+    private LoanEngine engine;
+    private final LoanBatch batch = new LoanBatch(BATCH_SIZE);
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void createIds() {
+        factory = templateCacheSize == 0
+                ? new ConsumptiveWeeklyLoanFactory()
+                : new ConsumptiveWeeklyLoanFactory(new ScheduleTemplateCache(templateCacheSize));
+        loanIds = new String[loanCount];
+        loanAmounts = new BigDecimal[loanCount];
+        for (int i = 0; i < loanCount; i++) {
+            loanIds[i] = String.format("LOAN-%09d", i);
+            loanAmounts[i] = LOAN_AMOUNT.add(BigDecimal.valueOf(10_000L * (i % PRODUCTS)));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createEngine() {
+        engine = new LoanEngine(START_DATE, factory);
+        cursor = 0;
+    }
+
+    private int next() {
+        int index = cursor;
+        cursor = cursor + 1 == loanCount ? 0 : cursor + 1;
+        return index;
+    }
+
+    @Benchmark
+    public Loan factoryCreateLoan() {
+        int i = next();
+        return factory.createLoan(loanIds[i], loanAmounts[i], INTEREST_RATE, weeks, START_DATE);
+    }
+
+    @Benchmark
+    public Loan engineCreateLoan() {
+        int i = next();
+        return engine.createLoan(loanIds[i], loanAmounts[i], INTEREST_RATE, weeks);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public OriginationResult[] engineCreateLoans() {
+        if (cursor + BATCH_SIZE > loanCount) {
+            engine = new LoanEngine(START_DATE, factory);
+            cursor = 0;
+        }
+        batch.clear();
+        for (int n = 0; n < BATCH_SIZE; n++) {
+            int i = next();
+            batch.add(loanIds[i], loanAmounts[i], INTEREST_RATE, weeks);
+        }
+        return engine.createLoans(batch);
+    }
+}
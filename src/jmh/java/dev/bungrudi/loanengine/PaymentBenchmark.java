@@ -0,0 +1,101 @@
+package dev.bungrudi.loanengine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payment path with amounts in minor units compared to the previous double/BigDecimal bookkeeping.
+ * Each invocation pays off a whole 104-week loan. Run with {@code -prof gc} to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentBenchmark {
+    private static final int WEEKS = 104;
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+    private static final LocalDate PAYMENT_DATE = START_DATE.plusWeeks(WEEKS + 1);
+
+    private final ConsumptiveWeeklyLoanFactory factory = new ConsumptiveWeeklyLoanFactory();
+    private Loan loan;
+    private long weeklyPaymentMinor;
+    private BigDecimal weeklyPayment;
+    private DoubleAmountLoan doubleAmountLoan;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        loan = factory.createLoan("L001", BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), WEEKS, START_DATE);
+        weeklyPaymentMinor = loan.getWeeklyPaymentMinor();
+        weeklyPayment = loan.getWeeklyPayment();
+        doubleAmountLoan = new DoubleAmountLoan(loan.getTotalAmount(), weeklyPayment.doubleValue(), WEEKS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WEEKS)
+    public long minorUnits() {
+        for (int i = 0; i < WEEKS; i++) {
+            loan.makePayment(weeklyPaymentMinor, PAYMENT_DATE);
+        }
+        return loan.getOutstandingMinor();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WEEKS)
+    public long minorUnitsFromBigDecimal() {
+        for (int i = 0; i < WEEKS; i++) {
+            loan.makePayment(weeklyPayment, PAYMENT_DATE);
+        }
+        return loan.getOutstandingMinor();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WEEKS)
+    public BigDecimal doubleAndBigDecimal() {
+        for (int i = 0; i < WEEKS; i++) {
+            doubleAmountLoan.makePayment(weeklyPayment);
+        }
+        return doubleAmountLoan.outstanding;
+    }
+
+    /**
+     * the payment bookkeeping as it was before amounts moved to minor units: installments as {@code double},
+     * totals as {@link BigDecimal}, converted on every payment
+     */
+    static class DoubleAmountLoan {
+        private final double[] amountsDue;
+        private BigDecimal outstanding;
+        private int paidCount;
+
+        DoubleAmountLoan(BigDecimal totalAmount, double weeklyPayment, int weeks) {
+            this.amountsDue = new double[weeks];
+            Arrays.fill(amountsDue, weeklyPayment);
+            this.outstanding = totalAmount;
+        }
+
+        void makePayment(BigDecimal amount) {
+            double amountDue = amountsDue[paidCount];
+            if (amount.compareTo(BigDecimal.valueOf(amountDue)) != 0) {
+                throw new IllegalArgumentException("Payment must be exact amount due for week " + paidCount);
+            }
+            paidCount++;
+            outstanding = outstanding.subtract(BigDecimal.valueOf(amountDue));
+        }
+    }
+}
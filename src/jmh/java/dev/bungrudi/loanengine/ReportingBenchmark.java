@@ -0,0 +1,107 @@
+package dev.bungrudi.loanengine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Payment throughput while a full-book report runs on a {@link BookView}. {@value #PAYERS} threads pay installments
+ * on their own share of a book of {@code loanCount} loans, all of whose installments are due; a fourth thread reports
+ * on the whole book again and again with {@code report} {@code VIEW}, summing the outstanding amounts of a view, or
+ * burns CPU without touching the book with {@code NONE}, so the payers get the same share of the cores either way and
+ * the difference is what the view costs them. The book is rebuilt every iteration; it must hold more installments
+ * than the payers get through in one.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportingBenchmark {
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+    private static final int WEEKS = 104;
+    private static final int PAYERS = 3;
+
+    public enum Report {NONE, VIEW}
+
+    @Param({"200000"})
+    private int loanCount;
+
+    @Param({"NONE", "VIEW"})
+    private Report report;
+
+    private LoanEngine engine;
+    private long weeklyPaymentMinor;
+    private final AtomicInteger payers = new AtomicInteger();
+
+    @Setup(Level.Iteration)
+    public void createBook() {
+        engine = new LoanEngine(START_DATE, new ConsumptiveWeeklyLoanFactory());
+        for (int i = 0; i < loanCount; i++) {
+            engine.createLoan(String.format("LOAN-%09d", i), BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), WEEKS);
+        }
+        engine.advanceTo(START_DATE.plusWeeks(WEEKS + 1));
+        weeklyPaymentMinor = engine.getLoan(0).getWeeklyPaymentMinor();
+    }
+
+    /**
+     * pays handles {@code payer}, {@code payer + PAYERS}, ... in turn, a week of every one per round
+     */
+    @State(Scope.Thread)
+    public static class Payer {
+        private int payer = -1;
+        private int handle;
+
+        @Setup(Level.Iteration)
+        public void start(ReportingBenchmark book) {
+            if (payer < 0) {
+                payer = book.payers.getAndIncrement() % PAYERS;
+            }
+            handle = payer;
+        }
+    }
+
+    @Benchmark
+    @Group("book")
+    @GroupThreads(PAYERS)
+    public void pay(Payer payer) {
+        engine.makePayment(payer.handle, weeklyPaymentMinor);
+        payer.handle += PAYERS;
+        if (payer.handle >= loanCount) {
+            payer.handle = payer.payer;
+        }
+    }
+
+    @Benchmark
+    @Group("book")
+    @GroupThreads(1)
+    public long report() {
+        if (report == Report.NONE) {
+            Blackhole.consumeCPU(1024);
+            return 0;
+        }
+        long[] outstanding = new long[1];
+        try (BookView view = engine.openView()) {
+            view.forEach(loan -> outstanding[0] += loan.getOutstandingMinor());
+        }
+        return outstanding[0];
+    }
+}
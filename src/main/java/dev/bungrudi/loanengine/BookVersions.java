@@ -0,0 +1,136 @@
+package dev.bungrudi.loanengine;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The versions of a {@link LoanEngine}'s loans kept for its open {@link BookView}s: per handle, the latest
+ * {@link LoanVersion}, chained to the older ones a view may still read. Nothing is recorded while no view is open; a
+ * handle without a version then has its loan unchanged since every open view was opened.
+ * <p>
+ * Views are opened and versions recorded under the engine's day lock, exclusive for opening, so no change is under
+ * way when a view takes its version and every later change is recorded at a higher one. Versions are recorded under
+ * the loan's lock.
+ */
+class BookVersions {
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    /**
+     * pages of latest versions by handle; a longer array replaces this one when a page is added, the pages stay
+     */
+    private volatile AtomicReferenceArray<LoanVersion>[] pages = newPages(0);
+    private final Lock growLock = new ReentrantLock();
+    private final ConcurrentSkipListSet<Long> openViews = new ConcurrentSkipListSet<>();
+    /**
+     * the version changes are recorded at, one above the latest open view
+     */
+    private volatile long version;
+
+    /**
+     * Returns the version of a new view; the caller holds the day lock exclusively.
+     */
+    long open() {
+        long view = version;
+        openViews.add(view);
+        version = view + 1;
+        return view;
+    }
+
+    /**
+     * @return whether no view is left open
+     */
+    boolean close(long view) {
+        openViews.remove(view);
+        return openViews.isEmpty();
+    }
+
+    boolean isRecording() {
+        return !openViews.isEmpty();
+    }
+
+    LoanVersion get(int handle) {
+        AtomicReferenceArray<LoanVersion>[] current = pages;
+        int page = handle >>> PAGE_SHIFT;
+        return page < current.length ? current[page].get(handle & (PAGE_SIZE - 1)) : null;
+    }
+
+    /**
+     * Returns the version to chain the next one of the handle to, taking the loan as it stands if none was recorded,
+     * or null if nothing is recorded. Called before the loan at the handle changes, with null for no loan.
+     */
+    LoanVersion before(int handle, Loan loan) {
+        if (openViews.isEmpty()) {
+            return null;
+        }
+        LoanVersion latest = get(handle);
+        return latest != null ? latest : new LoanVersion(loan, 0, null);
+    }
+
+    /**
+     * Records the loan at the handle as it stands after a change, with null for no loan, chained to what
+     * {@link #before} returned, and drops the versions no open view needs any more.
+     */
+    void after(int handle, LoanVersion previous, Loan loan) {
+        if (previous == null) {
+            // no view to record for; a version left from one closed since is stale now
+            if (get(handle) != null) {
+                page(handle).set(handle & (PAGE_SIZE - 1), null);
+            }
+            return;
+        }
+        Long oldest = openViews.ceiling(Long.MIN_VALUE);
+        long oldestView = oldest == null ? Long.MAX_VALUE : oldest;
+        // the oldest view reads the first version at or below it and newer views one nearer the latest, none one past it
+        LoanVersion kept = previous;
+        while (kept.version > oldestView) {
+            kept = kept.older;
+        }
+        kept.older = null;
+        page(handle).set(handle & (PAGE_SIZE - 1), new LoanVersion(loan, version, previous));
+    }
+
+    /**
+     * Drops every recorded version, once the last view is closed; the caller holds the day lock so none opens.
+     */
+    void clear() {
+        for (AtomicReferenceArray<LoanVersion> page : pages) {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                if (page.get(i) != null) {
+                    page.set(i, null);
+                }
+            }
+        }
+    }
+
+    private AtomicReferenceArray<LoanVersion> page(int handle) {
+        int page = handle >>> PAGE_SHIFT;
+        AtomicReferenceArray<LoanVersion>[] current = pages;
+        if (page < current.length) {
+            return current[page];
+        }
+        growLock.lock();
+        try {
+            current = pages;
+            if (page >= current.length) {
+                AtomicReferenceArray<LoanVersion>[] grown = Arrays.copyOf(current, page + 1);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new AtomicReferenceArray<>(PAGE_SIZE);
+                }
+                pages = grown;
+                current = grown;
+            }
+            return current[page];
+        } finally {
+            growLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<LoanVersion>[] newPages(int count) {
+        return (AtomicReferenceArray<LoanVersion>[]) new AtomicReferenceArray<?>[count];
+    }
+}
@@ -0,0 +1,80 @@
+package dev.bungrudi.loanengine;
+
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+/**
+ * Point-in-time view of a {@link LoanEngine}'s live book, from {@link LoanEngine#openView()}, for reports that need
+ * every loan as of one moment. Payments, end of day and originations go on while it is open; the view keeps seeing the
+ * loans as they stood when it was opened. Loans changed since are read from the versions the engine records for open
+ * views, without locks; a loan unchanged since is read under its lock, held only to take its fields. Loans archived
+ * before the view was opened are not in it.
+ * <p>
+ * A view is meant for one reader thread. Close it when done: the engine records versions only while a view is open,
+ * and drops those no open view can read.
+ */
+public class BookView implements AutoCloseable {
+    private final LoanEngine engine;
+    private final long version;
+    /**
+     * the engine's date when the view was opened
+     */
+    @Getter
+    private final LocalDate date;
+    /**
+     * loans registered later have no version the view can see
+     */
+    private final int handleCount;
+    private boolean closed;
+
+    BookView(LoanEngine engine, long version, LocalDate date, int handleCount) {
+        this.engine = engine;
+        this.version = version;
+        this.date = date;
+        this.handleCount = handleCount;
+    }
+
+    /**
+     * Returns the loan as it stood when the view was opened.
+     *
+     * @throws IllegalArgumentException if there was no live loan with the id
+     */
+    public LoanVersion getLoan(String loanId) {
+        checkOpen();
+        int handle = engine.findHandle(loanId);
+        LoanVersion loan = handle == LoanRegistry.NOT_FOUND || handle >= handleCount ? null : engine.read(handle, version);
+        if (loan == null) {
+            throw new IllegalArgumentException("Loan not found");
+        }
+        return loan;
+    }
+
+    /**
+     * Passes every loan of the book as it stood when the view was opened to the action, in handle order.
+     */
+    public void forEach(Consumer<LoanVersion> action) {
+        checkOpen();
+        for (int handle = 0; handle < handleCount; handle++) {
+            LoanVersion loan = engine.read(handle, version);
+            if (loan != null) {
+                action.accept(loan);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            engine.closeView(version);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("View is closed");
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package dev.bungrudi.loanengine;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Loan engine keeping its book in {@link LoanColumns} instead of a {@link Loan} object per loan, for books large enough
+ * that the object graph makes the heap and its collections costly. Loans get the same terms, payment rules and
+ * standings as in {@link LoanEngine}; the {@link Loan} returned by {@link #createLoan} and {@link #getLoan} is a
+ * detached copy that does not change with the book.
+ * <p>
+ * Thread-safe: payments and reads on different loans run concurrently under locks striped on the loan id, while
+ * {@link #createLoan} and {@link #endOfDay()} have the book to themselves. End of day scans the start day and term
+ * columns for loans crossing a week boundary rather than keeping a calendar of them, and the standing column for loans
+ * behind when the {@link LoanFactory} has a {@link PenaltyPolicy}.
+ * <p>
+ * Unlike {@link LoanEngine} it is not persistent and keeps no indexes or aggregates.
+ */
+public class ColumnarLoanEngine implements LoanOperations {
+    private static final int LOCK_STRIPES = 256;
+
+    private final LoanColumns columns;
+    private final LoanFactory loanFactory;
+    /**
+     * the factory's, null for none
+     */
+    private final PenaltyPolicy penaltyPolicy;
+    private final LoanLocks loanLocks;
+    /**
+     * shared by operations on single loans, exclusive for those adding rows or changing the date
+     */
+    private final ReadWriteLock bookLock;
+    @Getter
+    private volatile LocalDate currentDate;
+    private int currentDay;
+
+    public ColumnarLoanEngine(LocalDate currentDate, LoanFactory loanFactory) {
+        this.columns = new LoanColumns();
+        this.loanFactory = loanFactory;
+        this.penaltyPolicy = loanFactory.getPenaltyPolicy();
+        this.loanLocks = new LoanLocks(LOCK_STRIPES);
+        this.bookLock = new ReentrantReadWriteLock();
+        this.currentDate = currentDate;
+        this.currentDay = (int) currentDate.toEpochDay();
+    }
+
+    @Override
+    public Loan createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
+        bookLock.writeLock().lock();
+        try {
+            Loan loan = loanFactory.createLoan(loanId, loanAmount, interestRate, numberOfWeeks, currentDate);
+            store(loan);
+            return loan;
+        } finally {
+            bookLock.writeLock().unlock();
+        }
+    }
+
+    private void store(Loan loan) {
+        BigDecimal loanAmount = loan.getLoanAmount();
+        if (loanAmount.scale() != (byte) loanAmount.scale()) {
+            throw new ArithmeticException("Loan amount scale out of range");
+        }
+        RepaymentSchedule schedule = loan.getRepaymentSchedule();
+        int row = columns.put(loan.getLoanId(), loan.getNumberOfWeeks());
+        columns.putLong(LoanColumns.TOTAL_AMOUNT, row, loan.getTotalAmountMinor());
+        columns.putLong(LoanColumns.INSTALLMENT, row, schedule.getInstallment());
+        columns.putLong(LoanColumns.OUTSTANDING, row, loan.getOutstandingMinor());
+        columns.putLong(LoanColumns.PENALTY, row, loan.getPenaltyMinor());
+        columns.putLong(LoanColumns.LOAN_AMOUNT_UNSCALED, row, loanAmount.unscaledValue().longValueExact());
+        columns.putByte(LoanColumns.LOAN_AMOUNT_SCALE, row, (byte) loanAmount.scale());
+        columns.putLong(LoanColumns.INTEREST_RATE, row, Double.doubleToRawLongBits(loan.getInterestRate()));
+        columns.putInt(LoanColumns.START_DAY, row, (int) loan.getStartDate().toEpochDay());
+        columns.putInt(LoanColumns.FIRST_DUE_DAY, row, (int) schedule.getFirstDueDate().toEpochDay());
+        columns.putInt(LoanColumns.WEEKS, row, loan.getNumberOfWeeks());
+        columns.putInt(LoanColumns.PAID_COUNT, row, loan.getPaidCount());
+        for (int week = 0; week < loan.getPaidCount(); week++) {
+            columns.putPaymentDay(row, week, (int) schedule.getPaymentDate(week).toEpochDay());
+        }
+        columns.putInt(LoanColumns.OVERDUE_COUNT, row, loan.getOverdueCount());
+        columns.putByte(LoanColumns.STANDING, row, (byte) loan.getStanding().ordinal());
+    }
+
+    @Override
+    public void makePayment(String loanId, BigDecimal amount) {
+        makePayment(loanId, Money.toMinorOrInvalid(amount));
+    }
+
+    @Override
+    public void makePayment(String loanId, long amountMinor) {
+        bookLock.readLock().lock();
+        try {
+            int row = getRow(loanId);
+            Lock lock = loanLocks.get(loanId);
+            lock.lock();
+            try {
+                PaymentResult result = tryPayment(row, amountMinor, currentDay);
+                result.throwIfRejected(columns.getInt(LoanColumns.PAID_COUNT, row));
+                updateStatus(row, currentDay);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            bookLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a batch of payments and reports the outcome of each entry instead of throwing. As in
+     * {@link LoanEngine#makePayments(PaymentBatch)}, entries for the same loan are applied in batch order under a
+     * single acquisition of the loan's lock, and its standing is updated once after all of them.
+     *
+     * @return one result per batch entry, in batch order
+     */
+    @Override
+    public PaymentResult[] makePayments(PaymentBatch batch) {
+        int size = batch.size();
+        PaymentResult[] results = new PaymentResult[size];
+        // chain the entries of each loan in batch order: first entry per loan, then next[] to the following one
+        Map<String, Integer> firstEntry = new HashMap<>();
+        int[] next = new int[size];
+        int[] last = new int[size];
+        for (int i = 0; i < size; i++) {
+            next[i] = -1;
+            Integer first = firstEntry.putIfAbsent(batch.getLoanId(i), i);
+            if (first != null) {
+                next[last[first]] = i;
+                last[first] = i;
+            } else {
+                last[i] = i;
+            }
+        }
+
+        bookLock.readLock().lock();
+        try {
+            for (Map.Entry<String, Integer> group : firstEntry.entrySet()) {
+                String loanId = group.getKey();
+                int row = columns.find(loanId);
+                if (row < 0) {
+                    for (int i = group.getValue(); i >= 0; i = next[i]) {
+                        results[i] = PaymentResult.UNKNOWN_LOAN;
+                    }
+                    continue;
+                }
+                Lock lock = loanLocks.get(loanId);
+                lock.lock();
+                try {
+                    for (int i = group.getValue(); i >= 0; i = next[i]) {
+                        results[i] = tryPayment(row, batch.getAmountMinor(i), currentDay);
+                    }
+                    updateStatus(row, currentDay);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            bookLock.readLock().unlock();
+        }
+        return results;
+    }
+
+    /**
+     * Same rules as {@link Loan#tryPayment(long, LocalDate)}.
+     */
+    private PaymentResult tryPayment(int row, long amountMinor, int day) {
+        int paidCount = columns.getInt(LoanColumns.PAID_COUNT, row);
+        int unpaidCount = columns.getInt(LoanColumns.WEEKS, row) - paidCount;
+        long penalty = columns.getLong(LoanColumns.PENALTY, row);
+        if (unpaidCount == 0 && penalty == 0) {
+            return PaymentResult.NO_MORE_DUE;
+        }
+        long installment = columns.getLong(LoanColumns.INSTALLMENT, row);
+        int count = Loan.installmentCount(amountMinor, installment, unpaidCount, penalty);
+        if (count != 0 && unpaidCount > 0 && paidCount > currentWeek(row, day)) {
+            return PaymentResult.NOT_DUE;
+        }
+        if (count < 0) {
+            return PaymentResult.WRONG_AMOUNT;
+        }
+        for (int week = paidCount; week < paidCount + count; week++) {
+            columns.putPaymentDay(row, week, day);
+        }
+        columns.putLong(LoanColumns.OUTSTANDING, row, columns.getLong(LoanColumns.OUTSTANDING, row) - amountMinor);
+        columns.putLong(LoanColumns.PENALTY, row, penalty - (amountMinor - count * installment));
+        columns.putInt(LoanColumns.PAID_COUNT, row, paidCount + count);
+        return PaymentResult.OK;
+    }
+
+    /**
+     * Same rules as {@link Loan#updateStatus(LocalDate)}.
+     *
+     * @return the standing before the update
+     */
+    private LoanStanding updateStatus(int row, int day) {
+        LoanStanding previous = standing(row);
+        int currentWeek = currentWeek(row, day);
+        int paidCount = columns.getInt(LoanColumns.PAID_COUNT, row);
+        LoanStanding standing = Loan.standing(currentWeek, paidCount, columns.getInt(LoanColumns.WEEKS, row));
+        columns.putInt(LoanColumns.OVERDUE_COUNT, row, Loan.overdueCount(currentWeek, paidCount));
+        columns.putByte(LoanColumns.STANDING, row, (byte) standing.ordinal());
+        return previous;
+    }
+
+    /**
+     * Accrues the day's penalties on every loan that is {@link LoanStanding#LATE} or {@link LoanStanding#DELINQUENT},
+     * gathered from the columns into primitive arrays for the policy.
+     */
+    private void accruePenalties(int day) {
+        int size = columns.size();
+        int[] rows = new int[size];
+        int count = 0;
+        byte late = (byte) LoanStanding.LATE.ordinal();
+        byte delinquent = (byte) LoanStanding.DELINQUENT.ordinal();
+        for (int row = 0; row < size; row++) {
+            byte standing = columns.getByte(LoanColumns.STANDING, row);
+            if (standing == late || standing == delinquent) {
+                rows[count++] = row;
+            }
+        }
+        long[] overdueMinor = new long[count];
+        int[] daysPastDue = new int[count];
+        long[] penaltyMinor = new long[count];
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            overdueMinor[i] = columns.getInt(LoanColumns.OVERDUE_COUNT, row) * columns.getLong(LoanColumns.INSTALLMENT, row);
+            // the oldest unpaid installment is due a week after the one before it
+            daysPastDue[i] = day - columns.getInt(LoanColumns.FIRST_DUE_DAY, row) - 7 * columns.getInt(LoanColumns.PAID_COUNT, row);
+        }
+        penaltyPolicy.accrue(overdueMinor, daysPastDue, penaltyMinor, count);
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            columns.putLong(LoanColumns.PENALTY, row, columns.getLong(LoanColumns.PENALTY, row) + penaltyMinor[i]);
+            columns.putLong(LoanColumns.OUTSTANDING, row, columns.getLong(LoanColumns.OUTSTANDING, row) + penaltyMinor[i]);
+        }
+    }
+
+    private int currentWeek(int row, int day) {
+        return Loan.currentWeek(day - columns.getInt(LoanColumns.START_DAY, row), columns.getInt(LoanColumns.WEEKS, row));
+    }
+
+    private LoanStanding standing(int row) {
+        return LoanStanding.values()[columns.getByte(LoanColumns.STANDING, row)];
+    }
+
+    @Override
+    public BigDecimal getOutstanding(String loanId) {
+        bookLock.readLock().lock();
+        try {
+            int row = getRow(loanId);
+            Lock lock = loanLocks.get(loanId);
+            lock.lock();
+            try {
+                return Money.toBigDecimal(columns.getLong(LoanColumns.OUTSTANDING, row));
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            bookLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isDelinquent(String loanId) {
+        bookLock.readLock().lock();
+        try {
+            int row = getRow(loanId);
+            Lock lock = loanLocks.get(loanId);
+            lock.lock();
+            try {
+                return standing(row) == LoanStanding.DELINQUENT;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            bookLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of the loan as it is now.
+     */
+    @Override
+    public Loan getLoan(String loanId) {
+        bookLock.readLock().lock();
+        try {
+            int row = getRow(loanId);
+            Lock lock = loanLocks.get(loanId);
+            lock.lock();
+            try {
+                return toLoan(loanId, row);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            bookLock.readLock().unlock();
+        }
+    }
+
+    private Loan toLoan(String loanId, int row) {
+        int numberOfWeeks = columns.getInt(LoanColumns.WEEKS, row);
+        BigDecimal loanAmount = new BigDecimal(BigInteger.valueOf(columns.getLong(LoanColumns.LOAN_AMOUNT_UNSCALED, row)),
+                columns.getByte(LoanColumns.LOAN_AMOUNT_SCALE, row));
+        RepaymentSchedule schedule = new RepaymentSchedule(LocalDate.ofEpochDay(columns.getInt(LoanColumns.FIRST_DUE_DAY, row)),
+                numberOfWeeks, columns.getLong(LoanColumns.INSTALLMENT, row));
+        Loan loan = new Loan(loanId, loanAmount, columns.getLong(LoanColumns.TOTAL_AMOUNT, row),
+                Double.longBitsToDouble(columns.getLong(LoanColumns.INTEREST_RATE, row)), numberOfWeeks,
+                LocalDate.ofEpochDay(columns.getInt(LoanColumns.START_DAY, row)), schedule);
+        for (int week = 0; week < columns.getInt(LoanColumns.PAID_COUNT, row); week++) {
+            loan.restorePayment(LocalDate.ofEpochDay(columns.getPaymentDay(row, week)));
+        }
+        loan.accruePenalty(columns.getLong(LoanColumns.PENALTY, row));
+        loan.restoreStatus(standing(row), columns.getInt(LoanColumns.OVERDUE_COUNT, row));
+        return loan;
+    }
+
+    private int getRow(String loanId) {
+        int row = columns.find(loanId);
+        if (row < 0) {
+            throw new IllegalArgumentException("Loan not found");
+        }
+        return row;
+    }
+
+    /**
+     * Bytes the book takes outside the heap.
+     */
+    public long getOffHeapBytes() {
+        bookLock.readLock().lock();
+        try {
+            return columns.getOffHeapBytes();
+        } finally {
+            bookLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves to the next day and re-evaluates the standing of every loan crossing a week boundary on it, the same
+     * loans {@link LoanEngine#endOfDay()} would, then accrues the day's penalties on the loans behind as it does.
+     */
+    @Override
+    public EndOfDaySummary endOfDay() {
+        bookLock.writeLock().lock();
+        try {
+            int day = currentDay + 1;
+            LocalDate date = LocalDate.ofEpochDay(day);
+            EndOfDaySummary summary = new EndOfDaySummary(date);
+            for (int row = 0; row < columns.size(); row++) {
+                // week boundaries fall on the day after the start and every 7 days after that, one per week of the term
+                int daysSinceBoundary = day - columns.getInt(LoanColumns.START_DAY, row) - 1;
+                if (daysSinceBoundary < 0 || daysSinceBoundary % 7 != 0
+                        || daysSinceBoundary / 7 >= columns.getInt(LoanColumns.WEEKS, row)) {
+                    continue;
+                }
+                LoanStanding previous = updateStatus(row, day);
+                LoanStanding standing = standing(row);
+                summary.record(standing, previous);
+                if (EndOfDaySummary.isNewlyDelinquent(standing, previous)) {
+                    summary.recordNewlyDelinquent(columns.getLoanId(row));
+                }
+            }
+            if (penaltyPolicy != null) {
+                accruePenalties(day);
+            }
+            currentDay = day;
+            currentDate = date;
+            return summary;
+        } finally {
+            bookLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package dev.bungrudi.loanengine;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Maps loan ids to shards by consistent hashing: every shard takes {@value #VIRTUAL_NODES} points on a ring of int
+ * hashes, and a loan belongs to the shard owning the first point at or after the hash of its id. Adding or removing
+ * a shard only moves the loans between its points and their neighbours, about one shard's share of the book.
+ * Immutable.
+ */
+final class ConsistentHashRing {
+    static final int VIRTUAL_NODES = 160;
+
+    /**
+     * point hash in the high half, shard index in the low half, sorted
+     */
+    private final long[] points;
+
+    ConsistentHashRing(List<String> shardIds) {
+        if (shardIds.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        if (new HashSet<>(shardIds).size() != shardIds.size()) {
+            throw new IllegalArgumentException("Shard ids must be unique");
+        }
+        points = new long[shardIds.size() * VIRTUAL_NODES];
+        for (int shard = 0; shard < shardIds.size(); shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                int hash = hash(shardIds.get(shard) + "#" + node);
+                points[shard * VIRTUAL_NODES + node] = ((long) hash << 32) | shard;
+            }
+        }
+        Arrays.sort(points);
+    }
+
+    /**
+     * Returns the index, in the list the ring was built from, of the shard owning the loan.
+     */
+    int ownerOf(String loanId) {
+        long key = (long) hash(loanId) << 32;
+        int low = 0;
+        int high = points.length;
+        // first point whose hash is at least the key's
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (points[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (int) points[low == points.length ? 0 : low];
+    }
+
+    /**
+     * Returns the hashes of the loan ids the shard at the index does not own, all of them for a shard not on the
+     * ring, such as -1. A point owns the hashes after the previous point's up to its own.
+     */
+    HashRanges rangesNotOwnedBy(int shard) {
+        int[] starts = new int[points.length + 1];
+        int[] ends = new int[points.length + 1];
+        int count = 0;
+        long previous = Integer.MIN_VALUE - 1L;
+        for (int i = 0; i <= points.length; i++) {
+            // past the last point the ring wraps around to the first
+            long point = points[i == points.length ? 0 : i];
+            long hash = i == points.length ? Integer.MAX_VALUE : point >> 32;
+            if ((int) point != shard && hash > previous) {
+                if (count > 0 && ends[count - 1] == previous) {
+                    ends[count - 1] = (int) hash;
+                } else {
+                    starts[count] = (int) (previous + 1);
+                    ends[count++] = (int) hash;
+                }
+            }
+            previous = Math.max(previous, hash);
+        }
+        return new HashRanges(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    /**
+     * String hash codes of ids like LOAN-000123 differ in the low bits only; the murmur3 finalizer spreads them.
+     */
+    static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
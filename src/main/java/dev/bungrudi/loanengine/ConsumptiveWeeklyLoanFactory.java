@@ -4,15 +4,68 @@ import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.List;
 
 public class ConsumptiveWeeklyLoanFactory implements LoanFactory {
     private static final int WEEKS_PER_MONTH = 4;
-    private static final int SCALE = 2;
+
+    /**
+     * null when the terms are computed for every loan
+     */
+    private final ScheduleTemplateCache templateCache;
+    private final PenaltyPolicy penaltyPolicy;
+
+    public ConsumptiveWeeklyLoanFactory() {
+        this(null);
+    }
+
+    /**
+     * Loans of a product (amount, rate and term) already in {@code templateCache} share its schedule template instead
+     * of having their terms computed again.
+     */
+    public ConsumptiveWeeklyLoanFactory(ScheduleTemplateCache templateCache) {
+        this(templateCache, null);
+    }
+
+    /**
+     * Same as {@link #ConsumptiveWeeklyLoanFactory(ScheduleTemplateCache)}, with loans accruing the penalties of
+     * {@code penaltyPolicy} while behind, or none if null.
+     */
+    public ConsumptiveWeeklyLoanFactory(ScheduleTemplateCache templateCache, PenaltyPolicy penaltyPolicy) {
+        this.templateCache = templateCache;
+        this.penaltyPolicy = penaltyPolicy;
+    }
+
+    @Override
+    public PenaltyPolicy getPenaltyPolicy() {
+        return penaltyPolicy;
+    }
 
     @Override
     public Loan createLoan(String loanId, BigDecimal loanAmount, BigDecimal annualInterestRate, int numberOfWeeks, LocalDate startDate) {
+        ScheduleTemplate template = templateCache == null
+                ? computeTemplate(loanAmount, annualInterestRate, numberOfWeeks)
+                : templateCache.get(loanAmount, annualInterestRate, numberOfWeeks,
+                        () -> computeTemplate(loanAmount, annualInterestRate, numberOfWeeks));
+        RepaymentSchedule schedule = new RepaymentSchedule(template, startDate.plusDays(7));
+        return new Loan(loanId, loanAmount, template.getTotalAmountMinor(), annualInterestRate.doubleValue(), numberOfWeeks, startDate, schedule);
+    }
+
+    /**
+     * Takes the template from the cache, computing it on a miss, as long as it has the installment the loan was
+     * created with.
+     */
+    @Override
+    public ScheduleTemplate restoreTemplate(BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks,
+                                            long installment) {
+        if (templateCache == null) {
+            return null;
+        }
+        ScheduleTemplate template = templateCache.get(loanAmount, interestRate, numberOfWeeks,
+                () -> computeTemplate(loanAmount, interestRate, numberOfWeeks));
+        return template.getInstallment() == installment ? template : null;
+    }
+
+    private ScheduleTemplate computeTemplate(BigDecimal loanAmount, BigDecimal annualInterestRate, int numberOfWeeks) {
 //        MathContext mathContext = new MathContext(3, RoundingMode.CEILING);
 
         // Round up number of weeks to nearest month
@@ -30,22 +83,9 @@ public class ConsumptiveWeeklyLoanFactory implements LoanFactory {
         BigDecimal totalAmount = loanAmount.add(totalInterest);
 
         // Calculate weekly payment
-        BigDecimal weeklyPayment = totalAmount.divide(BigDecimal.valueOf(numberOfWeeks), SCALE, RoundingMode.CEILING);
-
-        List<PaymentDue> schedule = createSchedule(numberOfWeeks, weeklyPayment, startDate.plusDays(7));
+        long weeklyPayment = Money.toMinor(totalAmount.divide(BigDecimal.valueOf(numberOfWeeks), Money.SCALE, RoundingMode.CEILING));
 
-        // adjust total amount to take into account round-up
-        totalAmount = weeklyPayment.multiply(BigDecimal.valueOf(numberOfWeeks));
-        
-        return new Loan(loanId, loanAmount, totalAmount, annualInterestRate.doubleValue(), numberOfWeeks, startDate, schedule);
-    }
-
-    private List<PaymentDue> createSchedule(int numberOfWeeks, BigDecimal weeklyPayment, LocalDate firstPaymentDate) {
-        List<PaymentDue> schedule = new ArrayList<>();
-        for (int i = 0; i < numberOfWeeks; i++) {
-            LocalDate dueDate = firstPaymentDate.plusWeeks(i);
-            schedule.add(new PaymentDue(i, weeklyPayment.doubleValue(), dueDate));
-        }
-        return schedule;
+        // the total is the sum of the installments, to take into account round-up
+        return new ScheduleTemplate(numberOfWeeks, weeklyPayment);
     }
 }
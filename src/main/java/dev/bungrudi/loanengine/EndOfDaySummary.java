@@ -0,0 +1,115 @@
+package dev.bungrudi.loanengine;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of one {@link LoanEngine#endOfDay()} run: how many loans were re-evaluated, the standing they ended up in,
+ * how many of them changed standing and which of them became delinquent on that day. For
+ * {@link LoanEngine#advanceTo} the counts cover every day advanced over, as if the summaries of each day were added up;
+ * a loan crossing several week boundaries is counted once per boundary.
+ */
+@Getter
+@ToString
+public class EndOfDaySummary {
+    private final LocalDate date;
+    private int evaluatedCount;
+    private int transitionCount;
+    private final Map<LoanStanding, Integer> standingCounts;
+    private final List<String> newlyDelinquent;
+    /**
+     * collected only for a {@link StandingTransitionListener}, null until the first one
+     */
+    @Getter(AccessLevel.NONE)
+    private List<StandingTransition> transitions;
+
+    EndOfDaySummary(LocalDate date) {
+        this.date = date;
+        this.standingCounts = new EnumMap<>(LoanStanding.class);
+        this.newlyDelinquent = new ArrayList<>();
+    }
+
+    public int getStandingCount(LoanStanding standing) {
+        return standingCounts.getOrDefault(standing, 0);
+    }
+
+    public Map<LoanStanding, Integer> getStandingCounts() {
+        return Collections.unmodifiableMap(standingCounts);
+    }
+
+    public List<String> getNewlyDelinquent() {
+        return Collections.unmodifiableList(newlyDelinquent);
+    }
+
+    /**
+     * Counts {@code evaluations} consecutive evaluations of a loan that all ended in {@code standing}, the first of
+     * them coming from {@code previous}.
+     */
+    void record(String loanId, LoanStanding standing, LoanStanding previous, int evaluations) {
+        evaluatedCount += evaluations;
+        standingCounts.merge(standing, evaluations, Integer::sum);
+        if (standing != previous) {
+            transitionCount++;
+        }
+        if (isNewlyDelinquent(standing, previous)) {
+            newlyDelinquent.add(loanId);
+        }
+    }
+
+    /**
+     * Counts an evaluated loan; the caller adds it to {@link #recordNewlyDelinquent} when it became delinquent.
+     */
+    void record(LoanStanding standing, LoanStanding previous) {
+        evaluatedCount++;
+        if (standing != previous) {
+            transitionCount++;
+        }
+        standingCounts.merge(standing, 1, Integer::sum);
+    }
+
+    void recordNewlyDelinquent(String loanId) {
+        newlyDelinquent.add(loanId);
+    }
+
+    void recordTransition(StandingTransition transition) {
+        if (transitions == null) {
+            transitions = new ArrayList<>();
+        }
+        transitions.add(transition);
+    }
+
+    /**
+     * The transitions recorded, in date order and otherwise in the order they were recorded.
+     */
+    List<StandingTransition> getTransitionsByDate() {
+        if (transitions == null) {
+            return List.of();
+        }
+        transitions.sort(Comparator.comparing(StandingTransition::getDate));
+        return transitions;
+    }
+
+    static boolean isNewlyDelinquent(LoanStanding standing, LoanStanding previous) {
+        return standing == LoanStanding.DELINQUENT && previous != LoanStanding.DELINQUENT;
+    }
+
+    EndOfDaySummary merge(EndOfDaySummary other) {
+        evaluatedCount += other.evaluatedCount;
+        transitionCount += other.transitionCount;
+        other.standingCounts.forEach((standing, count) -> standingCounts.merge(standing, count, Integer::sum));
+        newlyDelinquent.addAll(other.newlyDelinquent);
+        if (other.transitions != null) {
+            other.transitions.forEach(this::recordTransition);
+        }
+        return this;
+    }
+}
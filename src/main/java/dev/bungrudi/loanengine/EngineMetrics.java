@@ -0,0 +1,158 @@
+package dev.bungrudi.loanengine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the operations of a {@link LoanEngine}: payment outcomes, the latency of every
+ * operation, the time end of day spends in each phase and the standing transitions it makes. Recording is lock-free
+ * and allocation-free; read everything at once with {@link #snapshot()}.
+ * <p>
+ * The instance from {@link #disabled()} records nothing and does not read the clock, so an engine without metrics
+ * pays a single branch per operation.
+ */
+public class EngineMetrics {
+    private static final EngineMetrics DISABLED = new EngineMetrics(false);
+    private static final int STANDINGS = LoanStanding.values().length;
+
+    /**
+     * Latency is recorded for calls that return normally; rejected payments are still counted by outcome.
+     */
+    public enum Operation {
+        CREATE_LOAN, CREATE_LOANS, MAKE_PAYMENT, MAKE_PAYMENTS, END_OF_DAY, ADVANCE_TO
+    }
+
+    public enum Phase {
+        /**
+         * taking the loans crossing a week boundary off the calendar
+         */
+        DRAIN,
+        /**
+         * re-evaluating their standing
+         */
+        EVALUATE,
+        /**
+         * accruing penalties on the loans behind, nothing unless the factory has a {@link PenaltyPolicy}
+         */
+        ACCRUE_PENALTIES,
+        /**
+         * appending to the journal and writing a snapshot when one is due
+         */
+        PERSIST
+    }
+
+    private final boolean enabled;
+    private final LongAdder[] paymentResults;
+    private final LatencyHistogram[] operations;
+    private final LatencyHistogram[] phases;
+    private final AtomicLongArray lastPhaseNanos;
+    /**
+     * indexed by previous standing * {@link #STANDINGS} + new standing
+     */
+    private final LongAdder[] transitions;
+
+    public EngineMetrics() {
+        this(true);
+    }
+
+    private EngineMetrics(boolean enabled) {
+        this.enabled = enabled;
+        this.paymentResults = adders(PaymentResult.values().length);
+        this.operations = histograms(Operation.values().length);
+        this.phases = histograms(Phase.values().length);
+        this.lastPhaseNanos = new AtomicLongArray(Phase.values().length);
+        this.transitions = adders(STANDINGS * STANDINGS);
+    }
+
+    /**
+     * Returns the shared instance that records nothing.
+     */
+    public static EngineMetrics disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the time to measure an operation from, or 0 without reading the clock when disabled.
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void recordOperation(Operation operation, long start) {
+        if (enabled) {
+            operations[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a phase of end of day that began at {@code start}.
+     *
+     * @return the time the phase ended, to measure the next one from
+     */
+    long recordPhase(Phase phase, long start) {
+        if (!enabled) {
+            return 0;
+        }
+        long end = System.nanoTime();
+        phases[phase.ordinal()].record(end - start);
+        lastPhaseNanos.set(phase.ordinal(), end - start);
+        return end;
+    }
+
+    void recordPayment(PaymentResult result) {
+        if (enabled) {
+            paymentResults[result.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Records an end-of-day evaluation that moved a loan from one standing to another.
+     */
+    void recordTransition(LoanStanding previous, LoanStanding standing) {
+        if (enabled && previous != standing) {
+            transitions[previous.ordinal() * STANDINGS + standing.ordinal()].increment();
+        }
+    }
+
+    public MetricsSnapshot snapshot() {
+        long[] paymentCounts = new long[paymentResults.length];
+        for (int i = 0; i < paymentCounts.length; i++) {
+            paymentCounts[i] = paymentResults[i].sum();
+        }
+        LatencyHistogram.Snapshot[] operationSnapshots = new LatencyHistogram.Snapshot[operations.length];
+        for (int i = 0; i < operationSnapshots.length; i++) {
+            operationSnapshots[i] = operations[i].snapshot();
+        }
+        LatencyHistogram.Snapshot[] phaseSnapshots = new LatencyHistogram.Snapshot[phases.length];
+        long[] lastPhases = new long[phases.length];
+        for (int i = 0; i < phaseSnapshots.length; i++) {
+            phaseSnapshots[i] = phases[i].snapshot();
+            lastPhases[i] = lastPhaseNanos.get(i);
+        }
+        long[] transitionCounts = new long[transitions.length];
+        for (int i = 0; i < transitionCounts.length; i++) {
+            transitionCounts[i] = transitions[i].sum();
+        }
+        return new MetricsSnapshot(paymentCounts, operationSnapshots, phaseSnapshots, lastPhases, transitionCounts);
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static LatencyHistogram[] histograms(int count) {
+        LatencyHistogram[] histograms = new LatencyHistogram[count];
+        for (int i = 0; i < count; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
@@ -0,0 +1,48 @@
+package dev.bungrudi.loanengine;
+
+import java.util.Arrays;
+
+/**
+ * Ranges of loan id hashes on a {@link ConsistentHashRing}, naming the loans whose ids hash into them without listing
+ * the ids, so a {@link LoanShard} on another node can be asked for them. Immutable.
+ */
+public final class HashRanges {
+    /**
+     * inclusive bounds, sorted and not overlapping
+     */
+    private final int[] starts;
+    private final int[] ends;
+
+    /**
+     * @param starts the first hash of every range, in ascending order
+     * @param ends   the last hash of every range, before the start of the next
+     */
+    public HashRanges(int[] starts, int[] ends) {
+        if (starts.length != ends.length) {
+            throw new IllegalArgumentException("Every range needs a start and an end");
+        }
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] > ends[i] || i > 0 && starts[i] <= ends[i - 1]) {
+                throw new IllegalArgumentException("Ranges must be sorted and not overlap");
+            }
+        }
+        this.starts = starts.clone();
+        this.ends = ends.clone();
+    }
+
+    public int[] getStarts() {
+        return starts.clone();
+    }
+
+    public int[] getEnds() {
+        return ends.clone();
+    }
+
+    public boolean contains(String loanId) {
+        int hash = ConsistentHashRing.hash(loanId);
+        int range = Arrays.binarySearch(starts, hash);
+        // otherwise the last range starting below the hash
+        range = range >= 0 ? range : -range - 2;
+        return range >= 0 && hash <= ends[range];
+    }
+}
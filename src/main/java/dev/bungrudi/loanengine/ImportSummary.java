@@ -0,0 +1,51 @@
+package dev.bungrudi.loanengine;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Outcome of one {@link SettlementFileImporter#importFile} run.
+ */
+@Getter
+@ToString
+public class ImportSummary {
+    private final long lines;
+    /**
+     * lines that could not be parsed into a loan id and an amount
+     */
+    private final long malformedLines;
+    private final Map<PaymentResult, Long> results;
+    private final long elapsedNanos;
+
+    ImportSummary(long lines, long malformedLines, long[] resultCounts, long elapsedNanos) {
+        this.lines = lines;
+        this.malformedLines = malformedLines;
+        this.results = new EnumMap<>(PaymentResult.class);
+        for (PaymentResult result : PaymentResult.values()) {
+            results.put(result, resultCounts[result.ordinal()]);
+        }
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getAppliedPayments() {
+        return results.get(PaymentResult.OK);
+    }
+
+    public long getResultCount(PaymentResult result) {
+        return results.get(result);
+    }
+
+    /**
+     * Malformed lines plus payments the engine did not accept.
+     */
+    public long getRejectedLines() {
+        return lines - getAppliedPayments();
+    }
+
+    public double getLinesPerSecond() {
+        return elapsedNanos == 0 ? 0 : lines * 1e9 / elapsedNanos;
+    }
+}
@@ -5,7 +5,6 @@ import lombok.Setter;
 import lombok.AccessLevel;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
@@ -15,35 +14,57 @@ import java.util.List;
 public class Loan {
     private String loanId;
     private BigDecimal loanAmount;
-    private BigDecimal totalAmount;
+    /**
+     * amounts below are in minor units, see {@link Money}
+     */
+    @Setter(AccessLevel.NONE)
+    private long totalAmountMinor;
     private double interestRate;
-    private BigDecimal weeklyPayment;
+    @Setter(AccessLevel.NONE)
+    private long weeklyPaymentMinor;
     private int numberOfWeeks;
     @Setter(AccessLevel.NONE)
-    private List<PaymentDue> schedule;
+    private RepaymentSchedule repaymentSchedule;
+    @Setter(AccessLevel.NONE)
+    private long outstandingMinor;
+    /**
+     * installments are paid strictly in order, so this is also the index of the next unpaid installment
+     */
+    @Setter(AccessLevel.NONE)
+    private int paidCount;
+    /**
+     * installments past due as of the last {@link #updateStatus(LocalDate)}
+     */
+    @Setter(AccessLevel.NONE)
+    private int overdueCount;
+    /**
+     * penalties accrued while behind and not paid yet, see {@link PenaltyPolicy}; included in the outstanding amount
+     */
     @Setter(AccessLevel.NONE)
-    private BigDecimal outstanding;
+    private long penaltyMinor;
     private LocalDate startDate;
     private LocalDate firstPaymentDate;
     private LoanStanding standing;
-
-    private static final int SCALE = 2;
     /**
-     * banker's rounding
+     * assigned by {@link LoanRegistry} when the loan is added to a {@link LoanEngine}
      */
-    private static final RoundingMode ROUNDING_MODE = RoundingMode.HALF_EVEN;
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private int handle = LoanRegistry.NOT_FOUND;
 
-    public Loan(String loanId, BigDecimal loanAmount, BigDecimal totalAmount, double interestRate, int numberOfWeeks, LocalDate startDate, List<PaymentDue> schedule) {
+
+    public Loan(String loanId, BigDecimal loanAmount, long totalAmountMinor, double interestRate, int numberOfWeeks, LocalDate startDate, RepaymentSchedule repaymentSchedule) {
         this.loanId = loanId;
         this.loanAmount = loanAmount;
-        this.totalAmount = totalAmount;
+        this.totalAmountMinor = totalAmountMinor;
         this.interestRate = interestRate;
-        this.weeklyPayment = this.totalAmount.divide(BigDecimal.valueOf(numberOfWeeks), SCALE, ROUNDING_MODE);
+        // banker's rounding
+        this.weeklyPaymentMinor = Money.divideHalfEven(totalAmountMinor, numberOfWeeks);
         this.numberOfWeeks = numberOfWeeks;
         this.startDate = startDate;
         this.firstPaymentDate = startDate.plusDays(7);
-        this.schedule = schedule;
-        this.outstanding = this.totalAmount;
+        this.repaymentSchedule = repaymentSchedule;
+        this.outstandingMinor = totalAmountMinor;
         this.standing = LoanStanding.GOOD_STANDING;
     }
 
@@ -52,62 +73,178 @@ public class Loan {
     }
 
     public BigDecimal getTotalAmount() {
-        return totalAmount;
+        return Money.toBigDecimal(totalAmountMinor);
     }
 
     public BigDecimal getWeeklyPayment() {
-        return weeklyPayment;
+        return Money.toBigDecimal(weeklyPaymentMinor);
     }
 
     public BigDecimal getOutstanding() {
-        return outstanding;
+        return Money.toBigDecimal(outstandingMinor);
+    }
+
+    public BigDecimal getPenalty() {
+        return Money.toBigDecimal(penaltyMinor);
     }
 
     public int getCurrentWeek(LocalDate date) {
-        if (date.isBefore(startDate.plusDays(1))) {
+        return currentWeek(ChronoUnit.DAYS.between(startDate, date), numberOfWeeks);
+    }
+
+    /**
+     * Week of the term a loan started {@code daysSinceStart} days ago is in, -1 before the first week.
+     */
+    static int currentWeek(long daysSinceStart, int numberOfWeeks) {
+        if (daysSinceStart < 1) {
             return -1;
         }
-        long daysSinceStart = ChronoUnit.DAYS.between(startDate, date);
-        return Math.min(numberOfWeeks - 1, (int) ((daysSinceStart-1) / 7));
+        return (int) Math.min(numberOfWeeks - 1, (daysSinceStart - 1) / 7);
+    }
+
+    /**
+     * Returns the first date after {@code date} on which {@link #getCurrentWeek(LocalDate)} changes,
+     * or {@code null} if the loan is already in its last week. Standing only depends on the current week
+     * and the paid installments, so without payments it cannot change before this date.
+     */
+    public LocalDate getNextWeekBoundary(LocalDate date) {
+        int currentWeek = getCurrentWeek(date);
+        if (currentWeek >= numberOfWeeks - 1) {
+            return null;
+        }
+        return startDate.plusDays(1 + 7L * (currentWeek + 1));
+    }
+
+    /**
+     * Amount of the installments that were past due at the last {@link #updateStatus(LocalDate)}, in minor units.
+     */
+    public long getOverdueMinor() {
+        return overdueCount * repaymentSchedule.getInstallment();
+    }
+
+    /**
+     * Returns the due date of the next unpaid installment, or {@code null} once every installment is paid.
+     */
+    public LocalDate getNextDueDate() {
+        return paidCount < repaymentSchedule.size() ? repaymentSchedule.getDueDate(paidCount) : null;
     }
 
+    /**
+     * Read-only view of the schedule; installments are generated on access.
+     */
     public List<PaymentDue> getSchedule() {
-        return schedule; // ideally we should return immutable wrapper
+        return repaymentSchedule.asList();
     }
 
     public void makePayment(BigDecimal amount, LocalDate paymentDate) {
-        int currentWeek = getCurrentWeek(paymentDate);
-        PaymentDue nextPayment = null;
-        for (PaymentDue payment : schedule) {
-            if (!payment.isPaid()) {
-                nextPayment = payment;
-                break;
-            }
+        makePayment(Money.toMinorOrInvalid(amount), paymentDate);
+    }
+
+    /**
+     * Pays the next unpaid installments, then accrued penalties. The amount is in minor units and goes to as many whole
+     * installments as it covers, at most as many as are left unpaid; what remains pays penalties and must not exceed
+     * them, so without penalties the amount must be a whole number of installments. The first installment paid must
+     * be due; the others may be for weeks that have not started yet, so one payment can catch up on missed weeks and
+     * prepay later ones. An amount smaller than an installment pays penalties only, whether or not one is due, as does
+     * any amount once every installment is paid.
+     */
+    public void makePayment(long amountMinor, LocalDate paymentDate) {
+        tryPayment(amountMinor, paymentDate).throwIfRejected(paidCount);
+    }
+
+    /**
+     * Same as {@link #makePayment(long, LocalDate)}, but reports a rejected payment through the result
+     * instead of an exception.
+     */
+    public PaymentResult tryPayment(long amountMinor, LocalDate paymentDate) {
+        int unpaidCount = repaymentSchedule.size() - paidCount;
+        if (unpaidCount == 0 && penaltyMinor == 0) {
+            return PaymentResult.NO_MORE_DUE;
         }
-        
-        if (nextPayment == null) {
-            throw new IllegalStateException("No more payments due");
+        long installment = repaymentSchedule.getInstallment();
+        int count = installmentCount(amountMinor, installment, unpaidCount, penaltyMinor);
+        if (count != 0 && unpaidCount > 0 && paidCount > getCurrentWeek(paymentDate)) {
+            return PaymentResult.NOT_DUE;
         }
-        
-        if (nextPayment.getWeekNumber() > currentWeek) {
-            throw new IllegalStateException("Payment is not yet due");
+        if (count < 0) {
+            return PaymentResult.WRONG_AMOUNT;
         }
-        
-        if (amount.compareTo(BigDecimal.valueOf(nextPayment.getAmountDue())) != 0) {
-            throw new IllegalArgumentException("Payment must be exact amount due for week " + nextPayment.getWeekNumber());
+        if (count > 0) {
+            payInstallments(count, paymentDate);
         }
-        
-        nextPayment.markAsPaid(paymentDate);
-        updateOutstanding();
+        payPenalty(amountMinor - count * installment);
+        return PaymentResult.OK;
     }
 
-    private void updateOutstanding() {
-        outstanding = totalAmount;
-        for (PaymentDue payment : schedule) {
-            if (payment.isPaid()) {
-                outstanding = outstanding.subtract(BigDecimal.valueOf(payment.getAmountDue()));
-            }
+    /**
+     * Number of installments the amount pays, up to {@code unpaidCount}, with the rest going to penalties; 0 if it
+     * pays penalties only, -1 if it is not positive or leaves more than {@code penaltyMinor} after the installments.
+     */
+    static int installmentCount(long amountMinor, long installment, int unpaidCount, long penaltyMinor) {
+        if (amountMinor == installment && unpaidCount > 0) {
+            return 1;
+        }
+        if (amountMinor <= 0 || installment <= 0) {
+            return -1;
+        }
+        long count = Math.min(amountMinor / installment, unpaidCount);
+        return amountMinor - count * installment <= penaltyMinor ? (int) count : -1;
+    }
+
+    /**
+     * Re-applies a payment recorded earlier, without the checks {@link #makePayment} made at the time.
+     */
+    void restorePayment(LocalDate paymentDate) {
+        payInstallments(1, paymentDate);
+    }
+
+    /**
+     * Restores the standing recorded earlier, as of the last {@link #updateStatus(LocalDate)} before it was recorded.
+     */
+    void restoreStatus(LoanStanding standing, int overdueCount) {
+        this.standing = standing;
+        this.overdueCount = overdueCount;
+    }
+
+    /**
+     * Adds a penalty to the loan and its outstanding amount.
+     */
+    void accruePenalty(long amountMinor) {
+        penaltyMinor += amountMinor;
+        outstandingMinor += amountMinor;
+    }
+
+    private void payPenalty(long amountMinor) {
+        penaltyMinor -= amountMinor;
+        outstandingMinor -= amountMinor;
+    }
+
+    /**
+     * Returns a loan with the same terms, payments, penalties and standing that shares nothing mutable with this one.
+     */
+    Loan copy() {
+        return copy(paidCount, repaymentSchedule.getPaymentEpochDays(), penaltyMinor, standing, overdueCount);
+    }
+
+    /**
+     * Same as {@link #copy()} for the loan as it stood with its first {@code paidCount} installments paid on the given
+     * epoch days, see {@link RepaymentSchedule#getPaymentEpochDays()}, and the given penalties accrued.
+     */
+    Loan copy(int paidCount, int[] paymentEpochDays, long penaltyMinor, LoanStanding standing, int overdueCount) {
+        Loan copy = new Loan(loanId, loanAmount, totalAmountMinor, interestRate, numberOfWeeks, startDate,
+                new RepaymentSchedule(repaymentSchedule.getTemplate(), repaymentSchedule.getFirstDueDate()));
+        for (int week = 0; week < paidCount; week++) {
+            copy.restorePayment(LocalDate.ofEpochDay(paymentEpochDays[week]));
         }
+        copy.accruePenalty(penaltyMinor);
+        copy.restoreStatus(standing, overdueCount);
+        return copy;
+    }
+
+    private void payInstallments(int count, LocalDate paymentDate) {
+        repaymentSchedule.markPaid(paidCount, count, paymentDate);
+        outstandingMinor -= count * repaymentSchedule.getInstallment();
+        paidCount += count;
     }
 
     public boolean isDelinquent() {
@@ -116,28 +253,37 @@ public class Loan {
 
     public void updateStatus(LocalDate currentDate) {
         int currentWeek = getCurrentWeek(currentDate);
+        overdueCount = overdueCount(currentWeek, paidCount);
+        standing = standing(currentWeek, paidCount, numberOfWeeks);
+    }
+
+    /**
+     * Installments past due in {@code currentWeek}: the weeks before it that are not covered by the paid prefix.
+     */
+    static int overdueCount(int currentWeek, int paidCount) {
+        return Math.max(0, currentWeek - paidCount);
+    }
+
+    /**
+     * A loan is closed once it is in its last week with nothing overdue, or paid off before that.
+     */
+    static LoanStanding standing(int currentWeek, int paidCount, int numberOfWeeks) {
         if (currentWeek < 0) {
-            standing = LoanStanding.GOOD_STANDING;
-            return;
+            return LoanStanding.GOOD_STANDING;
         }
-
-        int unpaidCount = 0;
-        for (int i = 0; i < currentWeek; i++) {
-            if (!schedule.get(i).isPaid()) {
-                unpaidCount++;
-            }
+        if (paidCount == numberOfWeeks) {
+            return LoanStanding.CLOSED;
+        }
+        int unpaidCount = overdueCount(currentWeek, paidCount);
+        if (currentWeek == numberOfWeeks - 1 && unpaidCount == 0) {
+            return LoanStanding.CLOSED;
         }
-
         if (unpaidCount == 0) {
-            standing = LoanStanding.GOOD_STANDING;
+            return LoanStanding.GOOD_STANDING;
         } else if (unpaidCount == 1) {
-            standing = LoanStanding.LATE;
+            return LoanStanding.LATE;
         } else {
-            standing = LoanStanding.DELINQUENT;
-        }
-
-        if (currentWeek == numberOfWeeks - 1 && unpaidCount == 0) {
-            standing = LoanStanding.CLOSED;
+            return LoanStanding.DELINQUENT;
         }
     }
 
@@ -146,12 +292,13 @@ public class Loan {
         return "Loan{" +
                 "loanId='" + loanId + '\'' +
                 ", totalAmount=" + loanAmount +
-                ", weeklyPayment=" + weeklyPayment +
+                ", weeklyPayment=" + getWeeklyPayment() +
                 ", numberOfWeeks=" + numberOfWeeks +
                 ", startDate=" + startDate +
                 ", firstPaymentDate=" + firstPaymentDate +
-                ", schedule=" + schedule +
-                ", outstanding=" + outstanding +
+                ", schedule=" + getSchedule() +
+                ", outstanding=" + getOutstanding() +
+                ", penalty=" + getPenalty() +
                 ", standing=" + standing +
                 '}';
     }
@@ -0,0 +1,270 @@
+package dev.bungrudi.loanengine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-only tier for loans taken out of a {@link LoanEngine}'s live book by {@link LoanEngine#compact()}. Each loan is
+ * kept as one serialized record, in the format of a {@link LoanSnapshot} entry with its terms and payment history,
+ * appended to a log in memory or in a file. The only thing held per loan on the heap is its id and the position of its
+ * record. Reading a loan deserializes a detached copy, sharing schedule templates through the {@link LoanFactory} the
+ * archive was given, if any.
+ * <p>
+ * An archive in a file survives restarts. Taking a loan out of it appends a tombstone, so the file only grows.
+ */
+public class LoanArchive implements Closeable {
+    private static final int PAGE_SIZE = 1 << 20;
+    private static final int PAGE_SHIFT = 20;
+
+    private final Map<String, Long> positions = new ConcurrentHashMap<>();
+    /**
+     * serializes appends, which may come from several createLoan calls at once
+     */
+    private final Lock appendLock = new ReentrantLock();
+    /**
+     * null for an archive in memory
+     */
+    private final FileChannel channel;
+    /**
+     * null to give every loan read its own schedule template
+     */
+    private final LoanFactory loanFactory;
+    /**
+     * pages of an archive in memory, replaced by a longer array when one is added; a record never spans two pages
+     */
+    private volatile byte[][] pages = new byte[0][];
+    private int pagePosition = PAGE_SIZE;
+    private volatile long size;
+
+    /**
+     * Creates an empty archive in memory.
+     */
+    public LoanArchive() {
+        this((LoanFactory) null);
+    }
+
+    /**
+     * Creates an empty archive in memory for the loans of {@code loanFactory}.
+     */
+    public LoanArchive(LoanFactory loanFactory) {
+        this(null, loanFactory);
+    }
+
+    private LoanArchive(FileChannel channel, LoanFactory loanFactory) {
+        this.channel = channel;
+        this.loanFactory = loanFactory;
+    }
+
+    /**
+     * Opens the archive in {@code file} for the loans of {@code loanFactory}, creating it if it does not exist. A
+     * record cut short by a crash is dropped.
+     */
+    public static LoanArchive open(Path file, LoanFactory loanFactory) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        LoanArchive archive = new LoanArchive(channel, loanFactory);
+        try {
+            archive.load();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return archive;
+    }
+
+    private void load() throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        long position = 0;
+        long end = channel.size();
+        while (position + Integer.BYTES <= end) {
+            length.clear();
+            channel.read(length, position);
+            int recordLength = length.getInt(0);
+            if (recordLength <= 0 || position + Integer.BYTES + recordLength > end) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(position)));
+            String loanId = LoanSnapshot.readString(in);
+            if (in.readBoolean()) {
+                positions.put(loanId, position);
+            } else {
+                positions.remove(loanId);
+            }
+            position += Integer.BYTES + recordLength;
+        }
+        channel.truncate(position);
+        size = position;
+    }
+
+    /**
+     * Number of loans in the archive.
+     */
+    public int getLoanCount() {
+        return positions.size();
+    }
+
+    /**
+     * Bytes taken by the records, including those of loans taken out again.
+     */
+    public long getBytes() {
+        return size;
+    }
+
+    public boolean contains(String loanId) {
+        return loanId != null && positions.containsKey(loanId);
+    }
+
+    /**
+     * Returns the ids of the archived loans, as a live read-only view.
+     */
+    public Set<String> getLoanIds() {
+        return Collections.unmodifiableSet(positions.keySet());
+    }
+
+    /**
+     * Returns a detached copy of the archived loan, or null if there is none.
+     */
+    public Loan get(String loanId) {
+        Long position = loanId == null ? null : positions.get(loanId);
+        if (position == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(position)));
+            LoanSnapshot.readString(in);
+            in.readBoolean();
+            return LoanSnapshot.readLoan(in, loanFactory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read archived loan " + loanId, e);
+        }
+    }
+
+    /**
+     * Adds the loan as it stands, replacing an archived loan with the same id.
+     */
+    void add(Loan loan) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            LoanSnapshot.writeString(out, loan.getLoanId());
+            out.writeBoolean(true);
+            LoanSnapshot.writeLoan(out, loan);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        positions.put(loan.getLoanId(), append(bytes.toByteArray()));
+    }
+
+    /**
+     * Takes the loan out of the archive.
+     *
+     * @return whether it was archived
+     */
+    boolean remove(String loanId) {
+        if (!positions.containsKey(loanId)) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            LoanSnapshot.writeString(out, loanId);
+            out.writeBoolean(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes.toByteArray());
+        return positions.remove(loanId) != null;
+    }
+
+    /**
+     * Forces the records appended so far to the file; does nothing for an archive in memory.
+     */
+    void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Appends a record, preceded by its length.
+     *
+     * @return the position of the record
+     */
+    private long append(byte[] record) {
+        appendLock.lock();
+        try {
+            if (channel != null) {
+                long position = size;
+                ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + record.length).putInt(record.length).put(record).flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + buffer.position());
+                }
+                size = position + buffer.limit();
+                return position;
+            }
+            int length = Integer.BYTES + record.length;
+            byte[][] current = pages;
+            if (pagePosition + length > PAGE_SIZE || current.length == 0) {
+                current = Arrays.copyOf(current, current.length + 1);
+                // a record longer than a page gets a page of its own
+                current[current.length - 1] = new byte[Math.max(PAGE_SIZE, length)];
+                pages = current;
+                pagePosition = 0;
+            }
+            byte[] page = current[current.length - 1];
+            ByteBuffer.wrap(page, pagePosition, length).putInt(record.length).put(record);
+            long position = ((long) (current.length - 1) << PAGE_SHIFT) | pagePosition;
+            pagePosition += length;
+            size += length;
+            return position;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot append to archive", e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private byte[] read(long position) throws IOException {
+        if (channel != null) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            readFully(length, position);
+            ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+            readFully(record, position + Integer.BYTES);
+            return record.array();
+        }
+        byte[] page = pages[(int) (position >>> PAGE_SHIFT)];
+        int offset = (int) (position & (PAGE_SIZE - 1));
+        int length = ByteBuffer.wrap(page, offset, Integer.BYTES).getInt();
+        return Arrays.copyOfRange(page, offset + Integer.BYTES, offset + Integer.BYTES + length);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Archive ends inside a record");
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package dev.bungrudi.loanengine;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Loans to originate in one {@link LoanEngine#createLoans(LoanBatch)} call, kept as parallel arrays of loan ids and
+ * terms. Entries are reported on in the order they were added.
+ */
+public class LoanBatch {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private String[] loanIds;
+    private BigDecimal[] loanAmounts;
+    private BigDecimal[] interestRates;
+    private int[] numberOfWeeks;
+    private int size;
+
+    public LoanBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LoanBatch(int capacity) {
+        int length = Math.max(1, capacity);
+        this.loanIds = new String[length];
+        this.loanAmounts = new BigDecimal[length];
+        this.interestRates = new BigDecimal[length];
+        this.numberOfWeeks = new int[length];
+    }
+
+    public LoanBatch add(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
+        if (size == loanIds.length) {
+            loanIds = Arrays.copyOf(loanIds, size * 2);
+            loanAmounts = Arrays.copyOf(loanAmounts, size * 2);
+            interestRates = Arrays.copyOf(interestRates, size * 2);
+            this.numberOfWeeks = Arrays.copyOf(this.numberOfWeeks, size * 2);
+        }
+        loanIds[size] = loanId;
+        loanAmounts[size] = loanAmount;
+        interestRates[size] = interestRate;
+        this.numberOfWeeks[size] = numberOfWeeks;
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getLoanId(int index) {
+        checkIndex(index);
+        return loanIds[index];
+    }
+
+    public BigDecimal getLoanAmount(int index) {
+        checkIndex(index);
+        return loanAmounts[index];
+    }
+
+    public BigDecimal getInterestRate(int index) {
+        checkIndex(index);
+        return interestRates[index];
+    }
+
+    public int getNumberOfWeeks(int index) {
+        checkIndex(index);
+        return numberOfWeeks[index];
+    }
+
+    /**
+     * Empties the batch so it can be filled again, keeping its capacity.
+     */
+    public void clear() {
+        Arrays.fill(loanIds, 0, size, null);
+        Arrays.fill(loanAmounts, 0, size, null);
+        Arrays.fill(interestRates, 0, size, null);
+        size = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside batch of " + size);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package dev.bungrudi.loanengine;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Calendar of pending status evaluations, keyed by the date on which each loan next crosses a week boundary.
+ * End of day only needs to re-evaluate the loans scheduled for the new date; every other loan keeps its standing.
+ * Loans can be scheduled from several threads at once.
+ */
+class LoanCalendar {
+    private final Map<LocalDate, Collection<Loan>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Schedules the loan for its first week boundary after {@code date}. Loans in their last week are not scheduled.
+     */
+    void schedule(Loan loan, LocalDate date) {
+        LocalDate boundary = loan.getNextWeekBoundary(date);
+        if (boundary != null) {
+            buckets.computeIfAbsent(boundary, d -> new ConcurrentLinkedQueue<>()).add(loan);
+        }
+    }
+
+    /**
+     * Removes and returns the loans scheduled for any date after {@code after} up to and including {@code through}.
+     * Must not run concurrently with {@link #schedule}.
+     */
+    Loan[] drain(LocalDate after, LocalDate through) {
+        List<Loan> due = new ArrayList<>();
+        for (LocalDate date = after.plusDays(1); !date.isAfter(through); date = date.plusDays(1)) {
+            Collection<Loan> bucket = buckets.remove(date);
+            if (bucket != null) {
+                due.addAll(bucket);
+            }
+        }
+        return due.toArray(new Loan[0]);
+    }
+}
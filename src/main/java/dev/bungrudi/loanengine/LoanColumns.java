@@ -0,0 +1,274 @@
+package dev.bungrudi.loanengine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Loan book stored field by field in off-heap pages of {@value #PAGE_SIZE} rows. Within a page every field is a
+ * contiguous run of values, so a pass over a few fields only touches their memory. Dates are epoch days and amounts
+ * minor units, see {@link Money}.
+ * <p>
+ * The variable-length part of a loan, its id and the payment day of every installment, is kept in a record on
+ * separate off-heap pages that the row points to. Payment days are stored as days since the start date in two bytes.
+ * Rows are found by loan id through an open-addressing table of row numbers; the id itself is never kept on the heap.
+ * <p>
+ * Not thread-safe, see {@link ColumnarLoanEngine}.
+ */
+class LoanColumns {
+    static final int PAGE_SIZE = 1 << 14;
+    private static final int PAGE_SHIFT = 14;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    static final int TOTAL_AMOUNT = 0;
+    static final int INSTALLMENT = 1;
+    static final int OUTSTANDING = 2;
+    /**
+     * the loan amount as given, with its scale in {@link #LOAN_AMOUNT_SCALE}
+     */
+    static final int LOAN_AMOUNT_UNSCALED = 3;
+    /**
+     * raw bits of the double
+     */
+    static final int INTEREST_RATE = 4;
+    private static final int RECORD = 5;
+    /**
+     * penalties accrued and not paid yet, included in {@link #OUTSTANDING}
+     */
+    static final int PENALTY = 6;
+    private static final int LONG_COLUMNS = 7;
+
+    static final int START_DAY = 0;
+    static final int FIRST_DUE_DAY = 1;
+    static final int WEEKS = 2;
+    static final int PAID_COUNT = 3;
+    static final int OVERDUE_COUNT = 4;
+    private static final int ID_HASH = 5;
+    private static final int INT_COLUMNS = 6;
+
+    /**
+     * ordinal of the {@link LoanStanding}
+     */
+    static final int STANDING = 0;
+    static final int LOAN_AMOUNT_SCALE = 1;
+    private static final int BYTE_COLUMNS = 2;
+
+    private static final int INT_COLUMNS_OFFSET = LONG_COLUMNS * 8 * PAGE_SIZE;
+    private static final int BYTE_COLUMNS_OFFSET = INT_COLUMNS_OFFSET + INT_COLUMNS * 4 * PAGE_SIZE;
+    private static final int PAGE_BYTES = BYTE_COLUMNS_OFFSET + BYTE_COLUMNS * PAGE_SIZE;
+
+    private static final int RECORD_PAGE_SHIFT = 20;
+    private static final int RECORD_PAGE_BYTES = 1 << RECORD_PAGE_SHIFT;
+    private static final long RECORD_OFFSET_MASK = RECORD_PAGE_BYTES - 1;
+    private static final int MAX_PAYMENT_DAYS = 0xFFFF;
+
+    private ByteBuffer[] pages = new ByteBuffer[16];
+    private int size;
+    private ByteBuffer[] recordPages = new ByteBuffer[16];
+    private int recordPageCount;
+    private int recordPosition = RECORD_PAGE_BYTES;
+    /**
+     * row + 1 per slot, 0 for an empty slot
+     */
+    private int[] slots = new int[1 << 10];
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the row of the loan, or -1 if there is none, also for null.
+     */
+    int find(String loanId) {
+        if (loanId == null) {
+            return -1;
+        }
+        byte[] utf8 = isAscii(loanId) ? null : loanId.getBytes(StandardCharsets.UTF_8);
+        int mask = slots.length - 1;
+        int hash = loanId.hashCode();
+        for (int slot = spread(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int row = slots[slot] - 1;
+            if (getInt(ID_HASH, row) == hash && idEquals(row, loanId, utf8)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the row of the loan, adding one if there is none, with a fresh record for {@code numberOfWeeks}
+     * installments. The record of a replaced loan is not reused.
+     */
+    int put(String loanId, int numberOfWeeks) {
+        int row = find(loanId);
+        if (row < 0) {
+            if ((size + 1) * 4L > slots.length * 3L) {
+                rehash(slots.length * 2);
+            }
+            row = addRow();
+            putInt(ID_HASH, row, loanId.hashCode());
+            int mask = slots.length - 1;
+            int slot = spread(loanId.hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = row + 1;
+        }
+        putLong(RECORD, row, addRecord(loanId.getBytes(StandardCharsets.UTF_8), numberOfWeeks));
+        return row;
+    }
+
+    String getLoanId(int row) {
+        long record = getLong(RECORD, row);
+        ByteBuffer page = recordPages[(int) (record >>> RECORD_PAGE_SHIFT)];
+        int offset = (int) (record & RECORD_OFFSET_MASK);
+        byte[] bytes = new byte[page.getChar(offset)];
+        page.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int getPaymentDay(int row, int week) {
+        return getInt(START_DAY, row) + recordPage(row).getChar(paymentDayOffset(row, week));
+    }
+
+    void putPaymentDay(int row, int week, int epochDay) {
+        int days = epochDay - getInt(START_DAY, row);
+        if (days < 0 || days > MAX_PAYMENT_DAYS) {
+            throw new IllegalStateException("Payment date out of range of the loan");
+        }
+        recordPage(row).putChar(paymentDayOffset(row, week), (char) days);
+    }
+
+    long getLong(int column, int row) {
+        return pages[row >>> PAGE_SHIFT].getLong(column * 8 * PAGE_SIZE + ((row & PAGE_MASK) << 3));
+    }
+
+    void putLong(int column, int row, long value) {
+        pages[row >>> PAGE_SHIFT].putLong(column * 8 * PAGE_SIZE + ((row & PAGE_MASK) << 3), value);
+    }
+
+    int getInt(int column, int row) {
+        return pages[row >>> PAGE_SHIFT].getInt(INT_COLUMNS_OFFSET + column * 4 * PAGE_SIZE + ((row & PAGE_MASK) << 2));
+    }
+
+    void putInt(int column, int row, int value) {
+        pages[row >>> PAGE_SHIFT].putInt(INT_COLUMNS_OFFSET + column * 4 * PAGE_SIZE + ((row & PAGE_MASK) << 2), value);
+    }
+
+    byte getByte(int column, int row) {
+        return pages[row >>> PAGE_SHIFT].get(BYTE_COLUMNS_OFFSET + column * PAGE_SIZE + (row & PAGE_MASK));
+    }
+
+    void putByte(int column, int row, byte value) {
+        pages[row >>> PAGE_SHIFT].put(BYTE_COLUMNS_OFFSET + column * PAGE_SIZE + (row & PAGE_MASK), value);
+    }
+
+    /**
+     * Bytes allocated outside the heap for rows and records.
+     */
+    long getOffHeapBytes() {
+        return (long) ((size + PAGE_MASK) >>> PAGE_SHIFT) * PAGE_BYTES + (long) recordPageCount * RECORD_PAGE_BYTES;
+    }
+
+    private int addRow() {
+        int page = size >>> PAGE_SHIFT;
+        if (page == pages.length) {
+            pages = Arrays.copyOf(pages, page * 2);
+        }
+        if (pages[page] == null) {
+            pages[page] = ByteBuffer.allocateDirect(PAGE_BYTES).order(ByteOrder.nativeOrder());
+        }
+        return size++;
+    }
+
+    /**
+     * Appends a record of the id's length, the id and a payment day per installment.
+     *
+     * @return the page of the record in the high bits, its offset in the page in the low {@value #RECORD_PAGE_SHIFT}
+     */
+    private long addRecord(byte[] loanId, int numberOfWeeks) {
+        int length = 2 + loanId.length + 2 * numberOfWeeks;
+        if (loanId.length > Character.MAX_VALUE || length > RECORD_PAGE_BYTES) {
+            throw new IllegalArgumentException("Loan id or term too long");
+        }
+        if (recordPosition + length > RECORD_PAGE_BYTES) {
+            if (recordPageCount == recordPages.length) {
+                recordPages = Arrays.copyOf(recordPages, recordPageCount * 2);
+            }
+            recordPages[recordPageCount++] = ByteBuffer.allocateDirect(RECORD_PAGE_BYTES).order(ByteOrder.nativeOrder());
+            recordPosition = 0;
+        }
+        ByteBuffer page = recordPages[recordPageCount - 1];
+        page.putChar(recordPosition, (char) loanId.length);
+        page.put(recordPosition + 2, loanId);
+        long record = ((long) (recordPageCount - 1) << RECORD_PAGE_SHIFT) | recordPosition;
+        recordPosition += length;
+        return record;
+    }
+
+    private ByteBuffer recordPage(int row) {
+        return recordPages[(int) (getLong(RECORD, row) >>> RECORD_PAGE_SHIFT)];
+    }
+
+    private int paymentDayOffset(int row, int week) {
+        long record = getLong(RECORD, row);
+        int offset = (int) (record & RECORD_OFFSET_MASK);
+        return offset + 2 + recordPages[(int) (record >>> RECORD_PAGE_SHIFT)].getChar(offset) + 2 * week;
+    }
+
+    private boolean idEquals(int row, String loanId, byte[] utf8) {
+        long record = getLong(RECORD, row);
+        ByteBuffer page = recordPages[(int) (record >>> RECORD_PAGE_SHIFT)];
+        int offset = (int) (record & RECORD_OFFSET_MASK);
+        int length = page.getChar(offset);
+        offset += 2;
+        if (utf8 == null) {
+            // ASCII ids are compared char by char without encoding them
+            if (length != loanId.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (page.get(offset + i) != (byte) loanId.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (length != utf8.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (page.get(offset + i) != utf8[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        int[] rehashed = new int[capacity];
+        int mask = capacity - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = spread(getInt(ID_HASH, row)) & mask;
+            while (rehashed[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            rehashed[slot] = row + 1;
+        }
+        slots = rehashed;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -2,58 +2,1161 @@ package dev.bungrudi.loanengine;
 
 import lombok.Getter;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
-public class LoanEngine {
-    private Map<String, Loan> loans;
+/**
+ * Thread-safe: loans are guarded by locks striped on the loan's handle, so operations on different loans run
+ * concurrently while operations on the same loan are serialized. {@link #endOfDay()} excludes
+ * {@link #createLoan} and {@link #makePayment} for the duration of the date change, but
+ * {@link #getOutstanding} and {@link #isDelinquent} keep running and see each loan either before or after
+ * its update. Callers working on a {@link Loan} returned by {@link #getLoan} directly get no such guarantee. Reports
+ * that need the whole book as of one moment read it through a {@link BookView} from {@link #openView()}, while
+ * payments go on.
+ * <p>
+ * Every loan id is mapped to a dense int handle when the loan is created, see {@link #getHandle}. Callers that keep
+ * the handle can use the handle overloads of {@link #makePayment(int, long)}, {@link #getOutstanding(int)} and
+ * {@link #isDelinquent(int)} and skip the id lookup.
+ * <p>
+ * When constructed with a {@link ForkJoinPool}, end of day evaluates the loans due that day in parallel partitions, and
+ * {@link #createLoans} originates large batches on it too.
+ * When constructed with {@link EngineMetrics}, every operation records its latency and outcome there.
+ * When the {@link LoanFactory} has a {@link PenaltyPolicy}, end of day accrues its penalties on the loans behind.
+ * Payments and standing changes can be streamed to subscribers through a {@link LoanEventBus}, see
+ * {@link #setEventBus}.
+ * <p>
+ * Paid-off loans stay in the live book until {@link #compact()} moves them to the {@link LoanArchive}, where
+ * {@link #getLoan}, {@link #getOutstanding} and {@link #isDelinquent} still find them.
+ * <p>
+ * An engine obtained from {@link #open} is persistent: every operation is appended to a {@link LoanJournal} before it
+ * returns, and every {@value #SNAPSHOT_INTERVAL_DAYS} days the book is written to a snapshot that starts a new journal.
+ */
+public class LoanEngine implements LoanOperations, Closeable {
+    private static final int LOCK_STRIPES = 256;
+    /**
+     * partitions smaller than this are evaluated sequentially
+     */
+    private static final int END_OF_DAY_PARTITION_SIZE = 1024;
+    /**
+     * batches of loans smaller than this are originated sequentially
+     */
+    private static final int ORIGINATION_PARTITION_SIZE = 1024;
+    static final int SNAPSHOT_INTERVAL_DAYS = 7;
+
+    private final LoanRegistry registry;
+    @Getter
+    private volatile LocalDate currentDate;
+    @Getter
+    private final LoanFactory loanFactory;
+    /**
+     * the factory's, null for none
+     */
+    private final PenaltyPolicy penaltyPolicy;
+    private final LoanCalendar calendar;
+    private final LoanIndex index;
+    @Getter
+    private final PortfolioAggregates aggregates;
+    private final LoanLocks loanLocks;
+    /**
+     * shared by operations that depend on the current date, exclusive for the date change
+     */
+    private final ReadWriteLock dayLock;
+    private final ForkJoinPool endOfDayPool;
+    @Getter
+    private final EngineMetrics metrics;
+    /**
+     * null unless the engine is persistent
+     */
+    private LoanEngineStore store;
+    private StandingTransitionListener transitionListener;
+    private LoanEventBus eventBus;
+    /**
+     * in memory, or in the store's directory once the engine is persistent
+     */
     @Getter
-    private LocalDate currentDate;
-    private LoanFactory loanFactory;
+    private LoanArchive archive;
+    private final BookVersions versions = new BookVersions();
+    private int daysSinceSnapshot;
 
     public LoanEngine(LocalDate currentDate, LoanFactory loanFactory) {
-        this.loans = new HashMap<>();
+        this(currentDate, loanFactory, null);
+    }
+
+    public LoanEngine(LocalDate currentDate, LoanFactory loanFactory, ForkJoinPool endOfDayPool) {
+        this(currentDate, loanFactory, endOfDayPool, EngineMetrics.disabled());
+    }
+
+    public LoanEngine(LocalDate currentDate, LoanFactory loanFactory, ForkJoinPool endOfDayPool, EngineMetrics metrics) {
+        this.registry = new LoanRegistry();
         this.currentDate = currentDate;
         this.loanFactory = loanFactory;
+        this.penaltyPolicy = loanFactory.getPenaltyPolicy();
+        this.archive = new LoanArchive(loanFactory);
+        this.calendar = new LoanCalendar();
+        this.index = new LoanIndex();
+        this.aggregates = new PortfolioAggregates();
+        this.loanLocks = new LoanLocks(LOCK_STRIPES);
+        this.dayLock = new ReentrantReadWriteLock();
+        this.endOfDayPool = endOfDayPool;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Opens a persistent engine in {@code directory}. The book is recovered from the latest snapshot and the journal
+     * written after it; a directory without a snapshot starts an empty book on {@code initialDate}.
+     */
+    public static LoanEngine open(Path directory, LocalDate initialDate, LoanFactory loanFactory) throws IOException {
+        return open(directory, initialDate, loanFactory, EngineMetrics.disabled());
+    }
+
+    /**
+     * Same as {@link #open(Path, LocalDate, LoanFactory)}, recording into {@code metrics}. Operations replayed from the
+     * journal during recovery are recorded as well.
+     */
+    public static LoanEngine open(Path directory, LocalDate initialDate, LoanFactory loanFactory, EngineMetrics metrics) throws IOException {
+        return open(directory, initialDate, loanFactory, LoanJournal.DEFAULT_REGION_SIZE, true, metrics);
+    }
+
+    static LoanEngine open(Path directory, LocalDate initialDate, LoanFactory loanFactory, int journalRegionSize, boolean forceOnCommit) throws IOException {
+        return open(directory, initialDate, loanFactory, journalRegionSize, forceOnCommit, EngineMetrics.disabled());
+    }
+
+    static LoanEngine open(Path directory, LocalDate initialDate, LoanFactory loanFactory, int journalRegionSize,
+                           boolean forceOnCommit, EngineMetrics metrics) throws IOException {
+        LoanEngineStore store = new LoanEngineStore(directory, journalRegionSize, forceOnCommit);
+        LoanEngine engine;
+        if (store.getGeneration() < 0) {
+            engine = new LoanEngine(initialDate, loanFactory, null, metrics);
+            engine.archive = LoanArchive.open(store.archiveFile(), loanFactory);
+            store.roll(initialDate, List.of());
+        } else {
+            List<Loan> loans = new ArrayList<>();
+            LocalDate snapshotDate = LoanSnapshot.read(store.snapshotFile(store.getGeneration()), loanFactory,
+                    loans::add);
+            engine = new LoanEngine(snapshotDate, loanFactory, null, metrics);
+            // a loan in both was being archived when the engine stopped; the snapshot has it live
+            engine.archive = LoanArchive.open(store.archiveFile(), loanFactory);
+            for (Loan loan : loans) {
+                engine.addLoan(engine.registry.register(loan.getLoanId()), loan, snapshotDate);
+            }
+            engine.replay(store.journalFile(store.getGeneration()));
+            store.openJournal();
+        }
+        engine.store = store;
+        return engine;
+    }
+
+    private void replay(Path journalFile) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        LoanJournal.replay(journalFile, new LoanJournal.RecordHandler() {
+            @Override
+            public void createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
+                LoanEngine.this.createLoan(loanId, loanAmount, interestRate, numberOfWeeks);
+            }
+
+            @Override
+            public void payment(String loanId, long amountMinor) {
+                makePayment(loanId, amountMinor);
+            }
+
+            @Override
+            public void endOfDay(LocalDate newDate) {
+                LoanEngine.this.endOfDay();
+                if (!currentDate.equals(newDate)) {
+                    throw new IllegalStateException("Journal is out of sequence: expected " + newDate + " but engine is at " + currentDate);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the book to a new snapshot and starts a new journal after it, so recovery no longer replays what came
+     * before. Payments and loan creation wait until the snapshot is written.
+     */
+    public void snapshot() throws IOException {
+        if (store == null) {
+            throw new IllegalStateException("Engine is not persistent");
+        }
+        dayLock.writeLock().lock();
+        try {
+            store.roll(currentDate, registry.values());
+            daysSinceSnapshot = 0;
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (store != null) {
+            dayLock.writeLock().lock();
+            try {
+                store.close();
+                archive.close();
+            } finally {
+                dayLock.writeLock().unlock();
+            }
+        }
     }
 
+    @Override
     public Loan createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
-        Loan loan = loanFactory.createLoan(loanId, loanAmount, interestRate, numberOfWeeks, currentDate);
-        loans.put(loanId, loan);
+        long start = metrics.start();
+        Loan loan;
+        long journalPosition = 0;
+        dayLock.readLock().lock();
+        try {
+            loan = loanFactory.createLoan(loanId, loanAmount, interestRate, numberOfWeeks, currentDate);
+            int handle = registry.register(loanId);
+            // journal under the loan's lock, so no payment on it can be journaled first, and before adding the loan,
+            // so a record the journal rejects leaves the book as it was
+            Lock lock = loanLocks.get(handle);
+            lock.lock();
+            try {
+                if (store != null) {
+                    journalPosition = store.getJournal().appendCreateLoan(loanId, loanAmount, interestRate, numberOfWeeks);
+                }
+                addLoan(handle, loan, currentDate);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            dayLock.readLock().unlock();
+        }
+        commit(journalPosition);
+        metrics.recordOperation(EngineMetrics.Operation.CREATE_LOAN, start);
         return loan;
     }
 
+    /**
+     * Originates a batch of loans. Entries are validated and their terms and schedules computed in parallel, on the
+     * end-of-day pool or the common pool without one, and only then are the new loans added to the book, all in one
+     * step that payments and end of day wait for. Unlike {@link #createLoan}, an id that already has a loan is
+     * reported instead of replaced.
+     *
+     * @return one result per batch entry, in batch order
+     */
+    public OriginationResult[] createLoans(LoanBatch batch) {
+        long start = metrics.start();
+        int size = batch.size();
+        OriginationResult[] results = new OriginationResult[size];
+        Set<String> loanIds = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            String loanId = batch.getLoanId(i);
+            if (loanId == null || loanId.isEmpty()) {
+                results[i] = OriginationResult.INVALID;
+            } else if (!loanIds.add(loanId)) {
+                results[i] = OriginationResult.DUPLICATE_IN_BATCH;
+            } else if (exists(loanId)) {
+                results[i] = OriginationResult.ALREADY_EXISTS;
+            }
+        }
+        LocalDate date = currentDate;
+        Loan[] loans = new Loan[size];
+        if (size <= ORIGINATION_PARTITION_SIZE) {
+            originate(batch, date, results, loans, 0, size);
+        } else {
+            (endOfDayPool == null ? ForkJoinPool.commonPool() : endOfDayPool)
+                    .invoke(new OriginateTask(batch, date, results, loans, 0, size));
+        }
+
+        long journalPosition = 0;
+        dayLock.writeLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (loans[i] == null) {
+                    continue;
+                }
+                String loanId = batch.getLoanId(i);
+                // a createLoan may have taken the id while the terms were computed
+                if (exists(loanId)) {
+                    results[i] = OriginationResult.ALREADY_EXISTS;
+                    continue;
+                }
+                Loan loan = loans[i];
+                if (!currentDate.equals(date)) {
+                    // end of day ran meanwhile; the loan starts today
+                    loan = loanFactory.createLoan(loanId, batch.getLoanAmount(i), batch.getInterestRate(i),
+                            batch.getNumberOfWeeks(i), currentDate);
+                }
+                if (store != null) {
+                    journalPosition = store.getJournal().appendCreateLoan(loanId, batch.getLoanAmount(i),
+                            batch.getInterestRate(i), batch.getNumberOfWeeks(i));
+                }
+                int handle = registry.register(loanId);
+                Lock lock = loanLocks.get(handle);
+                lock.lock();
+                try {
+                    addLoan(handle, loan, currentDate);
+                } finally {
+                    lock.unlock();
+                }
+                results[i] = OriginationResult.CREATED;
+            }
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+        commit(journalPosition);
+        metrics.recordOperation(EngineMetrics.Operation.CREATE_LOANS, start);
+        return results;
+    }
+
+    /**
+     * Validates the entries from {@code from} to {@code to} that have no result yet and creates their loans, setting
+     * the result of invalid ones.
+     */
+    private void originate(LoanBatch batch, LocalDate date, OriginationResult[] results, Loan[] loans, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            BigDecimal loanAmount = batch.getLoanAmount(i);
+            BigDecimal interestRate = batch.getInterestRate(i);
+            int numberOfWeeks = batch.getNumberOfWeeks(i);
+            if (loanAmount == null || loanAmount.signum() <= 0 || Money.toMinorOrInvalid(loanAmount) == Money.INVALID
+                    || interestRate == null || interestRate.signum() < 0 || numberOfWeeks < 1) {
+                results[i] = OriginationResult.INVALID;
+                continue;
+            }
+            try {
+                loans[i] = loanFactory.createLoan(batch.getLoanId(i), loanAmount, interestRate, numberOfWeeks, date);
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                results[i] = OriginationResult.INVALID;
+            }
+        }
+    }
+
+    private boolean exists(String loanId) {
+        int handle = registry.find(loanId);
+        return handle != LoanRegistry.NOT_FOUND && registry.get(handle) != null || archive.contains(loanId);
+    }
+
+    /**
+     * Adds the loan to the book, its indexes, the aggregates and the calendar, replacing a loan with the same id,
+     * live or archived. Callers hold the loan's lock once the engine is shared.
+     */
+    private void addLoan(int handle, Loan loan, LocalDate date) {
+        LoanVersion previous = versions.before(handle, registry.get(handle));
+        Loan replaced = registry.set(handle, loan);
+        if (replaced != null) {
+            index.remove(replaced);
+            aggregates.remove(replaced);
+        } else {
+            archive.remove(loan.getLoanId());
+        }
+        index.add(loan);
+        aggregates.add(loan);
+        calendar.schedule(loan, date);
+        versions.after(handle, previous, loan);
+    }
+
+    @Override
     public void makePayment(String loanId, BigDecimal amount) {
-        Loan loan = getLoan(loanId);
-        loan.makePayment(amount, currentDate);
-        loan.updateStatus(currentDate);
+        makePayment(loanId, Money.toMinorOrInvalid(amount));
+    }
+
+    /**
+     * Same as {@link #makePayment(String, BigDecimal)} with the amount in minor units, see {@link Money}.
+     */
+    @Override
+    public void makePayment(String loanId, long amountMinor) {
+        int handle = registry.find(loanId);
+        if (handle == LoanRegistry.NOT_FOUND) {
+            // ids archived before the engine was opened have no handle
+            PaymentResult result = unknownOrArchived(loanId);
+            metrics.recordPayment(result);
+            result.throwIfRejected(0);
+        }
+        makePayment(handle, amountMinor);
+    }
+
+    /**
+     * Same as {@link #makePayment(String, BigDecimal)} for the loan with the given handle.
+     */
+    public void makePayment(int handle, BigDecimal amount) {
+        makePayment(handle, Money.toMinorOrInvalid(amount));
+    }
+
+    /**
+     * Same as {@link #makePayment(String, long)} for the loan with the given handle.
+     */
+    public void makePayment(int handle, long amountMinor) {
+        long start = metrics.start();
+        long journalPosition = 0;
+        dayLock.readLock().lock();
+        try {
+            Lock lock = loanLocks.get(handle);
+            lock.lock();
+            try {
+                Loan loan = registry.get(handle);
+                if (loan == null) {
+                    PaymentResult result = unknownOrArchived(registry.getLoanId(handle));
+                    metrics.recordPayment(result);
+                    result.throwIfRejected(0);
+                }
+                LoanVersion previous = versions.before(handle, loan);
+                LoanStanding previousStanding = loan.getStanding();
+                LocalDate previousDueDate = loan.getNextDueDate();
+                long previousOutstanding = loan.getOutstandingMinor();
+                long previousOverdue = loan.getOverdueMinor();
+                PaymentResult result = loan.tryPayment(amountMinor, currentDate);
+                metrics.recordPayment(result);
+                result.throwIfRejected(loan.getPaidCount());
+                journalPosition = paymentApplied(loan, currentDate, amountMinor);
+                updateAfterPayments(handle, loan, currentDate, previous, previousStanding, previousDueDate,
+                        previousOutstanding, previousOverdue);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            dayLock.readLock().unlock();
+        }
+        commit(journalPosition);
+        metrics.recordOperation(EngineMetrics.Operation.MAKE_PAYMENT, start);
+    }
+
+    /**
+     * Applies a batch of payments and reports the outcome of each entry instead of throwing. Entries for the same loan
+     * are applied in batch order under a single acquisition of the loan's lock, and its standing is updated once
+     * after all of them.
+     *
+     * @return one result per batch entry, in batch order
+     */
+    @Override
+    public PaymentResult[] makePayments(PaymentBatch batch) {
+        long start = metrics.start();
+        int size = batch.size();
+        PaymentResult[] results = new PaymentResult[size];
+        // chain the entries of each loan in batch order: first entry per loan, then next[] to the following one
+        Map<String, Integer> firstEntry = new HashMap<>();
+        int[] next = new int[size];
+        int[] last = new int[size];
+        for (int i = 0; i < size; i++) {
+            next[i] = -1;
+            Integer first = firstEntry.putIfAbsent(batch.getLoanId(i), i);
+            if (first != null) {
+                next[last[first]] = i;
+                last[first] = i;
+            } else {
+                last[i] = i;
+            }
+        }
+
+        long journalPosition = 0;
+        dayLock.readLock().lock();
+        try {
+            LocalDate date = currentDate;
+            for (Map.Entry<String, Integer> group : firstEntry.entrySet()) {
+                String loanId = group.getKey();
+                int handle = registry.find(loanId);
+                Loan loan = handle == LoanRegistry.NOT_FOUND ? null : registry.get(handle);
+                if (loan == null) {
+                    PaymentResult result = unknownOrArchived(loanId);
+                    for (int i = group.getValue(); i >= 0; i = next[i]) {
+                        results[i] = result;
+                        metrics.recordPayment(result);
+                    }
+                    continue;
+                }
+                Lock lock = loanLocks.get(handle);
+                lock.lock();
+                try {
+                    // a createLoan with the same id may have replaced it meanwhile
+                    loan = registry.get(handle);
+                    LoanVersion previous = versions.before(handle, loan);
+                    LoanStanding previousStanding = loan.getStanding();
+                    LocalDate previousDueDate = loan.getNextDueDate();
+                    long previousOutstanding = loan.getOutstandingMinor();
+                    long previousOverdue = loan.getOverdueMinor();
+                    for (int i = group.getValue(); i >= 0; i = next[i]) {
+                        results[i] = loan.tryPayment(batch.getAmountMinor(i), date);
+                        metrics.recordPayment(results[i]);
+                        if (results[i] == PaymentResult.OK) {
+                            journalPosition = paymentApplied(loan, date, batch.getAmountMinor(i));
+                        }
+                    }
+                    updateAfterPayments(handle, loan, date, previous, previousStanding, previousDueDate,
+                            previousOutstanding, previousOverdue);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            dayLock.readLock().unlock();
+        }
+        commit(journalPosition);
+        metrics.recordOperation(EngineMetrics.Operation.MAKE_PAYMENTS, start);
+        return results;
+    }
+
+    /**
+     * Returns how a payment on an id without a live loan is rejected: archived loans are paid off, so nothing more is
+     * due on them.
+     */
+    private PaymentResult unknownOrArchived(String loanId) {
+        return archive.contains(loanId) ? PaymentResult.NO_MORE_DUE : PaymentResult.UNKNOWN_LOAN;
     }
 
+    /**
+     * Publishes and journals a payment just applied to the loan, under its lock.
+     *
+     * @return the journal position to commit up to, 0 if not persistent
+     */
+    private long paymentApplied(Loan loan, LocalDate date, long amountMinor) {
+        if (eventBus != null) {
+            eventBus.paymentApplied(loan.getLoanId(), date, amountMinor, loan.getPaidCount());
+        }
+        return store != null ? store.getJournal().appendPayment(loan.getLoanId(), amountMinor) : 0;
+    }
+
+    /**
+     * Updates the loan's standing once its payments are applied, under its lock, publishes the standing change if any,
+     * and brings the index, aggregates and versions up to date from what the loan was before the payments.
+     */
+    private void updateAfterPayments(int handle, Loan loan, LocalDate date, LoanVersion previous,
+                                     LoanStanding previousStanding, LocalDate previousDueDate,
+                                     long previousOutstanding, long previousOverdue) {
+        loan.updateStatus(date);
+        if (eventBus != null && loan.getStanding() != previousStanding) {
+            eventBus.standingChanged(loan.getLoanId(), date, previousStanding, loan.getStanding());
+        }
+        index.update(loan, previousStanding, previousDueDate);
+        aggregates.update(loan, previousStanding, previousOutstanding, previousOverdue);
+        versions.after(handle, previous, loan);
+    }
+
+    private void commit(long journalPosition) {
+        if (journalPosition > 0) {
+            store.getJournal().commit(journalPosition);
+        }
+    }
+
+    @Override
     public BigDecimal getOutstanding(String loanId) {
-        Loan loan = getLoan(loanId);
-        return loan.getOutstanding();
+        int handle = registry.find(loanId);
+        return handle == LoanRegistry.NOT_FOUND ? archived(loanId).getOutstanding() : getOutstanding(handle);
+    }
+
+    public BigDecimal getOutstanding(int handle) {
+        Lock lock = loanLocks.get(handle);
+        lock.lock();
+        try {
+            return getLoan(handle).getOutstanding();
+        } finally {
+            lock.unlock();
+        }
     }
 
+    @Override
     public boolean isDelinquent(String loanId) {
-        Loan loan = getLoan(loanId);
-        return loan.isDelinquent();
+        int handle = registry.find(loanId);
+        return handle == LoanRegistry.NOT_FOUND ? archived(loanId).isDelinquent() : isDelinquent(handle);
+    }
+
+    public boolean isDelinquent(int handle) {
+        Lock lock = loanLocks.get(handle);
+        lock.lock();
+        try {
+            return getLoan(handle).isDelinquent();
+        } finally {
+            lock.unlock();
+        }
     }
 
+    @Override
     public Loan getLoan(String loanId) {
-        Loan loan = loans.get(loanId);
+        int handle = registry.find(loanId);
+        return handle == LoanRegistry.NOT_FOUND ? archived(loanId) : getLoan(handle);
+    }
+
+    /**
+     * Returns the live loan with the given handle, or a detached copy of it if it has been archived.
+     */
+    public Loan getLoan(int handle) {
+        Loan loan = registry.get(handle);
+        if (loan == null) {
+            String loanId = registry.getLoanId(handle);
+            if (loanId == null) {
+                throw new IllegalArgumentException("Loan not found");
+            }
+            return archived(loanId);
+        }
+        return loan;
+    }
+
+    /**
+     * Returns a detached copy of the archived loan, for ids without a live loan.
+     */
+    private Loan archived(String loanId) {
+        Loan loan = archive.get(loanId);
         if (loan == null) {
             throw new IllegalArgumentException("Loan not found");
         }
         return loan;
     }
 
-    public void endOfDay() {
-        currentDate = currentDate.plusDays(1);
-        for (Loan loan : loans.values()) {
-            loan.updateStatus(currentDate);
+    /**
+     * Returns the handle the loan id was mapped to when the loan was created. Handles are dense, starting at 0,
+     * and stay with the id for the life of the engine.
+     */
+    public int getHandle(String loanId) {
+        int handle = registry.find(loanId);
+        if (handle == LoanRegistry.NOT_FOUND) {
+            throw new IllegalArgumentException("Loan not found");
+        }
+        return handle;
+    }
+
+    /**
+     * Removes the loans whose ids match and returns detached copies of them, with their payments and standing, for
+     * {@link #addLoans} on another engine at the same date. The ids keep their handles. A persistent engine writes a
+     * snapshot afterwards, as the journal does not record the removal.
+     */
+    public List<Loan> removeLoans(Predicate<String> loanIds) {
+        dayLock.writeLock().lock();
+        try {
+            List<Loan> removed = new ArrayList<>();
+            for (Loan loan : registry.values()) {
+                if (loanIds.test(loan.getLoanId())) {
+                    removed.add(loan);
+                }
+            }
+            List<Loan> copies = new ArrayList<>(removed.size());
+            for (Loan loan : removed) {
+                // the calendar drops the original as stale when it comes due
+                remove(loan);
+                index.remove(loan);
+                aggregates.remove(loan);
+                copies.add(loan.copy());
+            }
+            // archived loans go along, live on the other engine until it compacts
+            for (String loanId : new ArrayList<>(archive.getLoanIds())) {
+                if (loanIds.test(loanId)) {
+                    copies.add(archive.get(loanId));
+                    archive.remove(loanId);
+                }
+            }
+            if (!copies.isEmpty()) {
+                snapshotIfPersistent();
+            }
+            return copies;
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the loans, live or archived, that {@link #removeLoans} would remove for the same ids.
+     */
+    public List<String> findLoanIds(Predicate<String> loanIds) {
+        dayLock.writeLock().lock();
+        try {
+            List<String> found = new ArrayList<>();
+            for (Loan loan : registry.values()) {
+                if (loanIds.test(loan.getLoanId())) {
+                    found.add(loan.getLoanId());
+                }
+            }
+            for (String loanId : archive.getLoanIds()) {
+                if (loanIds.test(loanId)) {
+                    found.add(loanId);
+                }
+            }
+            return found;
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds loans taken from another engine with {@link #removeLoans}, as they stand. The engines must be at the same
+     * date. A persistent engine writes a snapshot afterwards.
+     *
+     * @throws IllegalStateException if the engine already has a loan with one of the ids; then none is added
+     */
+    public void addLoans(Collection<Loan> loans) {
+        dayLock.writeLock().lock();
+        try {
+            for (Loan loan : loans) {
+                if (exists(loan.getLoanId())) {
+                    throw new IllegalStateException("Loan already exists: " + loan.getLoanId());
+                }
+            }
+            for (Loan loan : loans) {
+                int handle = registry.register(loan.getLoanId());
+                Lock lock = loanLocks.get(handle);
+                lock.lock();
+                try {
+                    addLoan(handle, loan, currentDate);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if (!loans.isEmpty()) {
+                snapshotIfPersistent();
+            }
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves every closed loan that is paid off, penalties included, out of the live book into the
+     * {@link #getArchive() archive}, so it no longer takes heap for its schedule or a place in the indexes, the
+     * aggregates and snapshots. Nothing can change such a loan any more. {@link #getLoan}, {@link #getOutstanding} and
+     * {@link #isDelinquent} still find archived loans, payments on them are rejected as
+     * {@link PaymentResult#NO_MORE_DUE}, and a new loan with the same id replaces the archived one. {@link #getLoanIds}
+     * and {@link #getAggregates()} cover the live book only. A persistent engine forces the archive and writes a
+     * snapshot afterwards.
+     *
+     * @return the number of loans archived
+     */
+    public int compact() {
+        dayLock.writeLock().lock();
+        try {
+            int archived = 0;
+            for (String loanId : new ArrayList<>(index.withStanding(LoanStanding.CLOSED))) {
+                int handle = registry.find(loanId);
+                Loan loan = registry.get(handle);
+                if (loan.getOutstandingMinor() > 0) {
+                    // in its last week with the last installment still to pay, or with penalties unpaid
+                    continue;
+                }
+                // archived first, so lookups without the day lock find the loan in one or the other
+                archive.add(loan);
+                remove(loan);
+                index.remove(loan);
+                aggregates.remove(loan);
+                archived++;
+            }
+            if (archived > 0) {
+                // the archive must hold the loans before a snapshot without them replaces the last one
+                archive.force();
+                snapshotIfPersistent();
+            }
+            return archived;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write archive", e);
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the loan off its handle, under the loan's lock so that views reading it find it or its last version.
+     */
+    private void remove(Loan loan) {
+        int handle = loan.getHandle();
+        Lock lock = loanLocks.get(handle);
+        lock.lock();
+        try {
+            LoanVersion previous = versions.before(handle, loan);
+            registry.remove(handle);
+            versions.after(handle, previous, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens a view of the live book as it stands now, which later payments, end of day and originations do not
+     * change, see {@link BookView}. Waits for the operations under way to finish, as end of day does, but not for
+     * later ones.
+     */
+    public BookView openView() {
+        dayLock.writeLock().lock();
+        try {
+            return new BookView(this, versions.open(), currentDate, registry.size());
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+    }
+
+    int findHandle(String loanId) {
+        return registry.find(loanId);
+    }
+
+    /**
+     * Returns the loan at the handle as a view of the given version sees it, or null if it had none then.
+     */
+    LoanVersion read(int handle, long version) {
+        LoanVersion latest = versions.get(handle);
+        if (latest == null) {
+            // unchanged since the view was opened, unless a change is under way; its lock waits that out
+            Lock lock = loanLocks.get(handle);
+            lock.lock();
+            try {
+                latest = versions.get(handle);
+                if (latest == null) {
+                    Loan loan = registry.get(handle);
+                    return loan == null ? null : new LoanVersion(loan, 0, null);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return latest.at(version);
+    }
+
+    void closeView(long version) {
+        if (versions.close(version)) {
+            // shared, so no view opens while the versions are dropped; changes under way drop theirs too
+            dayLock.readLock().lock();
+            try {
+                if (!versions.isRecording()) {
+                    versions.clear();
+                }
+            } finally {
+                dayLock.readLock().unlock();
+            }
+        }
+    }
+
+    private void snapshotIfPersistent() {
+        if (store != null) {
+            try {
+                store.roll(currentDate, registry.values());
+                daysSinceSnapshot = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write snapshot", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the loans currently in the given standing, as a live read-only view.
+     */
+    public Set<String> getLoanIds(LoanStanding standing) {
+        return index.withStanding(standing);
+    }
+
+    /**
+     * Returns the ids of the loans whose next unpaid installment is due on the given date, as a live read-only view.
+     * Loans that are behind on payments are listed under the due date of the oldest installment they owe.
+     */
+    public Set<String> getLoanIdsDueOn(LocalDate date) {
+        return index.dueOn(date);
+    }
+
+    /**
+     * Moves to the next day and re-evaluates the standing of every loan crossing a week boundary on it.
+     * The new date is published only after all those loans have been evaluated against it.
+     */
+    @Override
+    public EndOfDaySummary endOfDay() {
+        return advance(null, EngineMetrics.Operation.END_OF_DAY);
+    }
+
+    /**
+     * Moves forward to {@code date} in one pass, with the same resulting book, summary counts, journal and
+     * transitions as calling {@link #endOfDay()} once for every day up to it, for catching up after downtime. Each
+     * loan is evaluated once however many week boundaries it crosses: without payments in between, its standing over
+     * those boundaries is known from its paid installments alone.
+     *
+     * @return the summaries of the days advanced over, added up, see {@link EndOfDaySummary}
+     */
+    public EndOfDaySummary advanceTo(LocalDate date) {
+        return advance(date, EngineMetrics.Operation.ADVANCE_TO);
+    }
+
+    /**
+     * Receives every standing change made by end of day from now on, or none if null.
+     */
+    public void setTransitionListener(StandingTransitionListener transitionListener) {
+        dayLock.writeLock().lock();
+        try {
+            this.transitionListener = transitionListener;
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Publishes payments and standing changes to the bus from now on, or to none if null. The engine does not close
+     * the bus.
+     */
+    public void setEventBus(LoanEventBus eventBus) {
+        dayLock.writeLock().lock();
+        try {
+            this.eventBus = eventBus;
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param date the date to move to, or null for the day after the current date
+     */
+    private EndOfDaySummary advance(LocalDate date, EngineMetrics.Operation operation) {
+        long start = metrics.start();
+        long phaseStart;
+        EndOfDaySummary summary;
+        StandingTransitionListener listener;
+        long journalPosition = 0;
+        dayLock.writeLock().lock();
+        try {
+            phaseStart = metrics.start();
+            LocalDate previousDate = currentDate;
+            LocalDate newDate = date == null ? previousDate.plusDays(1) : date;
+            if (!newDate.isAfter(previousDate)) {
+                throw new IllegalArgumentException("Cannot advance to " + newDate + ", engine is at " + previousDate);
+            }
+            listener = transitionListener;
+            // only loans crossing a week boundary can change standing; payments re-evaluate their loan immediately
+            Loan[] due = calendar.drain(previousDate, newDate);
+            phaseStart = metrics.recordPhase(EngineMetrics.Phase.DRAIN, phaseStart);
+            summary = endOfDayPool == null || due.length <= END_OF_DAY_PARTITION_SIZE
+                    ? evaluate(due, 0, due.length, previousDate, newDate)
+                    : endOfDayPool.invoke(new EvaluateTask(due, 0, due.length, previousDate, newDate));
+            phaseStart = metrics.recordPhase(EngineMetrics.Phase.EVALUATE, phaseStart);
+            currentDate = newDate;
+            if (penaltyPolicy != null) {
+                accruePenalties(previousDate, newDate);
+            }
+            phaseStart = metrics.recordPhase(EngineMetrics.Phase.ACCRUE_PENALTIES, phaseStart);
+            if (store != null) {
+                for (LocalDate day = previousDate.plusDays(1); !day.isAfter(newDate); day = day.plusDays(1)) {
+                    journalPosition = store.getJournal().appendEndOfDay(day);
+                }
+                daysSinceSnapshot += (int) (newDate.toEpochDay() - previousDate.toEpochDay());
+                if (daysSinceSnapshot >= SNAPSHOT_INTERVAL_DAYS) {
+                    store.roll(newDate, registry.values());
+                    daysSinceSnapshot = 0;
+                    journalPosition = 0;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write snapshot", e);
+        } finally {
+            dayLock.writeLock().unlock();
+        }
+        commit(journalPosition);
+        metrics.recordPhase(EngineMetrics.Phase.PERSIST, phaseStart);
+        metrics.recordOperation(operation, start);
+        if (listener != null) {
+            summary.getTransitionsByDate().forEach(listener::onTransition);
+        }
+        return summary;
+    }
+
+    private EndOfDaySummary evaluate(Loan[] due, int from, int to, LocalDate previousDate, LocalDate date) {
+        EndOfDaySummary summary = new EndOfDaySummary(date);
+        for (int i = from; i < to; i++) {
+            Loan loan = due[i];
+            Lock lock = loanLocks.get(loan.getHandle());
+            lock.lock();
+            try {
+                if (registry.get(loan.getHandle()) != loan) {
+                    // replaced by a later createLoan with the same id; drop it from the calendar
+                    continue;
+                }
+                LoanVersion previousVersion = versions.before(loan.getHandle(), loan);
+                LoanStanding previous = loan.getStanding();
+                long previousOverdue = loan.getOverdueMinor();
+                recordWeeks(loan, previousDate, date, summary);
+                loan.updateStatus(date);
+                index.update(loan, previous, loan.getNextDueDate());
+                aggregates.update(loan, previous, loan.getOutstandingMinor(), previousOverdue);
+                versions.after(loan.getHandle(), previousVersion, loan);
+            } finally {
+                lock.unlock();
+            }
+            calendar.schedule(loan, date);
+        }
+        return summary;
+    }
+
+    /**
+     * Accrues the penalties of every day after {@code previousDate} up to {@code date} on the loans behind as of
+     * {@code date}, as end of day on each of those days would. Without payments in between, what a loan has past due
+     * on each of those days follows from its paid installments, and it cannot have been behind on a day and not since.
+     * The loans behind are taken from the standing index and their terms into primitive arrays once, and each day
+     * goes to the policy as a whole.
+     */
+    private void accruePenalties(LocalDate previousDate, LocalDate date) {
+        List<Loan> behind = new ArrayList<>();
+        for (LoanStanding standing : new LoanStanding[]{LoanStanding.LATE, LoanStanding.DELINQUENT}) {
+            for (String loanId : index.withStanding(standing)) {
+                behind.add(registry.get(registry.find(loanId)));
+            }
+        }
+        int count = behind.size();
+        if (count == 0) {
+            return;
+        }
+        long[] startDays = new long[count];
+        int[] numberOfWeeks = new int[count];
+        int[] paidCounts = new int[count];
+        long[] installments = new long[count];
+        long[] dueDays = new long[count];
+        for (int i = 0; i < count; i++) {
+            Loan loan = behind.get(i);
+            startDays[i] = loan.getStartDate().toEpochDay();
+            numberOfWeeks[i] = loan.getNumberOfWeeks();
+            paidCounts[i] = loan.getPaidCount();
+            installments[i] = loan.getRepaymentSchedule().getInstallment();
+            dueDays[i] = loan.getNextDueDate().toEpochDay();
+        }
+        long[] overdueMinor = new long[count];
+        int[] daysPastDue = new int[count];
+        long[] penaltyMinor = new long[count];
+        long[] accruedMinor = new long[count];
+        for (long day = previousDate.toEpochDay() + 1; day <= date.toEpochDay(); day++) {
+            for (int i = 0; i < count; i++) {
+                int week = Loan.currentWeek(day - startDays[i], numberOfWeeks[i]);
+                overdueMinor[i] = Loan.overdueCount(week, paidCounts[i]) * installments[i];
+                daysPastDue[i] = overdueMinor[i] > 0 ? (int) (day - dueDays[i]) : 0;
+            }
+            penaltyPolicy.accrue(overdueMinor, daysPastDue, penaltyMinor, count);
+            for (int i = 0; i < count; i++) {
+                accruedMinor[i] += overdueMinor[i] > 0 ? penaltyMinor[i] : 0;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (accruedMinor[i] == 0) {
+                continue;
+            }
+            Loan loan = behind.get(i);
+            Lock lock = loanLocks.get(loan.getHandle());
+            lock.lock();
+            try {
+                LoanVersion previousVersion = versions.before(loan.getHandle(), loan);
+                long previousOutstanding = loan.getOutstandingMinor();
+                loan.accruePenalty(accruedMinor[i]);
+                aggregates.update(loan, loan.getStanding(), previousOutstanding, loan.getOverdueMinor());
+                versions.after(loan.getHandle(), previousVersion, loan);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Records the standing the loan takes at each of its week boundaries after {@code previousDate} up to
+     * {@code date}, as end of day on each of those days would. The boundaries are walked a run of equal standings at
+     * a time.
+     */
+    private void recordWeeks(Loan loan, LocalDate previousDate, LocalDate date, EndOfDaySummary summary) {
+        long startDay = loan.getStartDate().toEpochDay();
+        int numberOfWeeks = loan.getNumberOfWeeks();
+        int paidCount = loan.getPaidCount();
+        int lastWeek = Loan.currentWeek(date.toEpochDay() - startDay, numberOfWeeks);
+        LoanStanding standing = loan.getStanding();
+        int week = Loan.currentWeek(previousDate.toEpochDay() - startDay, numberOfWeeks) + 1;
+        while (week <= lastWeek) {
+            int runEnd = Math.min(lastWeek + 1, nextStandingChange(week, paidCount, numberOfWeeks));
+            LoanStanding next = Loan.standing(week, paidCount, numberOfWeeks);
+            summary.record(loan.getLoanId(), next, standing, runEnd - week);
+            if (next != standing) {
+                metrics.recordTransition(standing, next);
+                if (transitionListener != null || eventBus != null) {
+                    // week w starts on the day after the start date plus w weeks
+                    LocalDate boundary = LocalDate.ofEpochDay(startDay + 1 + 7L * week);
+                    if (transitionListener != null) {
+                        summary.recordTransition(new StandingTransition(loan.getLoanId(), boundary, standing, next));
+                    }
+                    if (eventBus != null) {
+                        eventBus.standingChanged(loan.getLoanId(), boundary, standing, next);
+                    }
+                }
+            }
+            standing = next;
+            week = runEnd;
+        }
+    }
+
+    /**
+     * Returns the first week after {@code week} in which {@link Loan#standing} can differ without further payments:
+     * when the loan falls one, then two installments behind, or enters its last week.
+     */
+    private static int nextStandingChange(int week, int paidCount, int numberOfWeeks) {
+        int change = numberOfWeeks - 1 > week ? numberOfWeeks - 1 : Integer.MAX_VALUE;
+        if (paidCount + 2 > week) {
+            change = Math.min(change, paidCount + 2);
+        }
+        if (paidCount + 1 > week) {
+            change = Math.min(change, paidCount + 1);
+        }
+        return change;
+    }
+
+    @SuppressWarnings("serial") // serializable as a ForkJoinTask, never serialized
+    private class OriginateTask extends RecursiveAction {
+        private final LoanBatch batch;
+        private final LocalDate date;
+        private final OriginationResult[] results;
+        private final Loan[] loans;
+        private final int from;
+        private final int to;
+
+        OriginateTask(LoanBatch batch, LocalDate date, OriginationResult[] results, Loan[] loans, int from, int to) {
+            this.batch = batch;
+            this.date = date;
+            this.results = results;
+            this.loans = loans;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= ORIGINATION_PARTITION_SIZE) {
+                originate(batch, date, results, loans, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new OriginateTask(batch, date, results, loans, from, mid),
+                    new OriginateTask(batch, date, results, loans, mid, to));
+        }
+    }
+
+    @SuppressWarnings("serial") // serializable as a ForkJoinTask, never serialized
+    private class EvaluateTask extends RecursiveTask<EndOfDaySummary> {
+        private final Loan[] due;
+        private final int from;
+        private final int to;
+        private final LocalDate previousDate;
+        private final LocalDate date;
+
+        EvaluateTask(Loan[] due, int from, int to, LocalDate previousDate, LocalDate date) {
+            this.due = due;
+            this.from = from;
+            this.to = to;
+            this.previousDate = previousDate;
+            this.date = date;
+        }
+
+        @Override
+        protected EndOfDaySummary compute() {
+            if (to - from <= END_OF_DAY_PARTITION_SIZE) {
+                return evaluate(due, from, to, previousDate, date);
+            }
+            int mid = (from + to) >>> 1;
+            EvaluateTask left = new EvaluateTask(due, from, mid, previousDate, date);
+            left.fork();
+            EndOfDaySummary right = new EvaluateTask(due, mid, to, previousDate, date).compute();
+            return left.join().merge(right);
         }
-        // Other end-of-day activities could be added here... For example: calculate and apply penalties for overdue loans.
     }
 }
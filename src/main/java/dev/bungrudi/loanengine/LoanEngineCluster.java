@@ -0,0 +1,375 @@
+package dev.bungrudi.loanengine;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Spreads a book over several {@link LoanShard}s by consistent hashing on the loan id. Operations on a loan go to the
+ * shard owning it; {@link #endOfDay()} runs on every shard in parallel and merges their summaries, and
+ * {@link #makePayments} splits the batch by shard and applies the parts in parallel.
+ * <p>
+ * Shards can be added and removed while the cluster runs; only the loans whose owner changes are moved, and every
+ * other operation waits for the move to finish. A change that fails leaves the shards and their loans as they were.
+ * All shards must be at the same date.
+ */
+public class LoanEngineCluster implements LoanOperations {
+    private final Executor executor;
+    /**
+     * shared by operations routed to a shard, exclusive for changing the shards
+     */
+    private final ReadWriteLock topologyLock = new ReentrantReadWriteLock();
+    private List<LoanShard> shards;
+    private ConsistentHashRing ring;
+
+    public LoanEngineCluster(List<LoanShard> shards) {
+        this(shards, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param executor runs the per-shard parts of end of day and of payment batches
+     */
+    public LoanEngineCluster(List<LoanShard> shards, Executor executor) {
+        this.shards = List.copyOf(shards);
+        this.ring = new ConsistentHashRing(shardIds(this.shards));
+        this.executor = executor;
+        for (LoanShard shard : this.shards) {
+            checkDate(shard, this.shards.get(0).getCurrentDate());
+        }
+    }
+
+    public List<LoanShard> getShards() {
+        topologyLock.readLock().lock();
+        try {
+            return shards;
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the shard owning the loan id, whether or not the loan exists.
+     */
+    public LoanShard getShard(String loanId) {
+        topologyLock.readLock().lock();
+        try {
+            return shards.get(ring.ownerOf(loanId));
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public LocalDate getCurrentDate() {
+        return getShards().get(0).getCurrentDate();
+    }
+
+    @Override
+    public Loan createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
+        topologyLock.readLock().lock();
+        try {
+            return owner(loanId).createLoan(loanId, loanAmount, interestRate, numberOfWeeks);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void makePayment(String loanId, BigDecimal amount) {
+        topologyLock.readLock().lock();
+        try {
+            owner(loanId).makePayment(loanId, amount);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void makePayment(String loanId, long amountMinor) {
+        topologyLock.readLock().lock();
+        try {
+            owner(loanId).makePayment(loanId, amountMinor);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits the batch by owning shard, keeping the order of entries within each shard, and applies the parts in
+     * parallel.
+     *
+     * @return one result per batch entry, in batch order
+     */
+    @Override
+    public PaymentResult[] makePayments(PaymentBatch batch) {
+        topologyLock.readLock().lock();
+        try {
+            int shardCount = shards.size();
+            PaymentBatch[] parts = new PaymentBatch[shardCount];
+            int[][] entries = new int[shardCount][];
+            int[] sizes = new int[shardCount];
+            PaymentResult[] merged = new PaymentResult[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.getLoanId(i) == null) {
+                    // owned by no shard
+                    merged[i] = PaymentResult.UNKNOWN_LOAN;
+                    continue;
+                }
+                int shard = ring.ownerOf(batch.getLoanId(i));
+                if (parts[shard] == null) {
+                    parts[shard] = new PaymentBatch();
+                    entries[shard] = new int[Math.max(1, batch.size() / shardCount)];
+                }
+                parts[shard].add(batch.getLoanId(i), batch.getAmountMinor(i));
+                if (sizes[shard] == entries[shard].length) {
+                    entries[shard] = Arrays.copyOf(entries[shard], sizes[shard] * 2);
+                }
+                entries[shard][sizes[shard]++] = i;
+            }
+            List<CompletableFuture<PaymentResult[]>> results = new ArrayList<>(shardCount);
+            for (int shard = 0; shard < shardCount; shard++) {
+                LoanShard owner = shards.get(shard);
+                PaymentBatch part = parts[shard];
+                results.add(part == null ? CompletableFuture.completedFuture(new PaymentResult[0])
+                        : CompletableFuture.supplyAsync(() -> owner.makePayments(part), executor));
+            }
+            for (int shard = 0; shard < shardCount; shard++) {
+                PaymentResult[] part = join(results.get(shard));
+                for (int i = 0; i < part.length; i++) {
+                    merged[entries[shard][i]] = part[i];
+                }
+            }
+            return merged;
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public BigDecimal getOutstanding(String loanId) {
+        topologyLock.readLock().lock();
+        try {
+            return owner(loanId).getOutstanding(loanId);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isDelinquent(String loanId) {
+        topologyLock.readLock().lock();
+        try {
+            return owner(loanId).isDelinquent(loanId);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Loan getLoan(String loanId) {
+        topologyLock.readLock().lock();
+        try {
+            return owner(loanId).getLoan(loanId);
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs end of day on every shard in parallel and adds up their summaries. Shards are not moved past the date
+     * together: if one fails, the others have still moved to the next day.
+     */
+    @Override
+    public EndOfDaySummary endOfDay() {
+        topologyLock.readLock().lock();
+        try {
+            List<CompletableFuture<EndOfDaySummary>> summaries = new ArrayList<>(shards.size());
+            for (LoanShard shard : shards) {
+                summaries.add(CompletableFuture.supplyAsync(shard::endOfDay, executor));
+            }
+            EndOfDaySummary merged = null;
+            for (CompletableFuture<EndOfDaySummary> summary : summaries) {
+                EndOfDaySummary part = join(summary);
+                merged = merged == null ? part : merged.merge(part);
+            }
+            return merged;
+        } finally {
+            topologyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a shard at the cluster's date and moves to it the loans it now owns.
+     *
+     * @return the number of loans moved
+     */
+    public int addShard(LoanShard shard) {
+        topologyLock.writeLock().lock();
+        try {
+            checkDate(shard, shards.get(0).getCurrentDate());
+            List<LoanShard> next = new ArrayList<>(shards);
+            next.add(shard);
+            return rebalance(next);
+        } finally {
+            topologyLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a shard after moving all its loans to the shards that now own them.
+     *
+     * @return the number of loans moved
+     */
+    public int removeShard(String shardId) {
+        topologyLock.writeLock().lock();
+        try {
+            List<LoanShard> next = new ArrayList<>(shards);
+            if (!next.removeIf(shard -> shard.getShardId().equals(shardId))) {
+                throw new IllegalArgumentException("Shard not found: " + shardId);
+            }
+            if (next.isEmpty()) {
+                throw new IllegalStateException("Cannot remove the last shard");
+            }
+            return rebalance(next);
+        } finally {
+            topologyLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves every loan whose owner differs between the current shards and {@code next}. Callers hold the write lock.
+     * The new owners are checked for loans with the same ids before any loan is removed. If adding loans to a shard
+     * fails all the same, the loans moved so far are taken off their new owners and put back where they came from
+     * before the failure is rethrown.
+     *
+     * @throws IllegalStateException if a new owner already has a loan with the id of one it is to receive
+     */
+    private int rebalance(List<LoanShard> next) {
+        ConsistentHashRing nextRing = new ConsistentHashRing(shardIds(next));
+        List<List<String>> incomingIds = new ArrayList<>(next.size());
+        List<List<LoanRecord>> incoming = new ArrayList<>(next.size());
+        for (int i = 0; i < next.size(); i++) {
+            incomingIds.add(new ArrayList<>());
+            incoming.add(new ArrayList<>());
+        }
+        List<List<String>> outgoingIds = new ArrayList<>(shards.size());
+        for (LoanShard shard : shards) {
+            List<String> loanIds = shard.findLoanIds(nextRing.rangesNotOwnedBy(next.indexOf(shard)));
+            outgoingIds.add(loanIds);
+            for (String loanId : loanIds) {
+                incomingIds.get(nextRing.ownerOf(loanId)).add(loanId);
+            }
+        }
+        for (int i = 0; i < next.size(); i++) {
+            List<String> loanIds = incomingIds.get(i);
+            List<String> existing = loanIds.isEmpty() ? List.of() : next.get(i).findLoanIds(loanIds);
+            if (!existing.isEmpty()) {
+                throw new IllegalStateException("Loan already exists on shard " + next.get(i).getShardId() + ": "
+                        + existing.get(0));
+            }
+        }
+
+        List<LoanShard> sources = new ArrayList<>(shards.size());
+        List<List<LoanRecord>> removed = new ArrayList<>(shards.size());
+        int target = 0;
+        try {
+            for (int i = 0; i < shards.size(); i++) {
+                if (outgoingIds.get(i).isEmpty()) {
+                    continue;
+                }
+                List<LoanRecord> loans = shards.get(i).removeLoans(outgoingIds.get(i));
+                sources.add(shards.get(i));
+                removed.add(loans);
+                for (LoanRecord loan : loans) {
+                    incoming.get(nextRing.ownerOf(loan.getLoanId())).add(loan);
+                }
+            }
+            for (; target < next.size(); target++) {
+                if (!incoming.get(target).isEmpty()) {
+                    next.get(target).addLoans(incoming.get(target));
+                }
+            }
+        } catch (RuntimeException e) {
+            restore(next, incoming, target, sources, removed, e);
+            throw e;
+        }
+        shards = List.copyOf(next);
+        ring = nextRing;
+        int moved = 0;
+        for (List<LoanRecord> loans : removed) {
+            moved += loans.size();
+        }
+        return moved;
+    }
+
+    /**
+     * Undoes a failed {@link #rebalance}: takes the loans off the new owners up to the one that failed, which may have
+     * added them before failing and held none of their ids before, and adds them back to the shards they were removed
+     * from. Failures on the way are added to {@code failure} as suppressed.
+     */
+    private static void restore(List<LoanShard> next, List<List<LoanRecord>> incoming, int failedTarget,
+                                List<LoanShard> sources, List<List<LoanRecord>> removed, RuntimeException failure) {
+        for (int i = 0; i <= failedTarget && i < next.size(); i++) {
+            if (incoming.get(i).isEmpty()) {
+                continue;
+            }
+            List<String> loanIds = new ArrayList<>(incoming.get(i).size());
+            for (LoanRecord loan : incoming.get(i)) {
+                loanIds.add(loan.getLoanId());
+            }
+            try {
+                next.get(i).removeLoans(loanIds);
+            } catch (RuntimeException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        for (int i = 0; i < sources.size(); i++) {
+            try {
+                sources.get(i).addLoans(removed.get(i));
+            } catch (RuntimeException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    private LoanShard owner(String loanId) {
+        return shards.get(ring.ownerOf(loanId));
+    }
+
+    private static List<String> shardIds(List<LoanShard> shards) {
+        List<String> ids = new ArrayList<>(shards.size());
+        for (LoanShard shard : shards) {
+            ids.add(shard.getShardId());
+        }
+        return ids;
+    }
+
+    private static void checkDate(LoanShard shard, LocalDate date) {
+        if (!shard.getCurrentDate().equals(date)) {
+            throw new IllegalArgumentException("Shard " + shard.getShardId() + " is at " + shard.getCurrentDate()
+                    + " but the cluster is at " + date);
+        }
+    }
+
+    /**
+     * Waits for a shard's part, rethrowing its failure as thrown by the shard.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package dev.bungrudi.loanengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.stream.Stream;
+
+/**
+ * Directory holding the persistent state of a {@link LoanEngine} as numbered generations. Snapshot {@code n} is the
+ * book at the moment journal {@code n} was started, so recovery loads the newest snapshot and replays only its
+ * journal. Older generations are deleted once a newer snapshot is in place.
+ */
+class LoanEngineStore implements Closeable {
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final String ARCHIVE_FILE = "archive.bin";
+
+    private final Path directory;
+    private final int journalRegionSize;
+    private final boolean forceOnCommit;
+    private long generation;
+    private LoanJournal journal;
+
+    LoanEngineStore(Path directory, int journalRegionSize, boolean forceOnCommit) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.journalRegionSize = journalRegionSize;
+        this.forceOnCommit = forceOnCommit;
+        this.generation = latestGeneration();
+    }
+
+    /**
+     * @return the newest generation with a snapshot, or -1 for an empty directory
+     */
+    private long latestGeneration() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(file -> generationOf(file.getFileName().toString(), SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX))
+                    .max()
+                    .orElse(-1);
+        }
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    Path snapshotFile(long generation) {
+        return directory.resolve(String.format("%s%012d%s", SNAPSHOT_PREFIX, generation, SNAPSHOT_SUFFIX));
+    }
+
+    Path journalFile(long generation) {
+        return directory.resolve(String.format("%s%012d%s", JOURNAL_PREFIX, generation, JOURNAL_SUFFIX));
+    }
+
+    /**
+     * The {@link LoanArchive} of the book, which is not part of any generation.
+     */
+    Path archiveFile() {
+        return directory.resolve(ARCHIVE_FILE);
+    }
+
+    LoanJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Opens the journal of the current generation for appending.
+     */
+    void openJournal() throws IOException {
+        journal = LoanJournal.open(journalFile(generation), journalRegionSize, forceOnCommit);
+    }
+
+    /**
+     * Starts the next generation from the given book, which must not change until this returns.
+     */
+    void roll(LocalDate currentDate, Collection<Loan> loans) throws IOException {
+        long next = generation + 1;
+        LoanSnapshot.write(snapshotFile(next), currentDate, loans);
+        if (journal != null) {
+            journal.close();
+        }
+        generation = next;
+        openJournal();
+        deleteGenerationsBefore(next);
+    }
+
+    private void deleteGenerationsBefore(long generation) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                long fileGeneration = generationOf(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+                if (fileGeneration < 0) {
+                    fileGeneration = generationOf(name, JOURNAL_PREFIX, JOURNAL_SUFFIX);
+                }
+                if (fileGeneration >= 0 && fileGeneration < generation) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static long generationOf(String name, String prefix, String suffix) {
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) {
+            return -1;
+        }
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package dev.bungrudi.loanengine;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDate;
+
+/**
+ * Something that happened to a loan, as published on a {@link LoanEventBus}. Events of one loan are sequenced in the
+ * order they happened.
+ */
+@Getter
+@ToString
+public final class LoanEvent {
+    public enum Type {
+        /**
+         * a payment was applied, covering one or more installments or only a penalty; {@link #getAmountMinor()} is the
+         * amount and {@link #getPaidCount()} the installments paid so far
+         */
+        PAYMENT_APPLIED,
+        /**
+         * the loan moved from {@link #getFrom()} to {@link #getTo()}
+         */
+        STANDING_CHANGED,
+        /**
+         * the loan reached {@link LoanStanding#CLOSED}; follows the {@link #STANDING_CHANGED} event that closed it
+         */
+        LOAN_CLOSED
+    }
+
+    /**
+     * position on the bus, increasing in publication order across all loans
+     */
+    private final long sequence;
+    private final Type type;
+    private final String loanId;
+    private final LocalDate date;
+    private final long amountMinor;
+    private final int paidCount;
+    private final LoanStanding from;
+    private final LoanStanding to;
+
+    LoanEvent(long sequence, Type type, String loanId, LocalDate date, long amountMinor, int paidCount,
+              LoanStanding from, LoanStanding to) {
+        this.sequence = sequence;
+        this.type = type;
+        this.loanId = loanId;
+        this.date = date;
+        this.amountMinor = amountMinor;
+        this.paidCount = paidCount;
+        this.from = from;
+        this.to = to;
+    }
+}
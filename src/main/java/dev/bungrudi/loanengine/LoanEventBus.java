@@ -0,0 +1,215 @@
+package dev.bungrudi.loanengine;
+
+import java.io.Closeable;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer of {@link LoanEvent}s, published by a {@link LoanEngine} and consumed by subscribers on threads
+ * of their own. Publishing claims the next sequence and writes the event into its slot without waiting for anyone:
+ * a subscriber that falls more than a ring behind loses the oldest events it has not read, and counts them as
+ * dropped, rather than holding up payments or end of day.
+ * <p>
+ * Every subscriber sees the events in sequence order. The engine publishes the events of a loan while holding the
+ * loan's lock, so those are in the order they happened.
+ * <p>
+ * An idle subscriber parks until a publisher unparks it after writing an event; the timed park is only a backstop.
+ */
+public class LoanEventBus implements Closeable {
+    private static final long IDLE_PARK_NANOS = 1_000_000_000;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final AtomicReferenceArray<LoanEvent> ring;
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param capacity number of events a subscriber can fall behind before it drops any, rounded up to a power of two
+     */
+    public LoanEventBus(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Starts delivering the events published from now on to the subscriber, on a new daemon thread.
+     */
+    public Subscription subscribe(LoanEventSubscriber subscriber) {
+        Subscription subscription = new Subscription(subscriber, nextSequence.get());
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Number of events published so far. Nothing is published while there are no subscribers.
+     */
+    public long getPublishedCount() {
+        return nextSequence.get();
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Closes every subscription, each after delivering the events published before this call.
+     */
+    @Override
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    void paymentApplied(String loanId, LocalDate date, long amountMinor, int paidCount) {
+        if (!subscriptions.isEmpty()) {
+            publish(LoanEvent.Type.PAYMENT_APPLIED, loanId, date, amountMinor, paidCount, null, null);
+        }
+    }
+
+    /**
+     * Publishes the change, followed by {@link LoanEvent.Type#LOAN_CLOSED} when it closes the loan.
+     */
+    void standingChanged(String loanId, LocalDate date, LoanStanding from, LoanStanding to) {
+        if (!subscriptions.isEmpty()) {
+            publish(LoanEvent.Type.STANDING_CHANGED, loanId, date, 0, 0, from, to);
+            if (to == LoanStanding.CLOSED) {
+                publish(LoanEvent.Type.LOAN_CLOSED, loanId, date, 0, 0, from, to);
+            }
+        }
+    }
+
+    private void publish(LoanEvent.Type type, String loanId, LocalDate date, long amountMinor, int paidCount,
+                         LoanStanding from, LoanStanding to) {
+        long sequence = nextSequence.getAndIncrement();
+        LoanEvent event = new LoanEvent(sequence, type, loanId, date, amountMinor, paidCount, from, to);
+        // a publisher a whole ring ahead may have filled the slot already; never replace a newer event
+        ring.accumulateAndGet((int) sequence & mask, event, LoanEventBus::newer);
+        for (Subscription subscription : subscriptions) {
+            if (subscription.idle) {
+                LockSupport.unpark(subscription.thread);
+            }
+        }
+    }
+
+    private static LoanEvent newer(LoanEvent current, LoanEvent event) {
+        return current == null || current.getSequence() < event.getSequence() ? event : current;
+    }
+
+    /**
+     * One subscriber's position on the bus. Counters are written by the subscriber's thread and can be read from any.
+     */
+    public final class Subscription implements Closeable {
+        private final LoanEventSubscriber subscriber;
+        private final Thread thread;
+        private volatile long next;
+        private volatile long delivered;
+        private volatile long dropped;
+        private volatile long failed;
+        private volatile long stopAt = Long.MAX_VALUE;
+        /**
+         * set before the subscriber checks its slot a last time and parks, so a publisher writing it meanwhile sees it
+         */
+        private volatile boolean idle;
+
+        private Subscription(LoanEventSubscriber subscriber, long next) {
+            this.subscriber = subscriber;
+            this.next = next;
+            this.thread = new Thread(this::run, "loan-event-subscriber-" + THREAD_COUNT.incrementAndGet());
+            this.thread.setDaemon(true);
+        }
+
+        public long getDeliveredCount() {
+            return delivered;
+        }
+
+        /**
+         * Events overwritten before the subscriber got to them.
+         */
+        public long getDroppedCount() {
+            return dropped;
+        }
+
+        /**
+         * Events whose delivery threw; the subscriber moves on to the next one.
+         */
+        public long getFailedCount() {
+            return failed;
+        }
+
+        /**
+         * Events published but not yet delivered or dropped.
+         */
+        public long getLag() {
+            return Math.max(0, nextSequence.get() - next);
+        }
+
+        /**
+         * Stops the subscription once the events published before this call are delivered, and waits for it.
+         */
+        @Override
+        public void close() {
+            if (stopAt == Long.MAX_VALUE) {
+                stopAt = nextSequence.get();
+                LockSupport.unpark(thread);
+            }
+            subscriptions.remove(this);
+            if (Thread.currentThread() != thread) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void run() {
+            long position = next;
+            while (position < stopAt) {
+                long oldest = nextSequence.get() - ring.length();
+                if (position < oldest) {
+                    dropped += oldest - position;
+                    position = oldest;
+                    next = position;
+                }
+                LoanEvent event = ring.get((int) position & mask);
+                if (event == null || event.getSequence() < position) {
+                    // claimed but not written yet, or nothing published
+                    idle = true;
+                    if (!published(position) && position < stopAt) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                    idle = false;
+                    continue;
+                }
+                if (event.getSequence() > position) {
+                    // overwritten since the check above; the next check skips past it
+                    continue;
+                }
+                try {
+                    subscriber.onEvent(event);
+                } catch (RuntimeException e) {
+                    failed++;
+                }
+                delivered++;
+                next = ++position;
+            }
+        }
+
+        private boolean published(long position) {
+            LoanEvent event = ring.get((int) position & mask);
+            return event != null && event.getSequence() >= position;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package dev.bungrudi.loanengine;
+
+/**
+ * Consumes the events of a {@link LoanEventBus} on a thread of its own, in sequence order.
+ */
+@FunctionalInterface
+public interface LoanEventSubscriber {
+    void onEvent(LoanEvent event);
+}
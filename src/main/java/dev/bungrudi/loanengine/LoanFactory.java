@@ -5,4 +5,20 @@ import java.time.LocalDate;
 
 public interface LoanFactory {
     Loan createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks, LocalDate startDate);
+
+    /**
+     * Penalties the loans accrue while they are behind, or null for none.
+     */
+    default PenaltyPolicy getPenaltyPolicy() {
+        return null;
+    }
+
+    /**
+     * Returns a template to share with the factory's loans of the same product for a loan read back from a snapshot
+     * or archive with these terms, or null for the loan to get one of its own.
+     */
+    default ScheduleTemplate restoreTemplate(BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks,
+                                             long installment) {
+        return null;
+    }
 }
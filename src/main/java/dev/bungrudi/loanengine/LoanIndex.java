@@ -0,0 +1,79 @@
+package dev.bungrudi.loanengine;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary indexes of loan ids by standing and by the due date of the next unpaid installment. Kept up to date by
+ * {@link LoanEngine} whenever a loan's standing or paid installments change, always under that loan's lock, so each
+ * loan appears under exactly one standing and at most one due date. Sets handed out are live, read-only views.
+ */
+class LoanIndex {
+    private final Map<LoanStanding, Set<String>> byStanding = new EnumMap<>(LoanStanding.class);
+    private final Map<LocalDate, Set<String>> byDueDate = new ConcurrentHashMap<>();
+
+    LoanIndex() {
+        for (LoanStanding standing : LoanStanding.values()) {
+            byStanding.put(standing, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    void add(Loan loan) {
+        byStanding.get(loan.getStanding()).add(loan.getLoanId());
+        addDueDate(loan.getLoanId(), loan.getNextDueDate());
+    }
+
+    void remove(Loan loan) {
+        byStanding.get(loan.getStanding()).remove(loan.getLoanId());
+        removeDueDate(loan.getLoanId(), loan.getNextDueDate());
+    }
+
+    /**
+     * Moves the loan from the entries it had before a change to the ones matching its current state.
+     */
+    void update(Loan loan, LoanStanding previousStanding, LocalDate previousDueDate) {
+        if (loan.getStanding() != previousStanding) {
+            byStanding.get(previousStanding).remove(loan.getLoanId());
+            byStanding.get(loan.getStanding()).add(loan.getLoanId());
+        }
+        LocalDate dueDate = loan.getNextDueDate();
+        if (dueDate == null ? previousDueDate != null : !dueDate.equals(previousDueDate)) {
+            removeDueDate(loan.getLoanId(), previousDueDate);
+            addDueDate(loan.getLoanId(), dueDate);
+        }
+    }
+
+    Set<String> withStanding(LoanStanding standing) {
+        return Collections.unmodifiableSet(byStanding.get(standing));
+    }
+
+    Set<String> dueOn(LocalDate date) {
+        Set<String> loanIds = byDueDate.get(date);
+        return loanIds == null ? Set.of() : Collections.unmodifiableSet(loanIds);
+    }
+
+    private void addDueDate(String loanId, LocalDate dueDate) {
+        if (dueDate == null) {
+            return;
+        }
+        byDueDate.compute(dueDate, (date, loanIds) -> {
+            Set<String> set = loanIds == null ? ConcurrentHashMap.newKeySet() : loanIds;
+            set.add(loanId);
+            return set;
+        });
+    }
+
+    private void removeDueDate(String loanId, LocalDate dueDate) {
+        if (dueDate == null) {
+            return;
+        }
+        byDueDate.computeIfPresent(dueDate, (date, loanIds) -> {
+            loanIds.remove(loanId);
+            return loanIds.isEmpty() ? null : loanIds;
+        });
+    }
+}
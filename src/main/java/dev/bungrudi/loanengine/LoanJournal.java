@@ -0,0 +1,335 @@
+package dev.bungrudi.loanengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of the operations applied to a {@link LoanEngine}, written to a memory-mapped file.
+ * <p>
+ * The file starts with a header (magic, region size) and is mapped one region at a time. Each record is
+ * {@code [int length][byte type][payload][int crc32c]}, where length covers type and payload and the checksum covers
+ * the same bytes. Strings and the unscaled values of decimals are written with an int length, so no value is cut
+ * short; a record too long for a region is rejected before anything is written. A length of 0 marks the end of the
+ * journal and a length of -1 pads the rest of a region when the next record does not fit. Reading stops at the first
+ * record that is incomplete, malformed or fails its checksum, so a crash in the middle of an append loses that record
+ * and nothing before it.
+ * <p>
+ * Appends land in the page cache immediately and survive a crash of the process. {@link #commit(long)} forces the
+ * mapped bytes appended since the last commit to disk; concurrent committers share a single force (group commit).
+ * The file's length and header are forced whenever a region is mapped.
+ */
+public class LoanJournal implements Closeable {
+    static final byte CREATE_LOAN = 1;
+    static final byte PAYMENT = 2;
+    static final byte END_OF_DAY = 3;
+
+    private static final int MAGIC = 0x4C4A524E;
+    private static final int HEADER_SIZE = 8;
+    private static final int END = 0;
+    private static final int PADDING = -1;
+    /**
+     * length prefix and checksum around each record
+     */
+    private static final int FRAME_SIZE = 8;
+    static final int DEFAULT_REGION_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private final int regionSize;
+    private final boolean forceOnCommit;
+    private final CRC32C crc = new CRC32C();
+    private final Object commitLock = new Object();
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long position;
+    private volatile long durablePosition;
+
+    private LoanJournal(FileChannel channel, int regionSize, boolean forceOnCommit, long position) throws IOException {
+        this.channel = channel;
+        this.regionSize = regionSize;
+        this.forceOnCommit = forceOnCommit;
+        this.position = position;
+        this.durablePosition = position;
+        this.regionStart = position / regionSize * regionSize;
+        this.region = map(channel, regionStart, regionSize, forceOnCommit);
+    }
+
+    /**
+     * Maps a region, forcing the file first when commits are forced: mapping may have grown it, and forcing the
+     * mapped bytes alone does not make the new length durable.
+     */
+    private static MappedByteBuffer map(FileChannel channel, long regionStart, int regionSize, boolean force)
+            throws IOException {
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionSize);
+        if (force) {
+            channel.force(true);
+        }
+        return region;
+    }
+
+    /**
+     * Opens a journal for appending, creating it if needed. Appends continue after the last valid record.
+     *
+     * @param forceOnCommit whether {@link #commit(long)} forces the file to disk; without it appends are only
+     *                      protected against a crash of the process, not of the machine
+     */
+    public static LoanJournal open(Path file, int regionSize, boolean forceOnCommit) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end;
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(regionSize).flip();
+            channel.write(header, 0);
+            end = HEADER_SIZE;
+        } else {
+            regionSize = readRegionSize(channel);
+            end = read(channel, regionSize, null);
+        }
+        LoanJournal journal = new LoanJournal(channel, regionSize, forceOnCommit, end);
+        // discard whatever a crash left behind the last valid record
+        journal.region.putInt((int) (end - journal.regionStart), END);
+        return journal;
+    }
+
+    public synchronized long appendCreateLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
+        byte[] id = loanId.getBytes(StandardCharsets.UTF_8);
+        byte[] amount = loanAmount.unscaledValue().toByteArray();
+        byte[] rate = interestRate.unscaledValue().toByteArray();
+        ByteBuffer record = begin(CREATE_LOAN, 4 + id.length + 8 + amount.length + 8 + rate.length + 4);
+        record.putInt(id.length).put(id);
+        record.putInt(loanAmount.scale()).putInt(amount.length).put(amount);
+        record.putInt(interestRate.scale()).putInt(rate.length).put(rate);
+        record.putInt(numberOfWeeks);
+        return end(record);
+    }
+
+    public synchronized long appendPayment(String loanId, long amountMinor) {
+        byte[] id = loanId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = begin(PAYMENT, 4 + id.length + 8);
+        record.putInt(id.length).put(id);
+        record.putLong(amountMinor);
+        return end(record);
+    }
+
+    public synchronized long appendEndOfDay(LocalDate newDate) {
+        ByteBuffer record = begin(END_OF_DAY, 4);
+        record.putInt((int) newDate.toEpochDay());
+        return end(record);
+    }
+
+    /**
+     * Returns the position after the last appended record.
+     */
+    public synchronized long position() {
+        return position;
+    }
+
+    /**
+     * Blocks until every record up to {@code upTo} is on disk. Whoever forces the journal covers all records appended
+     * so far, so threads committing at the same time mostly find their records already forced.
+     */
+    public void commit(long upTo) {
+        if (!forceOnCommit || durablePosition >= upTo) {
+            return;
+        }
+        synchronized (commitLock) {
+            if (durablePosition >= upTo) {
+                return;
+            }
+            long target;
+            MappedByteBuffer current;
+            long currentStart;
+            synchronized (this) {
+                target = position;
+                current = region;
+                currentStart = regionStart;
+            }
+            // earlier regions were forced in full when the next one was mapped; the end marker goes along
+            int from = (int) (Math.max(durablePosition, currentStart) - currentStart);
+            int to = (int) Math.min(target - currentStart + 4, regionSize);
+            current.force(from, to - from);
+            durablePosition = target;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        region.force();
+        channel.close();
+    }
+
+    private ByteBuffer begin(byte type, int payloadSize) {
+        long length = 1L + payloadSize;
+        if (FRAME_SIZE + length + 4 > regionSize) {
+            throw new IllegalArgumentException("Journal record of " + length + " bytes exceeds region size");
+        }
+        // keep room for the end marker after the record
+        if (position + FRAME_SIZE + length + 4 > regionStart + regionSize) {
+            region.putInt((int) (position - regionStart), PADDING);
+            nextRegion();
+        }
+        ByteBuffer record = region.duplicate();
+        record.position((int) (position - regionStart) + 4);
+        record.put(type);
+        return record;
+    }
+
+    private long end(ByteBuffer record) {
+        int offset = (int) (position - regionStart);
+        int length = record.position() - offset - 4;
+        crc.reset();
+        crc.update(region.slice(offset + 4, length));
+        record.putInt((int) crc.getValue());
+        record.putInt(END);
+        // publish the length last, so a torn record never looks complete
+        region.putInt(offset, length);
+        position += FRAME_SIZE + length;
+        return position;
+    }
+
+    private void nextRegion() {
+        try {
+            region.force();
+            regionStart += regionSize;
+            position = regionStart;
+            region = map(channel, regionStart, regionSize, forceOnCommit);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot map next journal region", e);
+        }
+    }
+
+    /**
+     * Receives the records of a journal in append order.
+     */
+    interface RecordHandler {
+        void createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks);
+
+        void payment(String loanId, long amountMinor);
+
+        void endOfDay(LocalDate newDate);
+    }
+
+    /**
+     * Reads every valid record of the journal, stopping at the end marker or at the first torn or malformed record.
+     */
+    static void replay(Path file, RecordHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(channel, readRegionSize(channel), handler);
+        }
+    }
+
+    private static int readRegionSize(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("Not a loan journal");
+        }
+        return header.getInt();
+    }
+
+    /**
+     * @return the position after the last valid record
+     */
+    private static long read(FileChannel channel, int regionSize, RecordHandler handler) throws IOException {
+        CRC32C crc = new CRC32C();
+        long size = channel.size();
+        long regionStart = 0;
+        long position = HEADER_SIZE;
+        while (regionStart < size) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(regionSize, size - regionStart));
+            while (true) {
+                int offset = (int) (position - regionStart);
+                if (offset + 4 > region.limit()) {
+                    return position;
+                }
+                int length = region.getInt(offset);
+                if (length == PADDING) {
+                    break;
+                }
+                if (length <= 0 || offset + FRAME_SIZE + length > region.limit()) {
+                    return position;
+                }
+                crc.reset();
+                crc.update(region.slice(offset + 4, length));
+                if ((int) crc.getValue() != region.getInt(offset + 4 + length)) {
+                    return position;
+                }
+                if (handler != null && !dispatch(region.slice(offset + 4, length), handler)) {
+                    return position;
+                }
+                position += FRAME_SIZE + length;
+            }
+            regionStart += regionSize;
+            position = regionStart;
+        }
+        return position;
+    }
+
+    /**
+     * Passes the record to the handler, or returns false if it cannot be decoded. Failures of the handler itself
+     * propagate.
+     */
+    private static boolean dispatch(ByteBuffer record, RecordHandler handler) {
+        Consumer<RecordHandler> call;
+        try {
+            call = decode(record);
+        } catch (RuntimeException e) {
+            // a length out of range, a malformed value or a payload cut short
+            return false;
+        }
+        if (call == null) {
+            return false;
+        }
+        call.accept(handler);
+        return true;
+    }
+
+    /**
+     * Returns the call the record makes on a handler, or null for an unknown type or bytes left over.
+     */
+    private static Consumer<RecordHandler> decode(ByteBuffer record) {
+        Consumer<RecordHandler> call = switch (record.get()) {
+            case CREATE_LOAN -> {
+                String loanId = readString(record);
+                BigDecimal loanAmount = readDecimal(record);
+                BigDecimal interestRate = readDecimal(record);
+                int numberOfWeeks = record.getInt();
+                yield handler -> handler.createLoan(loanId, loanAmount, interestRate, numberOfWeeks);
+            }
+            case PAYMENT -> {
+                String loanId = readString(record);
+                long amountMinor = record.getLong();
+                yield handler -> handler.payment(loanId, amountMinor);
+            }
+            case END_OF_DAY -> {
+                LocalDate newDate = LocalDate.ofEpochDay(record.getInt());
+                yield handler -> handler.endOfDay(newDate);
+            }
+            default -> null;
+        };
+        return record.hasRemaining() ? null : call;
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer record) {
+        int scale = record.getInt();
+        byte[] unscaled = new byte[record.getInt()];
+        record.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}
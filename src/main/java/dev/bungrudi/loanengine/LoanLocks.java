@@ -0,0 +1,33 @@
+package dev.bungrudi.loanengine;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks striped by loan id. Operations on the same loan always map to the same lock,
+ * operations on different loans mostly don't contend.
+ */
+class LoanLocks {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    LoanLocks(int concurrency) {
+        int size = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    ReentrantLock get(String loanId) {
+        int h = loanId.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * For dense handles, see {@link LoanRegistry}; consecutive handles map to different locks.
+     */
+    ReentrantLock get(int handle) {
+        return stripes[handle & mask];
+    }
+}
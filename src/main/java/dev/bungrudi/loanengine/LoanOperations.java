@@ -0,0 +1,37 @@
+package dev.bungrudi.loanengine;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Servicing operations every loan engine offers, whatever the storage behind it: {@link LoanEngine} keeps a
+ * {@link Loan} object per loan, {@link ColumnarLoanEngine} keeps the book in off-heap columns.
+ */
+public interface LoanOperations {
+
+    LocalDate getCurrentDate();
+
+    Loan createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks);
+
+    void makePayment(String loanId, BigDecimal amount);
+
+    void makePayment(String loanId, long amountMinor);
+
+    /**
+     * Applies a batch of payments and reports the outcome of each entry instead of throwing.
+     *
+     * @return one result per batch entry, in batch order
+     */
+    PaymentResult[] makePayments(PaymentBatch batch);
+
+    BigDecimal getOutstanding(String loanId);
+
+    boolean isDelinquent(String loanId);
+
+    Loan getLoan(String loanId);
+
+    /**
+     * Moves to the next day and re-evaluates the standing of every loan crossing a week boundary on it.
+     */
+    EndOfDaySummary endOfDay();
+}
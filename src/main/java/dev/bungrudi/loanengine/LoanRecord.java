@@ -0,0 +1,53 @@
+package dev.bungrudi.loanengine;
+
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A loan with its terms, payments, penalties and standing encoded as in a {@link LoanSnapshot}, for moving it between
+ * the {@link LoanShard}s of a {@link LoanEngineCluster} as plain bytes. Immutable.
+ */
+public final class LoanRecord {
+    @Getter
+    private final String loanId;
+    private final byte[] bytes;
+
+    public LoanRecord(String loanId, byte[] bytes) {
+        this.loanId = loanId;
+        this.bytes = bytes.clone();
+    }
+
+    static LoanRecord of(Loan loan) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            LoanSnapshot.writeLoan(out, loan);
+            out.writeLong(loan.getPenaltyMinor());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new LoanRecord(loan.getLoanId(), bytes.toByteArray());
+    }
+
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * Decodes the loan, sharing its schedule template through {@link LoanFactory#restoreTemplate}.
+     */
+    Loan toLoan(LoanFactory loanFactory) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            Loan loan = LoanSnapshot.readLoan(in, loanFactory);
+            loan.accruePenalty(in.readLong());
+            return loan;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt loan record " + loanId, e);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package dev.bungrudi.loanengine;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Maps loan ids to dense int handles, assigned in order of first registration, and handles to their current
+ * {@link Loan}. Ids are resolved through an open-addressing table of handles over plain arrays, so a lookup costs
+ * no allocation and no boxed map entry exists per loan. A loan replacing another with the same id keeps its handle,
+ * and so does an id whose loan was removed.
+ * <p>
+ * Lookups run under an optimistic read of a {@link StampedLock} and only take the read lock when a registration
+ * overlapped them; registrations are exclusive.
+ */
+class LoanRegistry {
+    static final int NOT_FOUND = -1;
+    private static final int INITIAL_HANDLES = 1 << 10;
+
+    private final StampedLock lock = new StampedLock();
+    private Table table = new Table(INITIAL_HANDLES);
+    private int size;
+    /**
+     * handles with a loan
+     */
+    private int loanCount;
+
+    /**
+     * Arrays replaced together on growth, so a reader holding one table always sees arrays of matching capacity.
+     */
+    private static final class Table {
+        /**
+         * the id's hash code in the high half and handle + 1 in the low half per slot, 0 for an empty slot;
+         * at most half full
+         */
+        final long[] slots;
+        final String[] loanIds;
+        final Loan[] loans;
+
+        Table(int handles) {
+            this.slots = new long[Integer.highestOneBit(handles * 4 / 3) << 1];
+            this.loanIds = new String[handles];
+            this.loans = new Loan[handles];
+        }
+    }
+
+    /**
+     * Returns the handle of the id, or {@link #NOT_FOUND}, also for null.
+     */
+    int find(String loanId) {
+        if (loanId == null) {
+            return NOT_FOUND;
+        }
+        long stamp = lock.tryOptimisticRead();
+        int handle = probe(table, loanId);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                handle = probe(table, loanId);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * Returns the loan registered under the handle, or null if there is none.
+     */
+    Loan get(int handle) {
+        long stamp = lock.tryOptimisticRead();
+        Loan loan = get(table, handle);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                loan = get(table, handle);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return loan;
+    }
+
+    /**
+     * Returns the id registered under the handle, or null if there is none.
+     */
+    String getLoanId(int handle) {
+        long stamp = lock.tryOptimisticRead();
+        String loanId = getLoanId(table, handle);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                loanId = getLoanId(table, handle);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return loanId;
+    }
+
+    /**
+     * Returns the handle of the id, assigning the next one if the id is new. A new handle has no loan until
+     * {@link #set} is called.
+     */
+    int register(String loanId) {
+        int handle = find(loanId);
+        if (handle != NOT_FOUND) {
+            return handle;
+        }
+        long stamp = lock.writeLock();
+        try {
+            handle = probe(table, loanId);
+            if (handle != NOT_FOUND) {
+                return handle;
+            }
+            if (size == table.loans.length) {
+                table = grow(table, size * 2);
+            }
+            handle = size++;
+            table.loanIds[handle] = loanId;
+            insert(table, loanId.hashCode(), handle);
+            return handle;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Puts the loan under its id's handle and records the handle on the loan.
+     *
+     * @return the loan it replaces, or null
+     */
+    Loan set(int handle, Loan loan) {
+        long stamp = lock.writeLock();
+        try {
+            Loan replaced = table.loans[handle];
+            table.loans[handle] = loan;
+            loan.setHandle(handle);
+            if (replaced == null) {
+                loanCount++;
+            }
+            return replaced;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Takes the loan off its handle; the id keeps the handle.
+     *
+     * @return the loan removed, or null
+     */
+    Loan remove(int handle) {
+        long stamp = lock.writeLock();
+        try {
+            Loan removed = table.loans[handle];
+            table.loans[handle] = null;
+            if (removed != null) {
+                loanCount--;
+            }
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Read-only list of every registered loan, in handle order. Only valid while no loan is being added or removed.
+     * A view while every handle has a loan, a copy once some were removed.
+     */
+    List<Loan> values() {
+        Table snapshot;
+        int count;
+        int loans;
+        long stamp = lock.readLock();
+        try {
+            snapshot = table;
+            count = size;
+            loans = loanCount;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        if (loans < count) {
+            List<Loan> values = new ArrayList<>(loans);
+            for (int handle = 0; handle < count; handle++) {
+                if (snapshot.loans[handle] != null) {
+                    values.add(snapshot.loans[handle]);
+                }
+            }
+            return values;
+        }
+        return new AbstractList<>() {
+            @Override
+            public Loan get(int index) {
+                return snapshot.loans[index];
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Probes for the id. The table may be read optimistically while it is being written, so slots are bounds-checked
+     * and the result is only trusted once the stamp validates.
+     */
+    private static int probe(Table table, String loanId) {
+        long[] slots = table.slots;
+        int mask = slots.length - 1;
+        int hash = loanId.hashCode();
+        for (int slot = spread(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if ((int) (slots[slot] >>> 32) != hash) {
+                continue;
+            }
+            int handle = (int) slots[slot] - 1;
+            if (handle < table.loanIds.length && loanId.equals(table.loanIds[handle])) {
+                return handle;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private static Loan get(Table table, int handle) {
+        return handle >= 0 && handle < table.loans.length ? table.loans[handle] : null;
+    }
+
+    private static String getLoanId(Table table, int handle) {
+        return handle >= 0 && handle < table.loanIds.length ? table.loanIds[handle] : null;
+    }
+
+    private static void insert(Table table, int hash, int handle) {
+        int mask = table.slots.length - 1;
+        int slot = spread(hash) & mask;
+        while (table.slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.slots[slot] = ((long) hash << 32) | (handle + 1);
+    }
+
+    private Table grow(Table old, int handles) {
+        Table grown = new Table(handles);
+        System.arraycopy(old.loanIds, 0, grown.loanIds, 0, size);
+        System.arraycopy(old.loans, 0, grown.loans, 0, size);
+        for (long entry : old.slots) {
+            if (entry != 0) {
+                int handle = (int) entry - 1;
+                insert(grown, (int) (entry >>> 32), handle);
+            }
+        }
+        return grown;
+    }
+
+    /**
+     * Ids like LOAN-000123 have runs of nearly consecutive hash codes, which cluster under linear probing unless mixed.
+     */
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,313 @@
+package dev.bungrudi.loanengine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves a {@link LoanOperations} over a line protocol on a loopback socket, running requests on virtual threads.
+ * Requests of a connection for different loans run concurrently, up to {@value #MAX_IN_FLIGHT} at a time, while those
+ * for the same loan run one after the other in the order they arrived; {@code EOD} runs once every earlier request of
+ * the connection is done, and before any later one.
+ * <p>
+ * A request is one line, {@code <tag> <command> <arguments>}, separated by single spaces; the reply is
+ * {@code <tag> OK [value]} or {@code <tag> ERR <message>}. A connection may send further requests before the replies
+ * arrive, and replies come back in the order they complete, so the client matches them by tag. Commands:
+ * <ul>
+ *     <li>{@code CREATE <loanId> <amount> <rate> <weeks>}, replies with the weekly payment</li>
+ *     <li>{@code PAY <loanId> <amount>}</li>
+ *     <li>{@code OUTSTANDING <loanId>}, replies with the outstanding amount</li>
+ *     <li>{@code DELINQUENT <loanId>}, replies with {@code true} or {@code false}</li>
+ *     <li>{@code EOD}, runs end of day and replies with the new date</li>
+ * </ul>
+ * Amounts are in major units, for example {@code 5000000.00}.
+ */
+public final class LoanServer implements Closeable {
+    /**
+     * requests a connection may have running or waiting for their loan; reading its further requests waits beyond
+     */
+    static final int MAX_IN_FLIGHT = 256;
+    private static final System.Logger LOG = System.getLogger(LoanServer.class.getName());
+
+    private final LoanOperations engine;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts accepting connections on the loopback address.
+     *
+     * @param port the port to listen on, or 0 for any free port
+     */
+    public LoanServer(LoanOperations engine, int port) throws IOException {
+        this.engine = engine;
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.acceptor = Thread.ofVirtual().name("loan-server-acceptor").start(this::accept);
+    }
+
+    /**
+     * Serves a new engine on the given port, default 7070. With a data directory, the book is persisted there and
+     * recovered on restart.
+     * <p>
+     * Arguments: {@code [port] [dataDirectory]}.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        LoanFactory loanFactory = new ConsumptiveWeeklyLoanFactory();
+        LoanEngine engine = args.length > 1
+                ? LoanEngine.open(Path.of(args[1]), LocalDate.now(), loanFactory)
+                : new LoanEngine(LocalDate.now(), loanFactory);
+        LoanServer server = new LoanServer(engine, port);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                engine.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot close engine", e);
+            } finally {
+                stopped.countDown();
+            }
+        }));
+        LOG.log(System.Logger.Level.INFO, () -> "Serving loans on " + server.getPort() + " at " + engine.getCurrentDate());
+        stopped.await();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones; requests already running finish but their replies may be
+     * lost.
+     */
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        try (ExecutorService connectionThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (!serverSocket.isClosed()) {
+                Socket connection;
+                try {
+                    connection = serverSocket.accept();
+                } catch (IOException e) {
+                    break;
+                }
+                connections.add(connection);
+                connectionThreads.execute(() -> serve(connection));
+            }
+        }
+    }
+
+    /**
+     * Reads the requests of a connection and runs them, see {@link ConnectionRequests}. Returns once the client closes
+     * its side and every reply is written.
+     */
+    private void serve(Socket connection) {
+        try (connection;
+             BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+            connection.setTcpNoDelay(true);
+            try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+                ConnectionRequests requests = new ConnectionRequests(out, threads);
+                String line;
+                while ((line = in.readLine()) != null) {
+                    requests.submit(line);
+                }
+            }
+        } catch (SocketException e) {
+            // closed by the client or by close()
+        } catch (IOException e) {
+            throw new UncheckedIOException("Connection failed", e);
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * The requests of one connection. A request for a loan starts a virtual thread unless one is running for that
+     * loan, in which case it waits in the loan's queue for that thread to run it next. Every request holds a permit
+     * from when it is read until its reply is written, so reading stops while {@value #MAX_IN_FLIGHT} are pending;
+     * a request without a loan, such as {@code EOD}, takes all of them and runs on the reading thread.
+     * <p>
+     * Locks rather than synchronized, which would pin the virtual threads to their carriers while they wait.
+     */
+    private final class ConnectionRequests {
+        private final Writer out;
+        private final ExecutorService threads;
+        private final Lock writeLock = new ReentrantLock();
+        private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        /**
+         * requests waiting by loan id; an id is present while a thread runs the requests for its loan
+         */
+        private final Map<String, Queue<String>> waiting = new HashMap<>();
+        private final Lock waitingLock = new ReentrantLock();
+
+        ConnectionRequests(Writer out, ExecutorService threads) {
+            this.out = out;
+            this.threads = threads;
+        }
+
+        void submit(String request) {
+            String loanId = loanId(request);
+            if (loanId == null) {
+                inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+                try {
+                    reply(handle(request));
+                } finally {
+                    inFlight.release(MAX_IN_FLIGHT);
+                }
+                return;
+            }
+            inFlight.acquireUninterruptibly();
+            waitingLock.lock();
+            try {
+                Queue<String> queue = waiting.get(loanId);
+                if (queue != null) {
+                    queue.add(request);
+                    return;
+                }
+                waiting.put(loanId, new ArrayDeque<>());
+            } finally {
+                waitingLock.unlock();
+            }
+            threads.execute(() -> runInOrder(loanId, request));
+        }
+
+        /**
+         * Runs the request, then those that queued up for the loan meanwhile, until none is left.
+         */
+        private void runInOrder(String loanId, String request) {
+            while (request != null) {
+                reply(handle(request));
+                inFlight.release();
+                waitingLock.lock();
+                try {
+                    request = waiting.get(loanId).poll();
+                    if (request == null) {
+                        waiting.remove(loanId);
+                    }
+                } finally {
+                    waitingLock.unlock();
+                }
+            }
+        }
+
+        private void reply(String reply) {
+            writeLock.lock();
+            try {
+                out.write(reply);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                // the client went away; nothing to reply to
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the loan a request line is for, or null for a command without one.
+     */
+    private static String loanId(String request) {
+        String[] parts = request.split(" ", 4);
+        return parts.length > 2 && !parts[1].equals("EOD") ? parts[2] : null;
+    }
+
+    /**
+     * Returns the reply line for a request line, without the line terminator.
+     */
+    String handle(String request) {
+        String[] parts = request.split(" ");
+        String tag = parts[0];
+        try {
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("Missing command");
+            }
+            String value = switch (parts[1]) {
+                case "CREATE" -> {
+                    expectArguments(parts, 4);
+                    Loan loan = engine.createLoan(parts[2], new BigDecimal(parts[3]), new BigDecimal(parts[4]),
+                            Integer.parseInt(parts[5]));
+                    yield loan.getWeeklyPayment().toPlainString();
+                }
+                case "PAY" -> {
+                    expectArguments(parts, 2);
+                    engine.makePayment(parts[2], new BigDecimal(parts[3]));
+                    yield null;
+                }
+                case "OUTSTANDING" -> {
+                    expectArguments(parts, 1);
+                    yield engine.getOutstanding(parts[2]).toPlainString();
+                }
+                case "DELINQUENT" -> {
+                    expectArguments(parts, 1);
+                    yield Boolean.toString(engine.isDelinquent(parts[2]));
+                }
+                case "EOD" -> {
+                    expectArguments(parts, 0);
+                    yield engine.endOfDay().getDate().toString();
+                }
+                default -> throw new IllegalArgumentException("Unknown command: " + parts[1]);
+            };
+            return value == null ? tag + " OK" : tag + " OK " + value;
+        } catch (RuntimeException e) {
+            // NumberFormatException is an IllegalArgumentException; the message goes on one line either way
+            return tag + " ERR " + String.valueOf(e.getMessage()).replace('\n', ' ');
+        }
+    }
+
+    private static void expectArguments(String[] parts, int count) {
+        if (parts.length != count + 2) {
+            throw new IllegalArgumentException(parts[1] + " takes " + count + " arguments");
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package dev.bungrudi.loanengine;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One shard of a {@link LoanEngineCluster}: the loan operations for the loans it owns, plus moving loans in and out
+ * when the cluster is rebalanced. This is the transport boundary of the cluster; {@link LocalLoanShard} serves it
+ * in-process, and an implementation forwarding the calls to another node lets the cluster span nodes. Loans are
+ * moved as ids, {@link HashRanges} and {@link LoanRecord}s, which are plain data.
+ */
+public interface LoanShard extends LoanOperations {
+    /**
+     * Identifies the shard on the hash ring; must be unique in the cluster and stable across restarts.
+     */
+    String getShardId();
+
+    /**
+     * Returns the ids of the loans, live or archived, whose ids hash into the ranges.
+     */
+    List<String> findLoanIds(HashRanges ranges);
+
+    /**
+     * Returns those of the ids the shard has a loan for, live or archived.
+     */
+    List<String> findLoanIds(Collection<String> loanIds);
+
+    /**
+     * Removes the loans with the ids and returns them, see {@link LoanEngine#removeLoans}.
+     */
+    List<LoanRecord> removeLoans(Collection<String> loanIds);
+
+    /**
+     * Adds loans removed from another shard, see {@link LoanEngine#addLoans}.
+     */
+    void addLoans(Collection<LoanRecord> loans);
+}
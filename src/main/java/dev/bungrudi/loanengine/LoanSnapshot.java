@@ -0,0 +1,147 @@
+package dev.bungrudi.loanengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Compact binary image of a loan book: the current date followed by every loan with its terms, paid installments,
+ * standing and accrued penalties. Written to a temporary file and moved into place, so a snapshot file is either
+ * complete or absent. Loans read back share schedule templates through {@link LoanFactory#restoreTemplate}.
+ */
+class LoanSnapshot {
+    /**
+     * changed when the format does, so an older snapshot is rejected rather than misread
+     */
+    private static final int MAGIC = 0x4C534E51;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    static void write(Path file, LocalDate currentDate, Collection<Loan> loans) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt((int) currentDate.toEpochDay());
+            out.writeInt(loans.size());
+            for (Loan loan : loans) {
+                writeLoan(out, loan);
+                // not in the loan record, which the archive shares; archived loans have nothing outstanding
+                out.writeLong(loan.getPenaltyMinor());
+            }
+            out.writeInt(MAGIC);
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot, passing every loan to {@code loanConsumer}.
+     *
+     * @return the current date of the book
+     */
+    static LocalDate read(Path file, LoanFactory loanFactory, Consumer<Loan> loanConsumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a loan snapshot: " + file);
+            }
+            LocalDate currentDate = LocalDate.ofEpochDay(in.readInt());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Loan loan = readLoan(in, loanFactory);
+                loan.accruePenalty(in.readLong());
+                loanConsumer.accept(loan);
+            }
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Corrupt loan snapshot: " + file);
+            }
+            return currentDate;
+        }
+    }
+
+    static void writeLoan(DataOutputStream out, Loan loan) throws IOException {
+        RepaymentSchedule schedule = loan.getRepaymentSchedule();
+        writeString(out, loan.getLoanId());
+        writeDecimal(out, loan.getLoanAmount());
+        out.writeDouble(loan.getInterestRate());
+        out.writeInt(loan.getNumberOfWeeks());
+        out.writeInt((int) loan.getStartDate().toEpochDay());
+        out.writeInt((int) schedule.getFirstDueDate().toEpochDay());
+        out.writeLong(loan.getTotalAmountMinor());
+        out.writeLong(schedule.getInstallment());
+        out.writeInt(loan.getPaidCount());
+        for (int week = 0; week < loan.getPaidCount(); week++) {
+            out.writeInt((int) schedule.getPaymentDate(week).toEpochDay());
+        }
+        out.writeByte(loan.getStanding().ordinal());
+        out.writeInt(loan.getOverdueCount());
+    }
+
+    static Loan readLoan(DataInputStream in, LoanFactory loanFactory) throws IOException {
+        String loanId = readString(in);
+        BigDecimal loanAmount = readDecimal(in);
+        double interestRate = in.readDouble();
+        int numberOfWeeks = in.readInt();
+        LocalDate startDate = LocalDate.ofEpochDay(in.readInt());
+        LocalDate firstDueDate = LocalDate.ofEpochDay(in.readInt());
+        long totalAmountMinor = in.readLong();
+        long installment = in.readLong();
+        ScheduleTemplate template = loanFactory == null ? null
+                : loanFactory.restoreTemplate(loanAmount, BigDecimal.valueOf(interestRate), numberOfWeeks, installment);
+        if (template == null) {
+            template = new ScheduleTemplate(numberOfWeeks, installment);
+        }
+        Loan loan = new Loan(loanId, loanAmount, totalAmountMinor, interestRate, numberOfWeeks, startDate,
+                new RepaymentSchedule(template, firstDueDate));
+        int paidCount = in.readInt();
+        for (int week = 0; week < paidCount; week++) {
+            loan.restorePayment(LocalDate.ofEpochDay(in.readInt()));
+        }
+        LoanStanding standing = LoanStanding.values()[in.readByte()];
+        loan.restoreStatus(standing, in.readInt());
+        return loan;
+    }
+
+    /**
+     * Writes the string as UTF-8 with an int length, unlike {@link DataOutputStream#writeUTF}, which is limited to
+     * 65535 bytes.
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        out.writeInt(value.scale());
+        out.writeInt(unscaled.length);
+        out.write(unscaled);
+    }
+
+    private static BigDecimal readDecimal(DataInputStream in) throws IOException {
+        int scale = in.readInt();
+        byte[] unscaled = new byte[in.readInt()];
+        in.readFully(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}
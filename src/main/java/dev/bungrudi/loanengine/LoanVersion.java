@@ -0,0 +1,133 @@
+package dev.bungrudi.loanengine;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * A loan as it stood at one version of a {@link LoanEngine}'s book, as read through a {@link BookView}. Immutable: the
+ * terms come from the loan, which never changes them, and the payments and standing are the ones it had then.
+ */
+public final class LoanVersion {
+    /**
+     * null in a version where the handle had no loan
+     */
+    private final Loan loan;
+    /**
+     * the book version from which this one is seen, 0 for a loan as it stood before any open view
+     */
+    final long version;
+    private final int paidCount;
+    private final LoanStanding standing;
+    private final int overdueCount;
+    private final long penaltyMinor;
+    /**
+     * the schedule's payment dates as of this version; only the first {@code paidCount} are read
+     */
+    private final int[] paymentEpochDays;
+    /**
+     * the version this one replaced, while an open view may still need it; cut once none can
+     */
+    LoanVersion older;
+
+    /**
+     * Records the loan as it stands; the caller holds the loan's lock.
+     */
+    LoanVersion(Loan loan, long version, LoanVersion older) {
+        this.loan = loan;
+        this.version = version;
+        this.older = older;
+        if (loan != null) {
+            this.paidCount = loan.getPaidCount();
+            this.standing = loan.getStanding();
+            this.overdueCount = loan.getOverdueCount();
+            this.penaltyMinor = loan.getPenaltyMinor();
+            this.paymentEpochDays = loan.getRepaymentSchedule().getPaymentEpochDays();
+        } else {
+            this.paidCount = 0;
+            this.standing = null;
+            this.overdueCount = 0;
+            this.penaltyMinor = 0;
+            this.paymentEpochDays = null;
+        }
+    }
+
+    /**
+     * Returns the version seen by a view of the given book version, or null if the handle had no loan in it.
+     */
+    LoanVersion at(long viewVersion) {
+        LoanVersion candidate = this;
+        while (candidate != null && candidate.version > viewVersion) {
+            candidate = candidate.older;
+        }
+        return candidate == null || candidate.loan == null ? null : candidate;
+    }
+
+    public String getLoanId() {
+        return loan.getLoanId();
+    }
+
+    public BigDecimal getLoanAmount() {
+        return loan.getLoanAmount();
+    }
+
+    public int getNumberOfWeeks() {
+        return loan.getNumberOfWeeks();
+    }
+
+    public LocalDate getStartDate() {
+        return loan.getStartDate();
+    }
+
+    public long getWeeklyPaymentMinor() {
+        return loan.getWeeklyPaymentMinor();
+    }
+
+    public int getPaidCount() {
+        return paidCount;
+    }
+
+    public LoanStanding getStanding() {
+        return standing;
+    }
+
+    public boolean isDelinquent() {
+        return standing == LoanStanding.DELINQUENT;
+    }
+
+    /**
+     * Same as {@link Loan#getOutstandingMinor()} as of this version.
+     */
+    public long getOutstandingMinor() {
+        return loan.getTotalAmountMinor() - paidCount * loan.getRepaymentSchedule().getInstallment() + penaltyMinor;
+    }
+
+    public BigDecimal getOutstanding() {
+        return Money.toBigDecimal(getOutstandingMinor());
+    }
+
+    public long getPenaltyMinor() {
+        return penaltyMinor;
+    }
+
+    /**
+     * Same as {@link Loan#getOverdueMinor()} as of this version.
+     */
+    public long getOverdueMinor() {
+        return overdueCount * loan.getRepaymentSchedule().getInstallment();
+    }
+
+    /**
+     * Returns the due date of the next unpaid installment as of this version, or {@code null} if every installment
+     * was paid.
+     */
+    public LocalDate getNextDueDate() {
+        return paidCount < loan.getNumberOfWeeks() ? loan.getRepaymentSchedule().getDueDate(paidCount) : null;
+    }
+
+    /**
+     * Returns a detached loan as of this version, with its schedule and payment dates.
+     */
+    public Loan toLoan() {
+        return loan.copy(paidCount, paymentEpochDays, penaltyMinor, standing, overdueCount);
+    }
+}
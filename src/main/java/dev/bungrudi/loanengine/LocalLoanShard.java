@@ -0,0 +1,101 @@
+package dev.bungrudi.loanengine;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link LoanShard} backed by a {@link LoanEngine} in the same JVM.
+ */
+public class LocalLoanShard implements LoanShard {
+    @Getter
+    private final String shardId;
+    @Getter
+    private final LoanEngine engine;
+
+    public LocalLoanShard(String shardId, LoanEngine engine) {
+        this.shardId = shardId;
+        this.engine = engine;
+    }
+
+    @Override
+    public LocalDate getCurrentDate() {
+        return engine.getCurrentDate();
+    }
+
+    @Override
+    public Loan createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
+        return engine.createLoan(loanId, loanAmount, interestRate, numberOfWeeks);
+    }
+
+    @Override
+    public void makePayment(String loanId, BigDecimal amount) {
+        engine.makePayment(loanId, amount);
+    }
+
+    @Override
+    public void makePayment(String loanId, long amountMinor) {
+        engine.makePayment(loanId, amountMinor);
+    }
+
+    @Override
+    public PaymentResult[] makePayments(PaymentBatch batch) {
+        return engine.makePayments(batch);
+    }
+
+    @Override
+    public BigDecimal getOutstanding(String loanId) {
+        return engine.getOutstanding(loanId);
+    }
+
+    @Override
+    public boolean isDelinquent(String loanId) {
+        return engine.isDelinquent(loanId);
+    }
+
+    @Override
+    public Loan getLoan(String loanId) {
+        return engine.getLoan(loanId);
+    }
+
+    @Override
+    public EndOfDaySummary endOfDay() {
+        return engine.endOfDay();
+    }
+
+    @Override
+    public List<String> findLoanIds(HashRanges ranges) {
+        return engine.findLoanIds(ranges::contains);
+    }
+
+    @Override
+    public List<String> findLoanIds(Collection<String> loanIds) {
+        Set<String> ids = new HashSet<>(loanIds);
+        return engine.findLoanIds(ids::contains);
+    }
+
+    @Override
+    public List<LoanRecord> removeLoans(Collection<String> loanIds) {
+        Set<String> ids = new HashSet<>(loanIds);
+        List<LoanRecord> records = new ArrayList<>(ids.size());
+        for (Loan loan : engine.removeLoans(ids::contains)) {
+            records.add(LoanRecord.of(loan));
+        }
+        return records;
+    }
+
+    @Override
+    public void addLoans(Collection<LoanRecord> loans) {
+        List<Loan> decoded = new ArrayList<>(loans.size());
+        for (LoanRecord loan : loans) {
+            decoded.add(loan.toLoan(engine.getLoanFactory()));
+        }
+        engine.addLoans(decoded);
+    }
+}
@@ -0,0 +1,124 @@
+package dev.bungrudi.loanengine;
+
+import java.util.Locale;
+
+/**
+ * Values of an {@link EngineMetrics} at one moment. Latencies are in nanoseconds; {@link #toText()} renders
+ * everything in the Prometheus text exposition format, with latencies in seconds.
+ */
+public class MetricsSnapshot {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final int STANDINGS = LoanStanding.values().length;
+
+    private final long[] paymentCounts;
+    private final LatencyHistogram.Snapshot[] operations;
+    private final LatencyHistogram.Snapshot[] phases;
+    private final long[] lastPhaseNanos;
+    private final long[] transitions;
+
+    MetricsSnapshot(long[] paymentCounts, LatencyHistogram.Snapshot[] operations, LatencyHistogram.Snapshot[] phases,
+                    long[] lastPhaseNanos, long[] transitions) {
+        this.paymentCounts = paymentCounts;
+        this.operations = operations;
+        this.phases = phases;
+        this.lastPhaseNanos = lastPhaseNanos;
+        this.transitions = transitions;
+    }
+
+    /**
+     * Number of payments, single or batched, that had the given outcome.
+     */
+    public long getPaymentCount(PaymentResult result) {
+        return paymentCounts[result.ordinal()];
+    }
+
+    public LatencyHistogram.Snapshot getLatency(EngineMetrics.Operation operation) {
+        return operations[operation.ordinal()];
+    }
+
+    /**
+     * Time spent in the phase across all end-of-day runs.
+     */
+    public LatencyHistogram.Snapshot getPhaseLatency(EngineMetrics.Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * Time spent in the phase by the latest end-of-day run.
+     */
+    public long getLastPhaseNanos(EngineMetrics.Phase phase) {
+        return lastPhaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * Number of loans end of day moved from one standing to the other.
+     */
+    public long getTransitionCount(LoanStanding from, LoanStanding to) {
+        return transitions[from.ordinal() * STANDINGS + to.ordinal()];
+    }
+
+    public long getTransitionCount() {
+        long total = 0;
+        for (long count : transitions) {
+            total += count;
+        }
+        return total;
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append("# TYPE loan_engine_payments_total counter\n");
+        for (PaymentResult result : PaymentResult.values()) {
+            line(text, "loan_engine_payments_total", "result=\"" + label(result) + "\"", getPaymentCount(result));
+        }
+        text.append("# TYPE loan_engine_operation_latency_seconds summary\n");
+        for (EngineMetrics.Operation operation : EngineMetrics.Operation.values()) {
+            summary(text, "loan_engine_operation_latency_seconds", "operation=\"" + label(operation) + "\"",
+                    getLatency(operation));
+        }
+        text.append("# TYPE loan_engine_end_of_day_phase_seconds summary\n");
+        for (EngineMetrics.Phase phase : EngineMetrics.Phase.values()) {
+            summary(text, "loan_engine_end_of_day_phase_seconds", "phase=\"" + label(phase) + "\"", getPhaseLatency(phase));
+        }
+        text.append("# TYPE loan_engine_end_of_day_last_phase_seconds gauge\n");
+        for (EngineMetrics.Phase phase : EngineMetrics.Phase.values()) {
+            line(text, "loan_engine_end_of_day_last_phase_seconds", "phase=\"" + label(phase) + "\"",
+                    seconds(getLastPhaseNanos(phase)));
+        }
+        text.append("# TYPE loan_engine_standing_transitions_total counter\n");
+        for (LoanStanding from : LoanStanding.values()) {
+            for (LoanStanding to : LoanStanding.values()) {
+                if (from != to) {
+                    line(text, "loan_engine_standing_transitions_total",
+                            "from=\"" + label(from) + "\",to=\"" + label(to) + "\"", getTransitionCount(from, to));
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static void summary(StringBuilder text, String name, String labels, LatencyHistogram.Snapshot latency) {
+        for (double quantile : QUANTILES) {
+            line(text, name, labels + ",quantile=\"" + quantile + "\"", seconds(latency.getValueAtPercentile(quantile * 100)));
+        }
+        line(text, name + "_sum", labels, seconds(latency.getTotalNanos()));
+        line(text, name + "_count", labels, latency.getCount());
+        line(text, name + "_max", labels, seconds(latency.getMaxNanos()));
+    }
+
+    private static void line(StringBuilder text, String name, String labels, long value) {
+        text.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void line(StringBuilder text, String name, String labels, double value) {
+        text.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static String label(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,67 @@
+package dev.bungrudi.loanengine;
+
+import java.math.BigDecimal;
+
+/**
+ * Money amounts held as a {@code long} count of minor units (cents), with the scale fixed at two decimal places
+ * for the currencies the engine books. Schedules and balances are kept in minor units so the payment path does
+ * plain integer arithmetic; {@link BigDecimal} is only used where amounts cross the public API.
+ */
+public final class Money {
+    public static final int SCALE = 2;
+    /**
+     * returned by {@link #toMinorOrInvalid(BigDecimal)} for amounts that have no exact minor-unit representation
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final BigDecimal MAX_MINOR = BigDecimal.valueOf(Long.MAX_VALUE);
+    private static final BigDecimal MIN_MINOR = BigDecimal.valueOf(Long.MIN_VALUE + 1);
+
+    private Money() {
+    }
+
+    /**
+     * Converts an amount to minor units.
+     *
+     * @throws ArithmeticException if the amount has a fraction of a minor unit or does not fit in a {@code long}
+     */
+    public static long toMinor(BigDecimal amount) {
+        return amount.movePointRight(SCALE).longValueExact();
+    }
+
+    /**
+     * Converts an amount to minor units, returning {@link #INVALID} instead of throwing when it cannot be represented.
+     */
+    public static long toMinorOrInvalid(BigDecimal amount) {
+        BigDecimal minor = amount.movePointRight(SCALE);
+        if (minor.scale() > 0 && minor.stripTrailingZeros().scale() > 0) {
+            return INVALID;
+        }
+        if (minor.compareTo(MAX_MINOR) > 0 || minor.compareTo(MIN_MINOR) < 0) {
+            return INVALID;
+        }
+        return minor.longValue();
+    }
+
+    /**
+     * Divides an amount with banker's rounding, the same as {@link BigDecimal#divide} with
+     * {@link java.math.RoundingMode#HALF_EVEN} at the minor-unit scale.
+     */
+    public static long divideHalfEven(long amount, long divisor) {
+        long quotient = amount / divisor;
+        long remainder = amount % divisor;
+        if (remainder == 0) {
+            return quotient;
+        }
+        long twiceRemainder = Math.abs(remainder) * 2;
+        long absDivisor = Math.abs(divisor);
+        if (twiceRemainder > absDivisor || (twiceRemainder == absDivisor && (quotient & 1) != 0)) {
+            quotient += Long.signum(amount) * Long.signum(divisor);
+        }
+        return quotient;
+    }
+
+    public static BigDecimal toBigDecimal(long minor) {
+        return BigDecimal.valueOf(minor, SCALE);
+    }
+}
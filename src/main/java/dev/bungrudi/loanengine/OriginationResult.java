@@ -0,0 +1,21 @@
+package dev.bungrudi.loanengine;
+
+/**
+ * Outcome of originating one loan, as reported by {@link LoanEngine#createLoans(LoanBatch)} instead of an exception.
+ */
+public enum OriginationResult {
+    CREATED,
+    /**
+     * the id is missing, the amount is not positive or not in whole minor units, the rate is negative or the term
+     * is shorter than a week
+     */
+    INVALID,
+    /**
+     * an earlier entry of the same batch has the same id
+     */
+    DUPLICATE_IN_BATCH,
+    /**
+     * the engine already has a loan, live or archived, with the id
+     */
+    ALREADY_EXISTS
+}
@@ -0,0 +1,71 @@
+package dev.bungrudi.loanengine;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Payments to apply in one {@link LoanEngine#makePayments(PaymentBatch)} call, kept as parallel arrays of loan ids and
+ * amounts in minor units. Entries are applied in the order they were added.
+ */
+public class PaymentBatch {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private String[] loanIds;
+    private long[] amounts;
+    private int size;
+
+    public PaymentBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PaymentBatch(int capacity) {
+        this.loanIds = new String[Math.max(1, capacity)];
+        this.amounts = new long[Math.max(1, capacity)];
+    }
+
+    public PaymentBatch add(String loanId, BigDecimal amount) {
+        return add(loanId, Money.toMinorOrInvalid(amount));
+    }
+
+    /**
+     * Adds a payment with the amount in minor units, see {@link Money}.
+     */
+    public PaymentBatch add(String loanId, long amountMinor) {
+        if (size == loanIds.length) {
+            loanIds = Arrays.copyOf(loanIds, size * 2);
+            amounts = Arrays.copyOf(amounts, size * 2);
+        }
+        loanIds[size] = loanId;
+        amounts[size] = amountMinor;
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getLoanId(int index) {
+        checkIndex(index);
+        return loanIds[index];
+    }
+
+    public long getAmountMinor(int index) {
+        checkIndex(index);
+        return amounts[index];
+    }
+
+    /**
+     * Empties the batch so it can be filled again, keeping its capacity.
+     */
+    public void clear() {
+        Arrays.fill(loanIds, 0, size, null);
+        size = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside batch of " + size);
+        }
+    }
+}
@@ -1,32 +1,33 @@
 package dev.bungrudi.loanengine;
 
+import java.math.BigDecimal;
 import java.time.LocalDate;
 import lombok.ToString;
 
+/**
+ * One installment of a {@link RepaymentSchedule}, as of the moment it was read from the schedule.
+ */
 @ToString
 public class PaymentDue {
-    private int weekNumber;
-    private double amountDue;
-    private boolean isPaid;
-    private LocalDate paymentDate;
-    private LocalDate dueDate;
+    private final int weekNumber;
+    /**
+     * in minor units, see {@link Money}
+     */
+    private final long amountDue;
+    private final LocalDate paymentDate;
+    private final LocalDate dueDate;
 
-    public PaymentDue(int weekNumber, double amountDue, LocalDate dueDate) {
+    public PaymentDue(int weekNumber, long amountDue, LocalDate dueDate, LocalDate paymentDate) {
         this.weekNumber = weekNumber;
         this.amountDue = amountDue;
-        this.isPaid = false;
-        this.paymentDate = null;
+        this.paymentDate = paymentDate;
         this.dueDate = dueDate;
     }
 
     public int getWeekNumber() { return weekNumber; }
-    public double getAmountDue() { return amountDue; }
-    public boolean isPaid() { return isPaid; }
+    public BigDecimal getAmountDue() { return Money.toBigDecimal(amountDue); }
+    public long getAmountDueMinor() { return amountDue; }
+    public boolean isPaid() { return paymentDate != null; }
     public LocalDate getPaymentDate() { return paymentDate; }
     public LocalDate getDueDate() { return dueDate; }
-
-    public void markAsPaid(LocalDate paymentDate) {
-        this.isPaid = true;
-        this.paymentDate = paymentDate;
-    }
 }
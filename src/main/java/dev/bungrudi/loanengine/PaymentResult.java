@@ -0,0 +1,42 @@
+package dev.bungrudi.loanengine;
+
+/**
+ * Outcome of applying one payment, as reported by {@link LoanEngine#makePayments(PaymentBatch)} instead of an exception.
+ */
+public enum PaymentResult {
+    OK,
+    /**
+     * the next unpaid installment is for a week that has not started yet; later ones can only be prepaid along with a
+     * due one
+     */
+    NOT_DUE,
+    /**
+     * the amount is not positive, or what it leaves after the whole installments it pays is more than the accrued
+     * penalties
+     */
+    WRONG_AMOUNT,
+    /**
+     * every installment and accrued penalty is already paid
+     */
+    NO_MORE_DUE,
+    UNKNOWN_LOAN;
+
+    /**
+     * Throws the exception {@link Loan#makePayment(long, java.time.LocalDate)} reports this result with.
+     *
+     * @param week the installment the payment was for
+     */
+    void throwIfRejected(int week) {
+        switch (this) {
+            case NO_MORE_DUE:
+                throw new IllegalStateException("No more payments due");
+            case NOT_DUE:
+                throw new IllegalStateException("Payment is not yet due");
+            case WRONG_AMOUNT:
+                throw new IllegalArgumentException("Payment must be exact amount due for week " + week);
+            case UNKNOWN_LOAN:
+                throw new IllegalArgumentException("Loan not found");
+            default:
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package dev.bungrudi.loanengine;
+
+/**
+ * Late fees or penalty interest that loans accrue while they are behind, from their {@link LoanFactory}. Applied by
+ * {@link LoanEngine} and {@link ColumnarLoanEngine} at end of day, once for every day advanced over, to every loan that
+ * is {@link LoanStanding#LATE} or {@link LoanStanding#DELINQUENT}; the accrued amount adds to the loan's outstanding
+ * amount until paid, see {@link Loan#getPenaltyMinor()} and {@link Loan#makePayment(long, java.time.LocalDate)}.
+ * <p>
+ * The loans of a day are passed in bulk as primitive arrays, so an implementation can compute them in plain loops the
+ * JIT vectorizes. It must be deterministic: a persistent engine accrues the same penalties again when it replays end
+ * of day from its journal.
+ */
+@FunctionalInterface
+public interface PenaltyPolicy {
+    /**
+     * Computes the penalty each of the first {@code count} loans accrues for one day into {@code penaltyMinor}, from
+     * the amount it has past due and the days since its oldest unpaid installment was due, at least 1. Amounts are in
+     * minor units. Entries past {@code count} are to be left alone.
+     */
+    void accrue(long[] overdueMinor, int[] daysPastDue, long[] penaltyMinor, int count);
+}
@@ -0,0 +1,80 @@
+package dev.bungrudi.loanengine;
+
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Portfolio totals kept up to date by {@link LoanEngine} as loans are created, paid and re-evaluated, so they can be
+ * read in constant time from any thread without taking a lock. Each value is exact on its own; values read one after
+ * the other while payments are being applied may reflect slightly different moments.
+ */
+public class PortfolioAggregates {
+    private final AtomicLong totalOutstandingMinor = new AtomicLong();
+    private final AtomicLong totalOverdueMinor = new AtomicLong();
+    private final AtomicLongArray countByStanding = new AtomicLongArray(LoanStanding.values().length);
+
+    PortfolioAggregates() {
+    }
+
+    public long getTotalOutstandingMinor() {
+        return totalOutstandingMinor.get();
+    }
+
+    public BigDecimal getTotalOutstanding() {
+        return Money.toBigDecimal(totalOutstandingMinor.get());
+    }
+
+    /**
+     * Total of the installments past due, as of each loan's last evaluation.
+     */
+    public long getTotalOverdueMinor() {
+        return totalOverdueMinor.get();
+    }
+
+    public BigDecimal getTotalOverdue() {
+        return Money.toBigDecimal(totalOverdueMinor.get());
+    }
+
+    public long getLoanCount(LoanStanding standing) {
+        return countByStanding.get(standing.ordinal());
+    }
+
+    public Map<LoanStanding, Long> getLoanCounts() {
+        Map<LoanStanding, Long> counts = new EnumMap<>(LoanStanding.class);
+        for (LoanStanding standing : LoanStanding.values()) {
+            counts.put(standing, countByStanding.get(standing.ordinal()));
+        }
+        return counts;
+    }
+
+    void add(Loan loan) {
+        totalOutstandingMinor.addAndGet(loan.getOutstandingMinor());
+        totalOverdueMinor.addAndGet(loan.getOverdueMinor());
+        countByStanding.incrementAndGet(loan.getStanding().ordinal());
+    }
+
+    void remove(Loan loan) {
+        totalOutstandingMinor.addAndGet(-loan.getOutstandingMinor());
+        totalOverdueMinor.addAndGet(-loan.getOverdueMinor());
+        countByStanding.decrementAndGet(loan.getStanding().ordinal());
+    }
+
+    /**
+     * Applies the difference between the loan's state before a change and its current state.
+     */
+    void update(Loan loan, LoanStanding previousStanding, long previousOutstandingMinor, long previousOverdueMinor) {
+        if (loan.getOutstandingMinor() != previousOutstandingMinor) {
+            totalOutstandingMinor.addAndGet(loan.getOutstandingMinor() - previousOutstandingMinor);
+        }
+        if (loan.getOverdueMinor() != previousOverdueMinor) {
+            totalOverdueMinor.addAndGet(loan.getOverdueMinor() - previousOverdueMinor);
+        }
+        if (loan.getStanding() != previousStanding) {
+            countByStanding.decrementAndGet(previousStanding.ordinal());
+            countByStanding.incrementAndGet(loan.getStanding().ordinal());
+        }
+    }
+}
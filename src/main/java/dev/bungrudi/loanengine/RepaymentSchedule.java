@@ -0,0 +1,134 @@
+package dev.bungrudi.loanengine;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Compact weekly repayment schedule. Installments are all the same amount on a fixed 7-day cadence, so due dates and
+ * amounts are derived from the first due date and a {@link ScheduleTemplate}, shared by loans of the same product,
+ * instead of being stored. Per-installment state is a paid bitmap plus payment dates (as epoch days), the latter only
+ * allocated up to the last paid week. {@link PaymentDue} objects are created on demand by {@link #get(int)} and
+ * {@link #asList()}.
+ */
+public class RepaymentSchedule {
+    private static final int NOT_PAID = Integer.MIN_VALUE;
+
+    private final ScheduleTemplate template;
+    private final int firstDueEpochDay;
+    private final long[] paid;
+    private int[] paymentEpochDays;
+
+    public RepaymentSchedule(LocalDate firstDueDate, int numberOfWeeks, long installment) {
+        this(new ScheduleTemplate(numberOfWeeks, installment), firstDueDate);
+    }
+
+    public RepaymentSchedule(ScheduleTemplate template, LocalDate firstDueDate) {
+        this.template = template;
+        this.firstDueEpochDay = (int) firstDueDate.toEpochDay();
+        this.paid = new long[(template.getNumberOfWeeks() + 63) >>> 6];
+    }
+
+    public int size() {
+        return template.getNumberOfWeeks();
+    }
+
+    public ScheduleTemplate getTemplate() {
+        return template;
+    }
+
+    public LocalDate getFirstDueDate() {
+        return LocalDate.ofEpochDay(firstDueEpochDay);
+    }
+
+    public long getInstallment() {
+        return template.getInstallment();
+    }
+
+    public long getAmountDue(int week) {
+        checkWeek(week);
+        return template.getInstallment();
+    }
+
+    public LocalDate getDueDate(int week) {
+        checkWeek(week);
+        return LocalDate.ofEpochDay(firstDueEpochDay + 7L * week);
+    }
+
+    public boolean isPaid(int week) {
+        checkWeek(week);
+        return (paid[week >>> 6] & (1L << week)) != 0;
+    }
+
+    public LocalDate getPaymentDate(int week) {
+        if (!isPaid(week)) {
+            return null;
+        }
+        return LocalDate.ofEpochDay(paymentEpochDays[week]);
+    }
+
+    /**
+     * Payment dates of the paid weeks as epoch days, or null before the first payment. Entries of paid weeks are never
+     * written again and a longer array replaces this one when needed, so a reference taken now keeps the dates of the
+     * weeks paid so far.
+     */
+    int[] getPaymentEpochDays() {
+        return paymentEpochDays;
+    }
+
+    void markPaid(int week, LocalDate paymentDate) {
+        markPaid(week, 1, paymentDate);
+    }
+
+    /**
+     * Marks {@code count} weeks from {@code week} on as paid on the same date.
+     */
+    void markPaid(int week, int count, LocalDate paymentDate) {
+        int end = week + count;
+        checkWeek(week);
+        checkWeek(end - 1);
+        for (int w = week; w < end; w++) {
+            paid[w >>> 6] |= 1L << w;
+        }
+        if (paymentEpochDays == null) {
+            paymentEpochDays = new int[Math.min(template.getNumberOfWeeks(), Math.max(4, end))];
+            Arrays.fill(paymentEpochDays, NOT_PAID);
+        } else if (end > paymentEpochDays.length) {
+            int length = paymentEpochDays.length;
+            paymentEpochDays = Arrays.copyOf(paymentEpochDays, Math.min(template.getNumberOfWeeks(), Math.max(end, length * 2)));
+            Arrays.fill(paymentEpochDays, length, paymentEpochDays.length, NOT_PAID);
+        }
+        Arrays.fill(paymentEpochDays, week, end, (int) paymentDate.toEpochDay());
+    }
+
+    public PaymentDue get(int week) {
+        return new PaymentDue(week, getAmountDue(week), getDueDate(week), getPaymentDate(week));
+    }
+
+    /**
+     * Read-only view generating a {@link PaymentDue} per access, reflecting payments made after the view was taken.
+     */
+    public List<PaymentDue> asList() {
+        return new ScheduleView();
+    }
+
+    private void checkWeek(int week) {
+        if (week < 0 || week >= template.getNumberOfWeeks()) {
+            throw new IndexOutOfBoundsException("Week " + week + " outside schedule of " + template.getNumberOfWeeks() + " weeks");
+        }
+    }
+
+    private class ScheduleView extends AbstractList<PaymentDue> implements RandomAccess {
+        @Override
+        public PaymentDue get(int index) {
+            return RepaymentSchedule.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return template.getNumberOfWeeks();
+        }
+    }
+}
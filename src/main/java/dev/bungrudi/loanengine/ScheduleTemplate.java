@@ -0,0 +1,30 @@
+package dev.bungrudi.loanengine;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The part of a {@link RepaymentSchedule} shared by every loan of the same product: the term and the installment.
+ * Immutable, so one instance can back any number of schedules.
+ */
+@Getter
+@ToString
+public final class ScheduleTemplate {
+    private final int numberOfWeeks;
+    /**
+     * in minor units, see {@link Money}
+     */
+    private final long installment;
+
+    public ScheduleTemplate(int numberOfWeeks, long installment) {
+        this.numberOfWeeks = numberOfWeeks;
+        this.installment = installment;
+    }
+
+    /**
+     * Sum of all installments, in minor units.
+     */
+    public long getTotalAmountMinor() {
+        return installment * numberOfWeeks;
+    }
+}
@@ -0,0 +1,111 @@
+package dev.bungrudi.loanengine;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of {@link ScheduleTemplate}s by product: loan amount, annual interest rate and number of weeks.
+ * Amounts and rates are compared with {@link BigDecimal#equals}, so the same value at different scales is cached
+ * twice. Thread-safe; a template missing from the cache is computed outside the lock, so two threads missing the same
+ * product at the same time may both compute it.
+ */
+public class ScheduleTemplateCache {
+    private final Map<Key, ScheduleTemplate> templates;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ScheduleTemplateCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.templates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ScheduleTemplate> eldest) {
+                if (size() > maximumSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    ScheduleTemplate get(BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks, Supplier<ScheduleTemplate> compute) {
+        Key key = new Key(loanAmount, interestRate, numberOfWeeks);
+        ScheduleTemplate template;
+        synchronized (templates) {
+            template = templates.get(key);
+        }
+        if (template != null) {
+            hits.increment();
+            return template;
+        }
+        misses.increment();
+        template = compute.get();
+        synchronized (templates) {
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Share of lookups served from the cache, 0 before the first lookup.
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    public int size() {
+        synchronized (templates) {
+            return templates.size();
+        }
+    }
+
+    private static final class Key {
+        private final BigDecimal loanAmount;
+        private final BigDecimal interestRate;
+        private final int numberOfWeeks;
+        private final int hash;
+
+        Key(BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
+            this.loanAmount = loanAmount;
+            this.interestRate = interestRate;
+            this.numberOfWeeks = numberOfWeeks;
+            this.hash = Objects.hash(loanAmount, interestRate, numberOfWeeks);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return numberOfWeeks == other.numberOfWeeks && loanAmount.equals(other.loanAmount)
+                    && interestRate.equals(other.interestRate);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
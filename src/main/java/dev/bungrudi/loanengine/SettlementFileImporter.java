@@ -0,0 +1,197 @@
+package dev.bungrudi.loanengine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a settlement file into {@link LoanOperations#makePayments(PaymentBatch)} of either engine.
+ * <p>
+ * The calling thread reads the file through a fixed buffer and parses lines in place, amounts without creating
+ * a {@link String}. Parsed payments are handed over in batches through a bounded queue to an applier thread.
+ * When the engine falls behind, the queue fills up and reading blocks. Memory use stays constant whatever
+ * the file size, because only {@code queueCapacity + 2} batches ever exist.
+ */
+public class SettlementFileImporter {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    private static final long POLL_MILLIS = 100;
+
+    private final LoanOperations engine;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final int bufferSize;
+
+    public SettlementFileImporter(LoanOperations engine, int batchSize, int queueCapacity) {
+        this(engine, batchSize, queueCapacity, DEFAULT_BUFFER_SIZE);
+    }
+
+    SettlementFileImporter(LoanOperations engine, int batchSize, int queueCapacity, int bufferSize) {
+        this.engine = engine;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.bufferSize = bufferSize;
+    }
+
+    public ImportSummary importFile(Path file, SettlementFormat format) throws IOException {
+        long start = System.nanoTime();
+        BlockingQueue<PaymentBatch> full = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<PaymentBatch> empty = new ArrayBlockingQueue<>(queueCapacity + 2);
+        for (int i = 0; i < queueCapacity + 2; i++) {
+            empty.add(new PaymentBatch(batchSize));
+        }
+        Applier applier = new Applier(full, empty);
+        Thread applierThread = new Thread(applier, "settlement-applier");
+        applierThread.start();
+
+        LineParser parser = new LineParser(format);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+            byte[] bytes = buffer.array();
+            PaymentBatch batch = take(empty, applier);
+            boolean eof = false;
+            boolean skippingLongLine = false;
+            while (!eof) {
+                eof = channel.read(buffer) < 0;
+                int limit = buffer.position();
+                int lineStart = 0;
+                for (int i = 0; i < limit; i++) {
+                    if (bytes[i] != '\n') {
+                        continue;
+                    }
+                    if (skippingLongLine) {
+                        skippingLongLine = false;
+                    } else {
+                        parser.parse(bytes, lineStart, i, batch);
+                    }
+                    lineStart = i + 1;
+                    if (batch.size() == batchSize) {
+                        put(full, batch, applier);
+                        batch = take(empty, applier);
+                    }
+                }
+                if (eof && !skippingLongLine) {
+                    parser.parse(bytes, lineStart, limit, batch);
+                } else if (lineStart == 0 && limit == bytes.length) {
+                    // a line longer than the buffer is malformed; drop it up to its end
+                    if (!skippingLongLine) {
+                        parser.lines++;
+                        parser.malformed++;
+                        skippingLongLine = true;
+                    }
+                    lineStart = limit;
+                }
+                System.arraycopy(bytes, lineStart, bytes, 0, limit - lineStart);
+                buffer.position(limit - lineStart);
+            }
+            if (batch.size() > 0) {
+                put(full, batch, applier);
+            }
+            put(full, Applier.END, applier);
+            applierThread.join();
+        } catch (InterruptedException e) {
+            applierThread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Settlement import interrupted");
+        } finally {
+            if (applierThread.isAlive()) {
+                applierThread.interrupt();
+            }
+        }
+        applier.rethrowFailure();
+        return new ImportSummary(parser.lines, parser.malformed, applier.resultCounts, System.nanoTime() - start);
+    }
+
+    private static PaymentBatch take(BlockingQueue<PaymentBatch> queue, Applier applier) throws InterruptedException {
+        while (true) {
+            applier.rethrowFailure();
+            PaymentBatch batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (batch != null) {
+                return batch;
+            }
+        }
+    }
+
+    private static void put(BlockingQueue<PaymentBatch> queue, PaymentBatch batch, Applier applier) throws InterruptedException {
+        while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            applier.rethrowFailure();
+        }
+    }
+
+    private static class LineParser {
+        private final SettlementFormat format;
+        private final int[] fields = new int[4];
+        long lines;
+        long malformed;
+
+        LineParser(SettlementFormat format) {
+            this.format = format;
+        }
+
+        /**
+         * Adds the payment on the line to the batch, or counts the line as malformed. Blank lines are skipped.
+         */
+        void parse(byte[] bytes, int start, int end, PaymentBatch batch) {
+            if (end > start && bytes[end - 1] == '\r') {
+                end--;
+            }
+            if (end == start) {
+                return;
+            }
+            lines++;
+            if (!format.split(bytes, start, end, fields)) {
+                malformed++;
+                return;
+            }
+            long amount = SettlementFormat.parseAmount(bytes, fields[2], fields[3]);
+            if (amount == Money.INVALID) {
+                malformed++;
+                return;
+            }
+            batch.add(new String(bytes, fields[0], fields[1] - fields[0], StandardCharsets.UTF_8), amount);
+        }
+    }
+
+    private class Applier implements Runnable {
+        static final PaymentBatch END = new PaymentBatch(1);
+
+        private final BlockingQueue<PaymentBatch> full;
+        private final BlockingQueue<PaymentBatch> empty;
+        private final long[] resultCounts = new long[PaymentResult.values().length];
+        private volatile RuntimeException failure;
+
+        Applier(BlockingQueue<PaymentBatch> full, BlockingQueue<PaymentBatch> empty) {
+            this.full = full;
+            this.empty = empty;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (PaymentBatch batch = full.take(); batch != END; batch = full.take()) {
+                    for (PaymentResult result : engine.makePayments(batch)) {
+                        resultCounts[result.ordinal()]++;
+                    }
+                    batch.clear();
+                    empty.put(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        void rethrowFailure() {
+            if (failure != null) {
+                throw new IllegalStateException("Applying settlement payments failed", failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package dev.bungrudi.loanengine;
+
+/**
+ * Layout of one payment line in a settlement file: the loan id and the amount, read straight from the bytes of the line.
+ * Loan ids are UTF-8. Amounts are decimal numbers with at least one digit and at most {@link Money#SCALE} fraction
+ * digits.
+ */
+public abstract class SettlementFormat {
+
+    /**
+     * {@code loanId,amount} lines. Surrounding spaces are ignored.
+     */
+    public static SettlementFormat csv() {
+        return new Delimited((byte) ',');
+    }
+
+    /**
+     * Lines with the loan id in the first {@code idWidth} bytes and the amount in the next {@code amountWidth}, both
+     * padded with spaces.
+     */
+    public static SettlementFormat fixedWidth(int idWidth, int amountWidth) {
+        return new FixedWidth(idWidth, amountWidth);
+    }
+
+    /**
+     * Splits a line into its fields.
+     *
+     * @param fields receives the id start, id end, amount start and amount end offsets
+     * @return false if the line does not have the expected layout
+     */
+    abstract boolean split(byte[] line, int start, int end, int[] fields);
+
+    /**
+     * Parses a decimal amount into minor units without going through a {@link String}.
+     *
+     * @return {@link Money#INVALID} if the bytes are not a well-formed non-negative amount
+     */
+    static long parseAmount(byte[] line, int start, int end) {
+        long minor = 0;
+        int fractionDigits = -1;
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            byte b = line[i];
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9' && fractionDigits < Money.SCALE) {
+                if (minor > (Long.MAX_VALUE - 9) / 10) {
+                    return Money.INVALID;
+                }
+                minor = minor * 10 + (b - '0');
+                digits = true;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                return Money.INVALID;
+            }
+        }
+        if (!digits) {
+            return Money.INVALID;
+        }
+        for (int i = Math.max(fractionDigits, 0); i < Money.SCALE; i++) {
+            if (minor > Long.MAX_VALUE / 10) {
+                return Money.INVALID;
+            }
+            minor *= 10;
+        }
+        return minor;
+    }
+
+    private static int trimStart(byte[] line, int start, int end) {
+        while (start < end && line[start] == ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] line, int start, int end) {
+        while (end > start && line[end - 1] == ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static class Delimited extends SettlementFormat {
+        private final byte delimiter;
+
+        Delimited(byte delimiter) {
+            this.delimiter = delimiter;
+        }
+
+        @Override
+        boolean split(byte[] line, int start, int end, int[] fields) {
+            int separator = -1;
+            for (int i = start; i < end; i++) {
+                if (line[i] == delimiter) {
+                    if (separator >= 0) {
+                        return false;
+                    }
+                    separator = i;
+                }
+            }
+            if (separator < 0) {
+                return false;
+            }
+            fields[0] = trimStart(line, start, separator);
+            fields[1] = trimEnd(line, fields[0], separator);
+            fields[2] = trimStart(line, separator + 1, end);
+            fields[3] = trimEnd(line, fields[2], end);
+            return fields[1] > fields[0];
+        }
+    }
+
+    private static class FixedWidth extends SettlementFormat {
+        private final int idWidth;
+        private final int amountWidth;
+
+        FixedWidth(int idWidth, int amountWidth) {
+            this.idWidth = idWidth;
+            this.amountWidth = amountWidth;
+        }
+
+        @Override
+        boolean split(byte[] line, int start, int end, int[] fields) {
+            if (end - start != idWidth + amountWidth) {
+                return false;
+            }
+            int amountStart = start + idWidth;
+            fields[0] = trimStart(line, start, amountStart);
+            fields[1] = trimEnd(line, fields[0], amountStart);
+            fields[2] = trimStart(line, amountStart, end);
+            fields[3] = trimEnd(line, fields[2], end);
+            return fields[1] > fields[0];
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package dev.bungrudi.loanengine;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDate;
+
+/**
+ * A change of standing made by end of day: the loan moved from one standing to another on the given date.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public final class StandingTransition {
+    private final String loanId;
+    private final LocalDate date;
+    private final LoanStanding from;
+    private final LoanStanding to;
+
+    public StandingTransition(String loanId, LocalDate date, LoanStanding from, LoanStanding to) {
+        this.loanId = loanId;
+        this.date = date;
+        this.from = from;
+        this.to = to;
+    }
+}
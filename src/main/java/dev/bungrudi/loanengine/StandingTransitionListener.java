@@ -0,0 +1,10 @@
+package dev.bungrudi.loanengine;
+
+/**
+ * Receives the standing changes made by {@link LoanEngine#endOfDay()} and {@link LoanEngine#advanceTo}, in date
+ * order, on the thread that advanced the date and after the new date is published.
+ */
+@FunctionalInterface
+public interface StandingTransitionListener {
+    void onTransition(StandingTransition transition);
+}
@@ -0,0 +1,194 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarLoanEngineTest {
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+
+    private LoanFactory loanFactory;
+    private LoanEngine heap;
+    private ColumnarLoanEngine columnar;
+
+    @BeforeEach
+    void setUp() {
+        loanFactory = new ConsumptiveWeeklyLoanFactory();
+        heap = new LoanEngine(START_DATE, loanFactory);
+        columnar = new ColumnarLoanEngine(START_DATE, loanFactory);
+    }
+
+    @Test
+    void given_randomWorkload_when_runOnBothEngines_then_columnarBookMatchesHeapBook() {
+        Random random = new Random(7);
+        int loanCount = 300;
+        for (int i = 0; i < loanCount; i++) {
+            createOnBoth("L" + i, BigDecimal.valueOf(random.nextInt(9_000_000) + 1_000_000), 4 + random.nextInt(30));
+        }
+
+        for (int day = 0; day < 250; day++) {
+            for (int i = 0; i < 60; i++) {
+                String loanId = "L" + random.nextInt(loanCount + 5);
+                // now and then several installments at once, catching up or prepaying
+                long amount = random.nextInt(8) == 0 ? 1 : weeklyPayment(loanId) * (random.nextInt(4) == 0 ? 1 + random.nextInt(4) : 1);
+                assertSameOutcome(loanId, amount);
+            }
+            PaymentBatch batch = new PaymentBatch(8).add(null, 100);
+            for (int i = 0; i < 20; i++) {
+                // some loans several times, so entries are grouped per loan
+                String loanId = "L" + random.nextInt(i % 2 == 0 ? 10 : loanCount + 5);
+                batch.add(loanId, weeklyPayment(loanId));
+            }
+            assertArrayEquals(heap.makePayments(batch), columnar.makePayments(batch));
+            if (day % 40 == 0) {
+                createOnBoth("L" + random.nextInt(loanCount), BigDecimal.valueOf(2_500_000), 6);
+            }
+
+            EndOfDaySummary expected = heap.endOfDay();
+            EndOfDaySummary actual = columnar.endOfDay();
+            assertEquals(expected.getDate(), actual.getDate());
+            assertEquals(expected.getEvaluatedCount(), actual.getEvaluatedCount(), "evaluated on " + actual.getDate());
+            assertEquals(expected.getStandingCounts(), actual.getStandingCounts());
+            assertEquals(new HashSet<>(expected.getNewlyDelinquent()), new HashSet<>(actual.getNewlyDelinquent()));
+        }
+
+        assertEquals(heap.getCurrentDate(), columnar.getCurrentDate());
+        for (int i = 0; i < loanCount; i++) {
+            assertSameLoan(heap.getLoan("L" + i), columnar.getLoan("L" + i));
+            assertEquals(heap.getOutstanding("L" + i), columnar.getOutstanding("L" + i));
+            assertEquals(heap.isDelinquent("L" + i), columnar.isDelinquent("L" + i));
+        }
+    }
+
+    @Test
+    void given_penaltyPolicy_when_runOnBothEngines_then_samePenaltiesAccrueAndArePaid() {
+        LoanFactory penalizing = new ConsumptiveWeeklyLoanFactory(null,
+                new DailyPenaltyPolicy(BigDecimal.valueOf(500), new BigDecimal("0.001")));
+        heap = new LoanEngine(START_DATE, penalizing);
+        columnar = new ColumnarLoanEngine(START_DATE, penalizing);
+        Random random = new Random(11);
+        int loanCount = 100;
+        for (int i = 0; i < loanCount; i++) {
+            createOnBoth("L" + i, BigDecimal.valueOf(random.nextInt(9_000_000) + 1_000_000), 4 + random.nextInt(20));
+        }
+
+        for (int day = 0; day < 150; day++) {
+            for (int i = 0; i < 20; i++) {
+                String loanId = "L" + random.nextInt(loanCount);
+                long penalty = heap.getLoan(loanId).getPenaltyMinor();
+                // installments, with part of the penalty now and then
+                long amount = weeklyPayment(loanId) * random.nextInt(3)
+                        + (penalty > 0 && random.nextBoolean() ? 1 + random.nextInt((int) Math.min(penalty, 1_000_000)) : 0);
+                assertSameOutcome(loanId, amount);
+            }
+            heap.endOfDay();
+            columnar.endOfDay();
+        }
+
+        long totalPenalty = 0;
+        for (int i = 0; i < loanCount; i++) {
+            assertSameLoan(heap.getLoan("L" + i), columnar.getLoan("L" + i));
+            assertEquals(heap.getOutstanding("L" + i), columnar.getOutstanding("L" + i));
+            totalPenalty += heap.getLoan("L" + i).getPenaltyMinor();
+        }
+        assertTrue(totalPenalty > 0);
+    }
+
+    @Test
+    void given_bookSpanningSeveralPages_when_lookingUpLoans_then_everyLoanIsFound() {
+        int loanCount = LoanColumns.PAGE_SIZE * 2 + 100;
+        for (int i = 0; i < loanCount; i++) {
+            columnar.createLoan(i % 1000 == 0 ? "Łoan-" + i : "L" + i, BigDecimal.valueOf(1_000_000 + i), BigDecimal.valueOf(0.1), 4 + i % 50);
+        }
+
+        for (int i = 0; i < loanCount; i++) {
+            String loanId = i % 1000 == 0 ? "Łoan-" + i : "L" + i;
+            Loan loan = columnar.getLoan(loanId);
+            assertEquals(loanId, loan.getLoanId());
+            assertEquals(0, BigDecimal.valueOf(1_000_000 + i).compareTo(loan.getLoanAmount()));
+            assertEquals(4 + i % 50, loan.getNumberOfWeeks());
+        }
+        assertThrows(IllegalArgumentException.class, () -> columnar.getLoan("L" + loanCount));
+        assertTrue(columnar.getOffHeapBytes() > 0);
+    }
+
+    @Test
+    void given_nullLoanId_when_lookedUp_then_loanNotFound() {
+        columnar.createLoan("L1", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+
+        assertEquals("Loan not found", assertThrows(IllegalArgumentException.class,
+                () -> columnar.makePayment(null, BigDecimal.ONE)).getMessage());
+        assertEquals("Loan not found", assertThrows(IllegalArgumentException.class,
+                () -> columnar.getOutstanding(null)).getMessage());
+        assertEquals("Loan not found", assertThrows(IllegalArgumentException.class,
+                () -> columnar.isDelinquent(null)).getMessage());
+        assertEquals("Loan not found", assertThrows(IllegalArgumentException.class,
+                () -> columnar.getLoan(null)).getMessage());
+    }
+
+    @Test
+    void given_detachedLoan_when_changed_then_bookIsUnaffected() {
+        Loan loan = columnar.createLoan("L1", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        columnar.endOfDay();
+        for (int i = 0; i < 7; i++) {
+            columnar.endOfDay();
+        }
+
+        loan.makePayment(loan.getWeeklyPaymentMinor(), columnar.getCurrentDate());
+
+        assertEquals(loan.getTotalAmount(), columnar.getOutstanding("L1"));
+        assertEquals(0, columnar.getLoan("L1").getPaidCount());
+    }
+
+    private void createOnBoth(String loanId, BigDecimal loanAmount, int numberOfWeeks) {
+        Loan expected = heap.createLoan(loanId, loanAmount, BigDecimal.valueOf(0.1), numberOfWeeks);
+        Loan actual = columnar.createLoan(loanId, loanAmount, BigDecimal.valueOf(0.1), numberOfWeeks);
+        assertSameLoan(expected, actual);
+    }
+
+    private long weeklyPayment(String loanId) {
+        try {
+            return heap.getLoan(loanId).getWeeklyPaymentMinor();
+        } catch (IllegalArgumentException e) {
+            return 100;
+        }
+    }
+
+    private void assertSameOutcome(String loanId, long amountMinor) {
+        RuntimeException expected = null;
+        try {
+            heap.makePayment(loanId, amountMinor);
+        } catch (RuntimeException e) {
+            expected = e;
+        }
+        if (expected == null) {
+            columnar.makePayment(loanId, amountMinor);
+        } else {
+            RuntimeException actual = assertThrows(expected.getClass(), () -> columnar.makePayment(loanId, amountMinor));
+            assertEquals(expected.getMessage(), actual.getMessage());
+        }
+    }
+
+    private static void assertSameLoan(Loan expected, Loan actual) {
+        String loanId = expected.getLoanId();
+        assertEquals(loanId, actual.getLoanId());
+        assertEquals(expected.getLoanAmount(), actual.getLoanAmount(), loanId);
+        assertEquals(expected.getInterestRate(), actual.getInterestRate(), loanId);
+        assertEquals(expected.getTotalAmountMinor(), actual.getTotalAmountMinor(), loanId);
+        assertEquals(expected.getWeeklyPaymentMinor(), actual.getWeeklyPaymentMinor(), loanId);
+        assertEquals(expected.getNumberOfWeeks(), actual.getNumberOfWeeks(), loanId);
+        assertEquals(expected.getStartDate(), actual.getStartDate(), loanId);
+        assertEquals(expected.getOutstandingMinor(), actual.getOutstandingMinor(), loanId);
+        assertEquals(expected.getPenaltyMinor(), actual.getPenaltyMinor(), loanId);
+        assertEquals(expected.getPaidCount(), actual.getPaidCount(), loanId);
+        assertEquals(expected.getOverdueMinor(), actual.getOverdueMinor(), loanId);
+        assertEquals(expected.getStanding(), actual.getStanding(), loanId);
+        assertEquals(expected.getSchedule().toString(), actual.getSchedule().toString(), loanId);
+    }
+}
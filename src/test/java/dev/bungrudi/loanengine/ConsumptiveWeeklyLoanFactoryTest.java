@@ -147,4 +147,44 @@ class ConsumptiveWeeklyLoanFactoryTest {
         assertEquals(0, expectedTotal.compareTo(loan.getOutstanding()));
         assertEquals(0, expectedWeeklyPayment.compareTo(loan.getWeeklyPayment()));
     }
+
+    @Test
+    void given_templateCache_when_createLoan_then_sameTermsAsWithoutCache() {
+        ScheduleTemplateCache cache = new ScheduleTemplateCache(8);
+        ConsumptiveWeeklyLoanFactory cached = new ConsumptiveWeeklyLoanFactory(cache);
+
+        for (int i = 0; i < 200; i++) {
+            BigDecimal loanAmount = BigDecimal.valueOf(1_000_000 + (i % 5) * 250_000);
+            BigDecimal interestRate = BigDecimal.valueOf(0.05 + (i % 3) * 0.05);
+            int numberOfWeeks = 4 + i % 7;
+            Loan expected = factory.createLoan("L" + i, loanAmount, interestRate, numberOfWeeks, startDate.plusDays(i));
+            Loan actual = cached.createLoan("L" + i, loanAmount, interestRate, numberOfWeeks, startDate.plusDays(i));
+
+            assertEquals(expected.getTotalAmountMinor(), actual.getTotalAmountMinor());
+            assertEquals(expected.getWeeklyPaymentMinor(), actual.getWeeklyPaymentMinor());
+            assertEquals(expected.getSchedule().toString(), actual.getSchedule().toString());
+        }
+        assertEquals(200, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(8, cache.size());
+    }
+
+    @Test
+    void given_sameProduct_when_createLoan_then_templateIsSharedAndCountedAsHit() {
+        ScheduleTemplateCache cache = new ScheduleTemplateCache(16);
+        ConsumptiveWeeklyLoanFactory cached = new ConsumptiveWeeklyLoanFactory(cache);
+
+        Loan first = cached.createLoan("L1", LOAN_AMOUNT, BigDecimal.valueOf(0.1), 10, startDate);
+        Loan second = cached.createLoan("L2", LOAN_AMOUNT, BigDecimal.valueOf(0.1), 10, startDate.plusDays(3));
+        Loan other = cached.createLoan("L3", LOAN_AMOUNT, BigDecimal.valueOf(0.1), 12, startDate);
+        second.makePayment(second.getWeeklyPaymentMinor(), startDate.plusDays(11));
+
+        assertSame(first.getRepaymentSchedule().getTemplate(), second.getRepaymentSchedule().getTemplate());
+        assertNotSame(first.getRepaymentSchedule().getTemplate(), other.getRepaymentSchedule().getTemplate());
+        assertFalse(first.getRepaymentSchedule().isPaid(0));
+        assertEquals(startDate.plusDays(10), second.getSchedule().get(0).getDueDate());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+    }
 }
@@ -0,0 +1,42 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void given_anyValue_when_bucketed_then_bucketRangeHoldsIt() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() & Long.MAX_VALUE) >>> random.nextInt(63);
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.lowestValueOf(bucket) <= value, "value " + value);
+            assertTrue(LatencyHistogram.highestValueOf(bucket) >= value, "value " + value);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void given_uniformLatencies_when_readingPercentiles_then_withinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 1_000_000; nanos++) {
+            histogram.record(nanos);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1_000_000, snapshot.getCount());
+        assertEquals(1_000_000, snapshot.getMaxNanos());
+        assertEquals(500_000.5, snapshot.getMeanNanos(), 1e-6);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            double expected = percentile * 10_000;
+            assertEquals(expected, snapshot.getValueAtPercentile(percentile), expected / 32, "p" + percentile);
+        }
+        assertEquals(1_000_000, snapshot.getValueAtPercentile(100));
+        assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,311 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoanEngineClusterTest {
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+
+    private LoanFactory loanFactory;
+    private LoanEngine single;
+    private LoanEngineCluster cluster;
+
+    @BeforeEach
+    void setUp() {
+        loanFactory = new ConsumptiveWeeklyLoanFactory();
+        single = new LoanEngine(START_DATE, loanFactory);
+        cluster = new LoanEngineCluster(List.of(shard("s1"), shard("s2"), shard("s3")));
+    }
+
+    @Test
+    void given_randomWorkload_when_runOnClusterAndSingleEngine_then_sameBook() {
+        Random random = new Random(11);
+        int loanCount = 300;
+        for (int i = 0; i < loanCount; i++) {
+            createOnBoth("L" + i, BigDecimal.valueOf(random.nextInt(9_000_000) + 1_000_000), 4 + random.nextInt(30));
+        }
+
+        for (int day = 0; day < 200; day++) {
+            runDay(random, loanCount, day);
+        }
+
+        assertSameBook(loanCount);
+        assertEquals(loanCount, clusterLoanCount());
+    }
+
+    @Test
+    void given_shardsAddedAndRemoved_when_workloadContinues_then_noLoansLostAndSameBook() {
+        Random random = new Random(5);
+        int loanCount = 400;
+        for (int i = 0; i < loanCount; i++) {
+            createOnBoth("L" + i, BigDecimal.valueOf(random.nextInt(9_000_000) + 1_000_000), 4 + random.nextInt(30));
+        }
+
+        for (int day = 0; day < 150; day++) {
+            if (day == 30) {
+                LoanShard added = shard("s4");
+                int moved = cluster.addShard(added);
+                assertTrue(moved > 0 && moved < loanCount / 2, "moved " + moved);
+                assertEquals(moved, loanIds(added).size());
+            }
+            if (day == 80) {
+                cluster.removeShard("s2");
+                cluster.addShard(shard("s5"));
+            }
+            if (day == 90) {
+                assertEquals(loanCount, clusterLoanCount());
+                assertSameBook(loanCount);
+            }
+            runDay(random, loanCount, day);
+        }
+
+        assertEquals(List.of("s1", "s3", "s4", "s5"), shardIds());
+        assertEquals(loanCount, clusterLoanCount());
+        assertSameBook(loanCount);
+        for (int i = 0; i < loanCount; i++) {
+            assertTrue(hasLoan(cluster.getShard("L" + i), "L" + i));
+        }
+    }
+
+    @Test
+    void given_invalidTopologyChanges_when_applied_then_rejected() {
+        LoanEngine ahead = new LoanEngine(START_DATE.plusDays(1), loanFactory);
+
+        assertThrows(IllegalArgumentException.class, () -> cluster.addShard(new LocalLoanShard("s4", ahead)));
+        assertThrows(IllegalArgumentException.class, () -> cluster.addShard(shard("s1")));
+        assertThrows(IllegalArgumentException.class, () -> cluster.removeShard("missing"));
+        cluster.removeShard("s1");
+        cluster.removeShard("s2");
+        assertThrows(IllegalStateException.class, () -> cluster.removeShard("s3"));
+        assertEquals(List.of("s3"), shardIds());
+    }
+
+    @Test
+    void given_newShardHoldingAnIncomingId_when_added_then_rejectedBeforeAnyLoanMoves() {
+        int loanCount = 100;
+        for (int i = 0; i < loanCount; i++) {
+            createOnBoth("L" + i, BigDecimal.valueOf(1_000_000 + i), 10);
+        }
+        ConsistentHashRing withNewShard = new ConsistentHashRing(List.of("s1", "s2", "s3", "s4"));
+        String incoming = "L0";
+        for (int i = 0; withNewShard.ownerOf(incoming) != 3; i++) {
+            incoming = "L" + i;
+        }
+        LoanShard added = shard("s4");
+        added.createLoan(incoming, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+
+        assertThrows(IllegalStateException.class, () -> cluster.addShard(added));
+
+        assertEquals(List.of("s1", "s2", "s3"), shardIds());
+        assertEquals(Set.of(incoming), loanIds(added));
+        assertEquals(loanCount, clusterLoanCount());
+        assertSameBook(loanCount);
+    }
+
+    @Test
+    void given_addLoansFailing_when_shardRemoved_then_movedLoansAreRestoredToTheirShards() {
+        Random random = new Random(3);
+        int loanCount = 300;
+        for (int i = 0; i < loanCount; i++) {
+            createOnBoth("L" + i, BigDecimal.valueOf(random.nextInt(9_000_000) + 1_000_000), 4 + random.nextInt(30));
+        }
+        for (int day = 0; day < 20; day++) {
+            runDay(random, loanCount, day);
+        }
+        boolean[] failing = new boolean[1];
+        cluster.addShard(new LocalLoanShard("s4", new LoanEngine(single.getCurrentDate(), loanFactory)) {
+            @Override
+            public void addLoans(Collection<LoanRecord> loans) {
+                if (failing[0]) {
+                    throw new UncheckedIOException(new IOException("Disk full"));
+                }
+                super.addLoans(loans);
+            }
+        });
+        failing[0] = true;
+
+        // s2's loans go to s1 and s3 before s4 fails
+        assertThrows(UncheckedIOException.class, () -> cluster.removeShard("s2"));
+
+        assertEquals(List.of("s1", "s2", "s3", "s4"), shardIds());
+        assertEquals(loanCount, clusterLoanCount());
+        for (int i = 0; i < loanCount; i++) {
+            assertTrue(hasLoan(cluster.getShard("L" + i), "L" + i));
+        }
+        failing[0] = false;
+        for (int day = 20; day < 40; day++) {
+            runDay(random, loanCount, day);
+        }
+        assertSameBook(loanCount);
+    }
+
+    @Test
+    void given_ring_when_askedForRangesNotOwnedByShard_then_theyHoldExactlyTheIdsOfOtherShards() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("s1", "s2", "s3"));
+        for (int shard = -1; shard < 3; shard++) {
+            HashRanges ranges = ring.rangesNotOwnedBy(shard);
+            for (int i = 0; i < 20_000; i++) {
+                assertEquals(ring.ownerOf("L" + i) != shard, ranges.contains("L" + i), "L" + i + " on " + shard);
+            }
+        }
+    }
+
+    @Test
+    void given_nullLoanIdInBatch_when_makePayments_then_unknownLoan() {
+        createOnBoth("L1", BigDecimal.valueOf(1_000_000), 10);
+        PaymentBatch batch = new PaymentBatch().add(null, 100).add("L1", 100);
+
+        assertArrayEquals(single.makePayments(batch), cluster.makePayments(batch));
+        assertEquals(PaymentResult.UNKNOWN_LOAN, cluster.makePayments(batch)[0]);
+    }
+
+    @Test
+    void given_shardAdded_when_routing_then_onlyKeysOfNewShardMove() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("s1", "s2", "s3", "s4"));
+        ConsistentHashRing after = new ConsistentHashRing(List.of("s1", "s2", "s3", "s4", "s5"));
+        int keys = 100_000;
+        int moved = 0;
+        int[] owned = new int[5];
+        for (int i = 0; i < keys; i++) {
+            int owner = after.ownerOf("L" + i);
+            owned[owner]++;
+            if (owner != before.ownerOf("L" + i)) {
+                assertEquals(4, owner, "a key moved between old shards");
+                moved++;
+            }
+        }
+
+        assertTrue(moved > keys / 5 * 0.8 && moved < keys / 5 * 1.2, "moved " + moved);
+        for (int count : owned) {
+            assertTrue(count > keys / 5 * 0.8 && count < keys / 5 * 1.2, "owned " + count);
+        }
+    }
+
+    private LoanShard shard(String shardId) {
+        return new LocalLoanShard(shardId, new LoanEngine(single.getCurrentDate(), loanFactory));
+    }
+
+    private void runDay(Random random, int loanCount, int day) {
+        for (int i = 0; i < 40; i++) {
+            String loanId = "L" + random.nextInt(loanCount + 5);
+            long amount = random.nextInt(8) == 0 ? 1 : weeklyPayment(loanId);
+            assertSameOutcome(loanId, amount);
+        }
+        PaymentBatch batch = new PaymentBatch(8);
+        for (int i = 0; i < 30; i++) {
+            String loanId = "L" + random.nextInt(loanCount + 5);
+            batch.add(loanId, weeklyPayment(loanId));
+        }
+        assertArrayEquals(single.makePayments(batch), cluster.makePayments(batch));
+        if (day % 40 == 0) {
+            createOnBoth("L" + random.nextInt(loanCount), BigDecimal.valueOf(2_500_000), 6);
+        }
+
+        EndOfDaySummary expected = single.endOfDay();
+        EndOfDaySummary actual = cluster.endOfDay();
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getEvaluatedCount(), actual.getEvaluatedCount(), "evaluated on " + actual.getDate());
+        assertEquals(expected.getStandingCounts(), actual.getStandingCounts());
+        assertEquals(new HashSet<>(expected.getNewlyDelinquent()), new HashSet<>(actual.getNewlyDelinquent()));
+        assertEquals(single.getCurrentDate(), cluster.getCurrentDate());
+    }
+
+    private void assertSameBook(int loanCount) {
+        for (int i = 0; i < loanCount; i++) {
+            String loanId = "L" + i;
+            Loan expected = single.getLoan(loanId);
+            Loan actual = cluster.getLoan(loanId);
+            assertEquals(expected.getOutstandingMinor(), actual.getOutstandingMinor(), loanId);
+            assertEquals(expected.getPaidCount(), actual.getPaidCount(), loanId);
+            assertEquals(expected.getStanding(), actual.getStanding(), loanId);
+            assertEquals(expected.getSchedule().toString(), actual.getSchedule().toString(), loanId);
+            assertEquals(single.getOutstanding(loanId), cluster.getOutstanding(loanId));
+            assertEquals(single.isDelinquent(loanId), cluster.isDelinquent(loanId));
+        }
+        for (LoanStanding standing : LoanStanding.values()) {
+            Set<String> loanIds = new HashSet<>();
+            for (LoanShard shard : cluster.getShards()) {
+                loanIds.addAll(((LocalLoanShard) shard).getEngine().getLoanIds(standing));
+            }
+            assertEquals(single.getLoanIds(standing), loanIds, standing.name());
+        }
+    }
+
+    private int clusterLoanCount() {
+        Set<String> loanIds = new HashSet<>();
+        int count = 0;
+        for (LoanShard shard : cluster.getShards()) {
+            Set<String> ids = loanIds(shard);
+            loanIds.addAll(ids);
+            count += ids.size();
+        }
+        assertEquals(loanIds.size(), count, "a loan is on more than one shard");
+        return count;
+    }
+
+    private static Set<String> loanIds(LoanShard shard) {
+        Set<String> loanIds = new HashSet<>();
+        for (LoanStanding standing : LoanStanding.values()) {
+            loanIds.addAll(((LocalLoanShard) shard).getEngine().getLoanIds(standing));
+        }
+        return loanIds;
+    }
+
+    private List<String> shardIds() {
+        List<String> ids = new ArrayList<>();
+        cluster.getShards().forEach(shard -> ids.add(shard.getShardId()));
+        return ids;
+    }
+
+    private static boolean hasLoan(LoanShard shard, String loanId) {
+        try {
+            shard.getLoan(loanId);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void createOnBoth(String loanId, BigDecimal loanAmount, int numberOfWeeks) {
+        Loan expected = single.createLoan(loanId, loanAmount, BigDecimal.valueOf(0.1), numberOfWeeks);
+        Loan actual = cluster.createLoan(loanId, loanAmount, BigDecimal.valueOf(0.1), numberOfWeeks);
+        assertEquals(expected.getTotalAmountMinor(), actual.getTotalAmountMinor(), loanId);
+        assertEquals(expected.getSchedule().toString(), actual.getSchedule().toString(), loanId);
+    }
+
+    private long weeklyPayment(String loanId) {
+        try {
+            return single.getLoan(loanId).getWeeklyPaymentMinor();
+        } catch (IllegalArgumentException e) {
+            return 100;
+        }
+    }
+
+    private void assertSameOutcome(String loanId, long amountMinor) {
+        RuntimeException expected = null;
+        try {
+            single.makePayment(loanId, amountMinor);
+        } catch (RuntimeException e) {
+            expected = e;
+        }
+        if (expected == null) {
+            cluster.makePayment(loanId, amountMinor);
+        } else {
+            RuntimeException actual = assertThrows(expected.getClass(), () -> cluster.makePayment(loanId, amountMinor));
+            assertEquals(expected.getMessage(), actual.getMessage());
+        }
+    }
+}
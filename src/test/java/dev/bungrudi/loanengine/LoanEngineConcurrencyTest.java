@@ -0,0 +1,108 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoanEngineConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int LOANS_PER_THREAD = 200;
+    private static final int DAYS = 120;
+
+    @Test
+    void given_manyThreads_when_creatingPayingAndEndingDays_then_balancesAndStandingsAreConsistent() throws Exception {
+        LocalDate startDate = LocalDate.of(2023, 3, 1);
+        LoanEngine engine = new LoanEngine(startDate, new ConsumptiveWeeklyLoanFactory());
+        Map<String, AtomicInteger> acceptedPayments = new ConcurrentHashMap<>();
+        List<String> loanIds = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < LOANS_PER_THREAD; i++) {
+                loanIds.add("T" + t + "-L" + i);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 2);
+        CountDownLatch created = new CountDownLatch(THREADS);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            workers.add(executor.submit(() -> {
+                for (int i = 0; i < LOANS_PER_THREAD; i++) {
+                    String loanId = "T" + thread + "-L" + i;
+                    engine.createLoan(loanId, BigDecimal.valueOf(1_000_000 + i), BigDecimal.valueOf(0.1), 10 + i % 20);
+                    acceptedPayments.put(loanId, new AtomicInteger());
+                }
+                created.countDown();
+                created.await();
+                Random random = new Random(thread);
+                while (running.get()) {
+                    // every thread pays into every other thread's loans too
+                    String loanId = loanIds.get(random.nextInt(loanIds.size()));
+                    try {
+                        engine.makePayment(loanId, engine.getLoan(loanId).getWeeklyPayment());
+                        acceptedPayments.get(loanId).incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        // not yet due or fully paid
+                    }
+                }
+                return null;
+            }));
+        }
+        workers.add(executor.submit(() -> {
+            Random random = new Random();
+            while (running.get()) {
+                String loanId = loanIds.get(random.nextInt(loanIds.size()));
+                try {
+                    Loan loan = engine.getLoan(loanId);
+                    BigDecimal outstanding = engine.getOutstanding(loanId);
+                    assertEquals(0, outstanding.remainder(loan.getWeeklyPayment()).signum());
+                    engine.isDelinquent(loanId);
+                } catch (IllegalArgumentException e) {
+                    // not created yet
+                }
+            }
+            return null;
+        }));
+
+        created.await();
+        for (int day = 0; day < DAYS; day++) {
+            engine.endOfDay();
+            Thread.sleep(1);
+        }
+        running.set(false);
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(startDate.plusDays(DAYS), engine.getCurrentDate());
+        for (String loanId : loanIds) {
+            Loan loan = engine.getLoan(loanId);
+            int paid = acceptedPayments.get(loanId).get();
+            assertEquals(paid, loan.getPaidCount());
+            BigDecimal expectedOutstanding = loan.getTotalAmount().subtract(loan.getWeeklyPayment().multiply(BigDecimal.valueOf(paid)));
+            assertEquals(0, expectedOutstanding.compareTo(engine.getOutstanding(loanId)), loanId);
+
+            LoanStanding standing = loan.getStanding();
+            loan.updateStatus(engine.getCurrentDate());
+            assertEquals(loan.getStanding(), standing, loanId);
+        }
+    }
+}
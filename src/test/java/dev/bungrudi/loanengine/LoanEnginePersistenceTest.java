@@ -0,0 +1,363 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public class LoanEnginePersistenceTest {
+
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+    private static final int REGION_SIZE = 512;
+
+    @TempDir
+    Path directory;
+
+    private final LoanFactory loanFactory = new ConsumptiveWeeklyLoanFactory();
+
+    @Test
+    void given_templateCache_when_reopened_then_restoredLoansShareTemplatesWithNewLoans() throws IOException {
+        LoanFactory cachingFactory = new ConsumptiveWeeklyLoanFactory(new ScheduleTemplateCache(16));
+        try (LoanEngine engine = LoanEngine.open(directory, START_DATE, cachingFactory, REGION_SIZE, true)) {
+            engine.createLoan("L1", BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), 50);
+            engine.createLoan("L2", BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), 50);
+            engine.snapshot();
+        }
+
+        ScheduleTemplateCache templateCache = new ScheduleTemplateCache(16);
+        LoanFactory reopenedFactory = new ConsumptiveWeeklyLoanFactory(templateCache);
+        try (LoanEngine reopened = LoanEngine.open(directory, START_DATE, reopenedFactory, REGION_SIZE, true)) {
+            Loan created = reopened.createLoan("L3", BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), 50);
+
+            ScheduleTemplate template = created.getRepaymentSchedule().getTemplate();
+            assertSame(template, reopened.getLoan("L1").getRepaymentSchedule().getTemplate());
+            assertSame(template, reopened.getLoan("L2").getRepaymentSchedule().getTemplate());
+            assertEquals(11_084_000, template.getInstallment());
+            assertEquals(1, templateCache.size());
+        }
+    }
+
+    @Test
+    void given_persistentEngine_when_reopened_then_bookIsRecoveredFromSnapshotAndJournal() throws IOException {
+        List<String> loanIds = new ArrayList<>();
+        LoanEngine reference = new LoanEngine(START_DATE, loanFactory);
+        try (LoanEngine engine = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            // more than one snapshot interval, so recovery starts from a later generation
+            List<Consumer<LoanEngine>> operations = randomWorkload(new Random(7), 30, loanIds);
+            for (Consumer<LoanEngine> operation : operations) {
+                try {
+                    operation.accept(engine);
+                } catch (IllegalStateException e) {
+                    assertThrows(IllegalStateException.class, () -> operation.accept(reference));
+                    continue;
+                }
+                operation.accept(reference);
+            }
+        }
+        try (var files = Files.list(directory)) {
+            assertEquals(2, files.filter(file -> !file.endsWith("archive.bin")).count(),
+                    "only the latest snapshot and its journal are kept");
+        }
+
+        try (LoanEngine recovered = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            assertSameBook(reference, recovered, loanIds);
+
+            recovered.createLoan("AFTER", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+            recovered.endOfDay();
+        }
+        try (LoanEngine reopened = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            assertEquals(START_DATE.plusDays(31), reopened.getCurrentDate());
+            assertNotNull(reopened.getLoan("AFTER"));
+        }
+    }
+
+    @Test
+    void given_crashAtAnyPointInJournal_when_recovered_then_bookMatchesCompletedOperations() throws IOException {
+        Path original = directory.resolve("original");
+        List<String> loanIds = new ArrayList<>();
+        List<Consumer<LoanEngine>> operations = randomWorkload(new Random(11), 5, loanIds);
+        List<Consumer<LoanEngine>> journaled = new ArrayList<>();
+        try (LoanEngine engine = LoanEngine.open(original, START_DATE, loanFactory, REGION_SIZE, false)) {
+            for (Consumer<LoanEngine> operation : operations) {
+                try {
+                    operation.accept(engine);
+                    journaled.add(operation);
+                } catch (IllegalStateException | IllegalArgumentException e) {
+                    // rejected operations are not journaled
+                }
+            }
+        }
+        Path journal = original.resolve("journal-000000000000.log");
+        byte[] full = Files.readAllBytes(journal);
+
+        Path crashed = directory.resolve("crashed");
+        Files.createDirectories(crashed);
+        int lastRecovered = -1;
+        for (int cut = 8; cut <= full.length; cut += 3) {
+            Files.copy(original.resolve("snapshot-000000000000.bin"), crashed.resolve("snapshot-000000000000.bin"));
+            byte[] bytes = Arrays.copyOf(full, full.length);
+            Arrays.fill(bytes, cut, bytes.length, (byte) 0);
+            Files.write(crashed.resolve("journal-000000000000.log"), bytes);
+
+            int[] records = new int[1];
+            LoanJournal.replay(crashed.resolve("journal-000000000000.log"), countingHandler(records));
+            LoanEngine reference = new LoanEngine(START_DATE, loanFactory);
+            for (Consumer<LoanEngine> operation : journaled.subList(0, records[0])) {
+                operation.accept(reference);
+            }
+            try (LoanEngine recovered = LoanEngine.open(crashed, START_DATE, loanFactory, REGION_SIZE, false)) {
+                assertSameBook(reference, recovered, loanIds);
+            }
+            assertTrue(records[0] >= lastRecovered, "recovery never goes backwards");
+            lastRecovered = records[0];
+
+            try (var files = Files.list(crashed)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+        assertEquals(journaled.size(), lastRecovered);
+    }
+
+    @Test
+    void given_paymentBatch_when_reopened_then_acceptedPaymentsAreRecovered() throws IOException {
+        try (LoanEngine engine = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            engine.createLoan("L1", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+            engine.createLoan("L2", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+            for (int day = 0; day < 15; day++) {
+                engine.endOfDay();
+            }
+            long weeklyPayment = engine.getLoan("L1").getWeeklyPaymentMinor();
+            PaymentBatch batch = new PaymentBatch()
+                    .add("L1", weeklyPayment)
+                    .add("L2", weeklyPayment - 1)
+                    .add("L1", weeklyPayment)
+                    .add("L3", weeklyPayment);
+
+            PaymentResult[] results = engine.makePayments(batch);
+
+            assertArrayEquals(new PaymentResult[]{PaymentResult.OK, PaymentResult.WRONG_AMOUNT, PaymentResult.OK, PaymentResult.UNKNOWN_LOAN}, results);
+        }
+        try (LoanEngine recovered = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            assertEquals(2, recovered.getLoan("L1").getPaidCount());
+            assertEquals(0, recovered.getLoan("L2").getPaidCount());
+            assertEquals(LoanStanding.GOOD_STANDING, recovered.getLoan("L1").getStanding());
+        }
+    }
+
+    @Test
+    void given_loanBatch_when_reopened_then_createdLoansAreRecovered() throws IOException {
+        try (LoanEngine engine = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            engine.createLoan("L1", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+            LoanBatch batch = new LoanBatch()
+                    .add("L1", BigDecimal.valueOf(3_000_000), BigDecimal.valueOf(0.1), 10)
+                    .add("L2", BigDecimal.valueOf(2_000_000), BigDecimal.valueOf(0.1), 10)
+                    .add("L3", BigDecimal.valueOf(2_000_000), BigDecimal.valueOf(0.1), 0)
+                    .add("L2", BigDecimal.valueOf(3_000_000), BigDecimal.valueOf(0.1), 10);
+
+            OriginationResult[] results = engine.createLoans(batch);
+
+            assertArrayEquals(new OriginationResult[]{OriginationResult.ALREADY_EXISTS, OriginationResult.CREATED,
+                    OriginationResult.INVALID, OriginationResult.DUPLICATE_IN_BATCH}, results);
+        }
+        try (LoanEngine recovered = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            assertEquals(0, BigDecimal.valueOf(1_000_000).compareTo(recovered.getLoan("L1").getLoanAmount()));
+            assertEquals(0, BigDecimal.valueOf(2_000_000).compareTo(recovered.getLoan("L2").getLoanAmount()));
+            assertEquals(Set.of("L1", "L2"), recovered.getLoanIds(LoanStanding.GOOD_STANDING));
+        }
+    }
+
+    @Test
+    void given_advanceTo_when_reopened_then_bookMatchesEndOfDayEveryDay() throws IOException {
+        List<String> loanIds = new ArrayList<>();
+        LoanEngine reference = new LoanEngine(START_DATE, loanFactory);
+        try (LoanEngine engine = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            for (Consumer<LoanEngine> operation : randomWorkload(new Random(5), 3, loanIds)) {
+                try {
+                    operation.accept(engine);
+                } catch (IllegalStateException e) {
+                    continue;
+                }
+                operation.accept(reference);
+            }
+            engine.advanceTo(START_DATE.plusDays(5));
+            engine.advanceTo(START_DATE.plusDays(40));
+            for (int day = 3; day < 40; day++) {
+                reference.endOfDay();
+            }
+            assertSameBook(reference, engine, loanIds);
+        }
+        try (LoanEngine recovered = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            assertSameBook(reference, recovered, loanIds);
+        }
+    }
+
+    @Test
+    void given_penaltyPolicy_when_reopened_then_accruedPenaltiesAreRecovered() throws IOException {
+        LoanFactory penalizing = new ConsumptiveWeeklyLoanFactory(null,
+                new DailyPenaltyPolicy(BigDecimal.valueOf(500), new BigDecimal("0.001")));
+        List<String> loanIds = new ArrayList<>();
+        LoanEngine reference = new LoanEngine(START_DATE, penalizing);
+        try (LoanEngine engine = LoanEngine.open(directory, START_DATE, penalizing, REGION_SIZE, true)) {
+            // not a whole number of snapshot intervals, so recovery replays end of day from the journal too
+            for (Consumer<LoanEngine> operation : randomWorkload(new Random(11), 24, loanIds)) {
+                try {
+                    operation.accept(engine);
+                } catch (IllegalStateException e) {
+                    continue;
+                }
+                operation.accept(reference);
+            }
+        }
+        assertTrue(loanIds.stream().anyMatch(loanId -> reference.getLoan(loanId).getPenaltyMinor() > 0));
+        try (LoanEngine engine = LoanEngine.open(directory, START_DATE, penalizing, REGION_SIZE, true)) {
+            // half of each penalty paid, recorded in the journal as a payment like any other
+            for (String loanId : loanIds) {
+                long half = reference.getLoan(loanId).getPenaltyMinor() / 2;
+                if (half > 0 && half < reference.getLoan(loanId).getWeeklyPaymentMinor()) {
+                    engine.makePayment(loanId, half);
+                    reference.makePayment(loanId, half);
+                }
+            }
+        }
+
+        try (LoanEngine recovered = LoanEngine.open(directory, START_DATE, penalizing, REGION_SIZE, true)) {
+            assertSameBook(reference, recovered, loanIds);
+            for (String loanId : loanIds) {
+                assertEquals(reference.getLoan(loanId).getPenaltyMinor(), recovered.getLoan(loanId).getPenaltyMinor(), loanId);
+            }
+        }
+    }
+
+    @Test
+    void given_compactedEngine_when_reopened_then_archivedLoansAreStillFound() throws IOException {
+        List<String> paidOff = new ArrayList<>();
+        try (LoanEngine engine = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            for (int i = 0; i < 10; i++) {
+                engine.createLoan("L" + i, BigDecimal.valueOf(1_000_000 + i), new BigDecimal("0.1"), i % 2 == 0 ? 2 : 8);
+            }
+            for (int day = 1; day <= 21; day++) {
+                engine.endOfDay();
+                for (int i = 0; i < 10; i += 2) {
+                    if (day % 7 == 0 && engine.getLoan("L" + i).getOutstandingMinor() > 0) {
+                        engine.makePayment("L" + i, engine.getLoan("L" + i).getWeeklyPaymentMinor());
+                    }
+                }
+            }
+            for (int i = 0; i < 10; i += 2) {
+                assertEquals(0, engine.getLoan("L" + i).getOutstandingMinor());
+                paidOff.add("L" + i);
+            }
+            assertEquals(5, engine.compact());
+            engine.endOfDay();
+            engine.createLoan("L0", BigDecimal.valueOf(3_000_000), new BigDecimal("0.1"), 4);
+        }
+
+        List<String> snapshotted = new ArrayList<>();
+        try (LoanEngine recovered = LoanEngine.open(directory, START_DATE, loanFactory, REGION_SIZE, true)) {
+            assertEquals(START_DATE.plusDays(22), recovered.getCurrentDate());
+            assertEquals(4, recovered.getArchive().getLoanCount());
+            for (String loanId : paidOff.subList(1, paidOff.size())) {
+                assertTrue(recovered.getArchive().contains(loanId));
+                assertEquals(LoanStanding.CLOSED, recovered.getLoan(loanId).getStanding());
+                assertEquals(0, recovered.getOutstanding(loanId).signum());
+                assertEquals(2, recovered.getLoan(loanId).getPaidCount());
+            }
+            assertFalse(recovered.getArchive().contains("L0"));
+            assertEquals(4, recovered.getLoan("L0").getNumberOfWeeks());
+            assertEquals(recovered.getLoan("L0").getTotalAmount(), recovered.getOutstanding("L0"));
+            assertEquals(6, recovered.getAggregates().getLoanCounts().values().stream().mapToLong(Long::longValue).sum());
+        }
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().startsWith("snapshot-")) {
+                    LoanSnapshot.read(file, loanFactory, loan -> snapshotted.add(loan.getLoanId()));
+                }
+            }
+        }
+        assertFalse(snapshotted.contains("L2"), "archived loans are left out of snapshots");
+    }
+
+    /**
+     * Creates loans, pays some of them, skips payments on others, and moves the date forward.
+     * Operations are replayable against any engine; payments that are not due throw as usual.
+     */
+    private static List<Consumer<LoanEngine>> randomWorkload(Random random, int days, List<String> loanIds) {
+        List<Consumer<LoanEngine>> operations = new ArrayList<>();
+        List<String> created = new ArrayList<>();
+        for (int day = 0; day < days; day++) {
+            for (int i = 0; i < 2; i++) {
+                String loanId = "L" + day + "-" + i;
+                BigDecimal amount = BigDecimal.valueOf(1_000_000 + random.nextInt(1_000_000));
+                int weeks = random.nextInt(10) + 2;
+                operations.add(engine -> engine.createLoan(loanId, amount, new BigDecimal("0.1"), weeks));
+                created.add(loanId);
+                loanIds.add(loanId);
+            }
+            for (String loanId : created) {
+                if (random.nextInt(4) == 0) {
+                    operations.add(engine -> engine.makePayment(loanId, engine.getLoan(loanId).getWeeklyPayment()));
+                }
+            }
+            operations.add(LoanEngine::endOfDay);
+        }
+        return operations;
+    }
+
+    private static LoanJournal.RecordHandler countingHandler(int[] records) {
+        return new LoanJournal.RecordHandler() {
+            @Override
+            public void createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
+                records[0]++;
+            }
+
+            @Override
+            public void payment(String loanId, long amountMinor) {
+                records[0]++;
+            }
+
+            @Override
+            public void endOfDay(LocalDate newDate) {
+                records[0]++;
+            }
+        };
+    }
+
+    private static void assertSameBook(LoanEngine expected, LoanEngine actual, List<String> loanIds) {
+        assertEquals(expected.getCurrentDate(), actual.getCurrentDate());
+        for (String loanId : loanIds) {
+            Loan expectedLoan;
+            try {
+                expectedLoan = expected.getLoan(loanId);
+            } catch (IllegalArgumentException e) {
+                assertThrows(IllegalArgumentException.class, () -> actual.getLoan(loanId));
+                continue;
+            }
+            Loan actualLoan = actual.getLoan(loanId);
+            assertEquals(expectedLoan.getOutstandingMinor(), actualLoan.getOutstandingMinor(), loanId);
+            assertEquals(expectedLoan.getPaidCount(), actualLoan.getPaidCount(), loanId);
+            assertEquals(expectedLoan.getStanding(), actualLoan.getStanding(), loanId);
+            assertEquals(expectedLoan.getOverdueMinor(), actualLoan.getOverdueMinor(), loanId);
+            assertEquals(expectedLoan.getStartDate(), actualLoan.getStartDate(), loanId);
+            assertEquals(0, expectedLoan.getLoanAmount().compareTo(actualLoan.getLoanAmount()), loanId);
+            for (int week = 0; week < expectedLoan.getPaidCount(); week++) {
+                assertEquals(expectedLoan.getSchedule().get(week).getPaymentDate(), actualLoan.getSchedule().get(week).getPaymentDate());
+            }
+        }
+        assertEquals(expected.getAggregates().getTotalOutstandingMinor(), actual.getAggregates().getTotalOutstandingMinor());
+        assertEquals(expected.getAggregates().getTotalOverdueMinor(), actual.getAggregates().getTotalOverdueMinor());
+        assertEquals(expected.getAggregates().getLoanCounts(), actual.getAggregates().getLoanCounts());
+    }
+}
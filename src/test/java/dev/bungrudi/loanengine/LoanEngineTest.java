@@ -5,10 +5,15 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 public class LoanEngineTest {
 
@@ -95,4 +100,815 @@ public class LoanEngineTest {
         assertFalse(engine.isDelinquent("L002")); // Now it should not be delinquent
         assertTrue(engine.isDelinquent("L003"));
     }
+
+    @Test
+    void given_randomPayments_when_endOfDay_then_standingsMatchFullScan() {
+        List<String> loanIds = new ArrayList<>();
+        for (int day = 0; day < 400; day++) {
+            if (day < 60 && random.nextInt(3) == 0) {
+                String loanId = "L" + day;
+                engine.createLoan(loanId, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), random.nextInt(30) + 1);
+                loanIds.add(loanId);
+            }
+            for (String loanId : loanIds) {
+                if (random.nextInt(8) == 0) {
+                    try {
+                        engine.makePayment(loanId, engine.getLoan(loanId).getWeeklyPayment());
+                    } catch (IllegalStateException e) {
+                        // not yet due or fully paid
+                    }
+                }
+            }
+            engine.endOfDay();
+
+            for (String loanId : loanIds) {
+                Loan loan = engine.getLoan(loanId);
+                LoanStanding standing = loan.getStanding();
+                loan.updateStatus(engine.getCurrentDate());
+                assertEquals(loan.getStanding(), standing, "standing of " + loanId + " on " + engine.getCurrentDate());
+            }
+        }
+    }
+
+    @Test
+    void given_forkJoinPool_when_endOfDay_then_sameStandingsAndSummaryAsSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        LoanEngine parallel = new LoanEngine(startDate, loanFactory, pool);
+        for (int i = 0; i < 5_000; i++) {
+            String loanId = "L" + i;
+            int numberOfWeeks = 4 + i % 20;
+            engine.createLoan(loanId, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), numberOfWeeks);
+            parallel.createLoan(loanId, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), numberOfWeeks);
+        }
+
+        for (int day = 0; day < 60; day++) {
+            for (int i = day % 3; i < 5_000; i += 3) {
+                String loanId = "L" + i;
+                try {
+                    engine.makePayment(loanId, engine.getLoan(loanId).getWeeklyPayment());
+                    parallel.makePayment(loanId, parallel.getLoan(loanId).getWeeklyPayment());
+                } catch (IllegalStateException e) {
+                    // not yet due or fully paid
+                }
+            }
+            EndOfDaySummary expected = engine.endOfDay();
+            EndOfDaySummary actual = parallel.endOfDay();
+
+            assertEquals(expected.getDate(), actual.getDate());
+            assertEquals(expected.getEvaluatedCount(), actual.getEvaluatedCount());
+            assertEquals(expected.getStandingCounts(), actual.getStandingCounts());
+            assertEquals(new HashSet<>(expected.getNewlyDelinquent()), new HashSet<>(actual.getNewlyDelinquent()));
+        }
+        for (int i = 0; i < 5_000; i++) {
+            assertEquals(engine.getLoan("L" + i).getStanding(), parallel.getLoan("L" + i).getStanding());
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    void given_missedPayments_when_endOfDay_then_summaryReportsNewlyDelinquent() {
+        engine.createLoan("L001", BigDecimal.valueOf(1000000), BigDecimal.valueOf(0.1), 20);
+        engine.createLoan("L002", BigDecimal.valueOf(1000000), BigDecimal.valueOf(0.1), 20);
+
+        EndOfDaySummary summary = null;
+        for (int i = 0; i < 15; i++) {
+            if (i == 7) {
+                engine.makePayment("L002", engine.getLoan("L002").getWeeklyPayment());
+            }
+            summary = engine.endOfDay();
+        }
+
+        assertEquals(2, summary.getEvaluatedCount());
+        assertEquals(List.of("L001"), summary.getNewlyDelinquent());
+        assertEquals(1, summary.getStandingCount(LoanStanding.DELINQUENT));
+        assertEquals(1, summary.getStandingCount(LoanStanding.LATE));
+    }
+
+    @Test
+    void given_paymentBatch_when_makePayments_then_sameOutcomeAsOneByOne() {
+        LoanEngine oneByOne = new LoanEngine(startDate, loanFactory);
+        for (int i = 0; i < 50; i++) {
+            engine.createLoan("L" + i, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+            oneByOne.createLoan("L" + i, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        }
+        long weeklyPayment = engine.getLoan("L0").getWeeklyPaymentMinor();
+
+        for (int day = 0; day < 90; day++) {
+            PaymentBatch batch = new PaymentBatch(4);
+            for (int i = 0; i < 40; i++) {
+                String loanId = "L" + random.nextInt(55);
+                long amount = random.nextInt(10) == 0 ? weeklyPayment - 1 : weeklyPayment;
+                batch.add(loanId, amount);
+            }
+
+            PaymentResult[] results = engine.makePayments(batch);
+
+            assertEquals(batch.size(), results.length);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(expectedResult(oneByOne, batch.getLoanId(i), batch.getAmountMinor(i)), results[i], "entry " + i);
+            }
+            for (int i = 0; i < 50; i++) {
+                Loan expected = oneByOne.getLoan("L" + i);
+                Loan actual = engine.getLoan("L" + i);
+                assertEquals(expected.getOutstandingMinor(), actual.getOutstandingMinor());
+                assertEquals(expected.getStanding(), actual.getStanding());
+            }
+            engine.endOfDay();
+            oneByOne.endOfDay();
+        }
+    }
+
+    @Test
+    void given_nullLoanId_when_lookedUp_then_loanNotFound() {
+        engine.createLoan("L1", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+
+        assertEquals("Loan not found", assertThrows(IllegalArgumentException.class,
+                () -> engine.makePayment(null, BigDecimal.ONE)).getMessage());
+        assertEquals("Loan not found", assertThrows(IllegalArgumentException.class,
+                () -> engine.getOutstanding(null)).getMessage());
+        assertEquals("Loan not found", assertThrows(IllegalArgumentException.class,
+                () -> engine.isDelinquent(null)).getMessage());
+        assertEquals("Loan not found", assertThrows(IllegalArgumentException.class,
+                () -> engine.getLoan(null)).getMessage());
+    }
+
+    @Test
+    void given_nullLoanIdInBatch_when_makePayments_then_unknownLoanAndOtherEntriesApplied() {
+        engine.createLoan("L1", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        long weeklyPayment = engine.getLoan("L1").getWeeklyPaymentMinor();
+        for (int day = 0; day < 7; day++) {
+            engine.endOfDay();
+        }
+        PaymentBatch batch = new PaymentBatch().add(null, weeklyPayment).add("L1", weeklyPayment);
+
+        PaymentResult[] results = engine.makePayments(batch);
+
+        assertEquals(PaymentResult.UNKNOWN_LOAN, results[0]);
+        assertEquals(PaymentResult.OK, results[1]);
+        assertEquals(1, engine.getLoan("L1").getPaidCount());
+    }
+
+    @Test
+    void given_randomWorkload_when_queryingIndexes_then_matchFullScan() {
+        for (int i = 0; i < 60; i++) {
+            engine.createLoan("L" + i, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 4 + i % 10);
+        }
+        engine.createLoan("L0", BigDecimal.valueOf(2_000_000), BigDecimal.valueOf(0.1), 5);
+
+        for (int day = 0; day < 120; day++) {
+            PaymentBatch batch = new PaymentBatch(8);
+            for (int i = 0; i < 10; i++) {
+                String loanId = "L" + random.nextInt(60);
+                batch.add(loanId, engine.getLoan(loanId).getWeeklyPaymentMinor());
+            }
+            engine.makePayments(batch);
+            String loanId = "L" + random.nextInt(60);
+            try {
+                engine.makePayment(loanId, engine.getLoan(loanId).getWeeklyPaymentMinor());
+            } catch (IllegalStateException ignored) {
+                // not due yet or already paid off
+            }
+            engine.endOfDay();
+
+            for (LoanStanding standing : LoanStanding.values()) {
+                Set<String> expected = new HashSet<>();
+                for (int i = 0; i < 60; i++) {
+                    if (engine.getLoan("L" + i).getStanding() == standing) {
+                        expected.add("L" + i);
+                    }
+                }
+                assertEquals(expected, engine.getLoanIds(standing), standing + " on day " + day);
+            }
+            LocalDate date = startDate.plusDays(day);
+            Set<String> expectedDue = new HashSet<>();
+            for (int i = 0; i < 60; i++) {
+                if (date.equals(engine.getLoan("L" + i).getNextDueDate())) {
+                    expectedDue.add("L" + i);
+                }
+            }
+            assertEquals(expectedDue, engine.getLoanIdsDueOn(date), "due on " + date);
+        }
+    }
+
+    @Test
+    void given_randomWorkload_when_readingAggregates_then_matchFullRecomputation() {
+        int loanCount = 80;
+        for (int i = 0; i < loanCount; i++) {
+            engine.createLoan("L" + i, BigDecimal.valueOf(random.nextInt(9_000_000) + 1_000_000), BigDecimal.valueOf(0.1), 4 + random.nextInt(20));
+        }
+
+        for (int day = 0; day < 200; day++) {
+            PaymentBatch batch = new PaymentBatch(8);
+            for (int i = 0; i < 15; i++) {
+                String loanId = "L" + random.nextInt(loanCount);
+                batch.add(loanId, engine.getLoan(loanId).getWeeklyPaymentMinor());
+            }
+            engine.makePayments(batch);
+            if (day % 30 == 0) {
+                engine.createLoan("L" + random.nextInt(loanCount), BigDecimal.valueOf(2_000_000), BigDecimal.valueOf(0.05), 8);
+            }
+            engine.endOfDay();
+
+            long outstanding = 0;
+            long overdue = 0;
+            long[] counts = new long[LoanStanding.values().length];
+            for (int i = 0; i < loanCount; i++) {
+                Loan loan = engine.getLoan("L" + i);
+                outstanding += loan.getOutstandingMinor();
+                int currentWeek = loan.getCurrentWeek(engine.getCurrentDate());
+                overdue += Math.max(0, currentWeek - loan.getPaidCount()) * loan.getRepaymentSchedule().getInstallment();
+                counts[loan.getStanding().ordinal()]++;
+            }
+            PortfolioAggregates aggregates = engine.getAggregates();
+            assertEquals(outstanding, aggregates.getTotalOutstandingMinor(), "outstanding on day " + day);
+            assertEquals(overdue, aggregates.getTotalOverdueMinor(), "overdue on day " + day);
+            for (LoanStanding standing : LoanStanding.values()) {
+                assertEquals(counts[standing.ordinal()], aggregates.getLoanCount(standing), standing + " on day " + day);
+            }
+        }
+    }
+
+    @Test
+    void given_loans_when_usingHandles_then_sameLoansAsById() {
+        for (int i = 0; i < 3000; i++) {
+            engine.createLoan("L" + i, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        }
+        for (int i = 0; i < 8; i++) {
+            engine.endOfDay();
+        }
+
+        for (int i = 0; i < 3000; i++) {
+            int handle = engine.getHandle("L" + i);
+            assertEquals(i, handle);
+            assertSame(engine.getLoan("L" + i), engine.getLoan(handle));
+            if (i % 2 == 0) {
+                engine.makePayment(handle, engine.getLoan(handle).getWeeklyPaymentMinor());
+            }
+            assertEquals(engine.getOutstanding("L" + i), engine.getOutstanding(handle));
+            assertEquals(engine.isDelinquent("L" + i), engine.isDelinquent(handle));
+        }
+        assertEquals(1, engine.getLoan(0).getPaidCount());
+        assertEquals(0, engine.getLoan(1).getPaidCount());
+
+        Loan replacement = engine.createLoan("L1", BigDecimal.valueOf(2_000_000), BigDecimal.valueOf(0.1), 10);
+        assertEquals(1, engine.getHandle("L1"));
+        assertSame(replacement, engine.getLoan(1));
+        assertThrows(IllegalArgumentException.class, () -> engine.getHandle("L3000"));
+        assertThrows(IllegalArgumentException.class, () -> engine.getOutstanding(3000));
+        assertThrows(IllegalArgumentException.class, () -> engine.makePayment(-1, 100L));
+    }
+
+    @Test
+    void given_metricsEnabled_when_operating_then_outcomesLatenciesAndTransitionsAreRecorded() {
+        EngineMetrics metrics = new EngineMetrics();
+        LoanEngine measured = new LoanEngine(startDate, loanFactory, null, metrics);
+        for (int i = 0; i < 20; i++) {
+            measured.createLoan("L" + i, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        }
+        long weeklyPayment = measured.getLoan("L0").getWeeklyPaymentMinor();
+        assertThrows(IllegalStateException.class, () -> measured.makePayment("L0", weeklyPayment));
+        assertThrows(IllegalArgumentException.class, () -> measured.makePayment("L99", weeklyPayment));
+
+        int standings = LoanStanding.values().length;
+        long[][] expectedTransitions = new long[standings][standings];
+        int transitions = 0;
+        for (int day = 0; day < 30; day++) {
+            if (day == 7) {
+                measured.makePayment("L0", weeklyPayment);
+                PaymentBatch batch = new PaymentBatch(2);
+                batch.add("L1", weeklyPayment);
+                batch.add("L2", weeklyPayment - 1);
+                measured.makePayments(batch);
+            }
+            LoanStanding[] before = new LoanStanding[20];
+            for (int i = 0; i < 20; i++) {
+                before[i] = measured.getLoan("L" + i).getStanding();
+            }
+            transitions += measured.endOfDay().getTransitionCount();
+            for (int i = 0; i < 20; i++) {
+                LoanStanding after = measured.getLoan("L" + i).getStanding();
+                if (after != before[i]) {
+                    expectedTransitions[before[i].ordinal()][after.ordinal()]++;
+                }
+            }
+        }
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getPaymentCount(PaymentResult.OK));
+        assertEquals(1, snapshot.getPaymentCount(PaymentResult.NOT_DUE));
+        assertEquals(1, snapshot.getPaymentCount(PaymentResult.WRONG_AMOUNT));
+        assertEquals(1, snapshot.getPaymentCount(PaymentResult.UNKNOWN_LOAN));
+        assertEquals(20, snapshot.getLatency(EngineMetrics.Operation.CREATE_LOAN).getCount());
+        assertEquals(1, snapshot.getLatency(EngineMetrics.Operation.MAKE_PAYMENT).getCount());
+        assertEquals(1, snapshot.getLatency(EngineMetrics.Operation.MAKE_PAYMENTS).getCount());
+        assertEquals(30, snapshot.getLatency(EngineMetrics.Operation.END_OF_DAY).getCount());
+        for (EngineMetrics.Phase phase : EngineMetrics.Phase.values()) {
+            assertEquals(30, snapshot.getPhaseLatency(phase).getCount());
+        }
+        assertTrue(transitions > 0);
+        assertEquals(transitions, snapshot.getTransitionCount());
+        for (LoanStanding from : LoanStanding.values()) {
+            for (LoanStanding to : LoanStanding.values()) {
+                assertEquals(expectedTransitions[from.ordinal()][to.ordinal()], snapshot.getTransitionCount(from, to), from + " to " + to);
+            }
+        }
+
+        String text = snapshot.toText();
+        assertTrue(text.contains("loan_engine_payments_total{result=\"ok\"} 2\n"), text);
+        assertTrue(text.contains("loan_engine_operation_latency_seconds_count{operation=\"end_of_day\"} 30\n"), text);
+        assertTrue(text.contains("loan_engine_standing_transitions_total{from=\"late\",to=\"delinquent\"} "
+                + snapshot.getTransitionCount(LoanStanding.LATE, LoanStanding.DELINQUENT) + "\n"), text);
+    }
+
+    @Test
+    void given_metricsDisabled_when_operating_then_nothingIsRecorded() {
+        engine.createLoan("L0", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        for (int day = 0; day < 15; day++) {
+            engine.endOfDay();
+        }
+
+        MetricsSnapshot snapshot = engine.getMetrics().snapshot();
+        assertFalse(engine.getMetrics().isEnabled());
+        assertEquals(0, snapshot.getLatency(EngineMetrics.Operation.CREATE_LOAN).getCount());
+        assertEquals(0, snapshot.getLatency(EngineMetrics.Operation.END_OF_DAY).getCount());
+        assertEquals(0, snapshot.getTransitionCount());
+    }
+
+    @Test
+    void given_downtime_when_advanceTo_then_sameBookSummaryAndTransitionsAsEndOfDayEveryDay() {
+        LoanEngine dayByDay = new LoanEngine(startDate, loanFactory);
+        List<StandingTransition> expectedTransitions = new ArrayList<>();
+        List<StandingTransition> actualTransitions = new ArrayList<>();
+        dayByDay.setTransitionListener(expectedTransitions::add);
+        engine.setTransitionListener(actualTransitions::add);
+        int loanCount = 60;
+
+        for (int round = 0; round < 25; round++) {
+            for (int i = 0; i < 6; i++) {
+                String loanId = "L" + random.nextInt(loanCount);
+                BigDecimal loanAmount = BigDecimal.valueOf(1_000_000 + random.nextInt(1000) * 1000);
+                int numberOfWeeks = 2 + random.nextInt(12);
+                dayByDay.createLoan(loanId, loanAmount, BigDecimal.valueOf(0.1), numberOfWeeks);
+                engine.createLoan(loanId, loanAmount, BigDecimal.valueOf(0.1), numberOfWeeks);
+            }
+            PaymentBatch batch = new PaymentBatch(8);
+            for (int i = 0; i < 30; i++) {
+                String loanId = "L" + random.nextInt(loanCount);
+                batch.add(loanId, random.nextInt(4) == 0 ? 1 : weeklyPaymentOf(dayByDay, loanId));
+            }
+            assertArrayEquals(dayByDay.makePayments(batch), engine.makePayments(batch));
+
+            int days = 1 + random.nextInt(30);
+            EndOfDaySummary expected = dayByDay.endOfDay();
+            for (int day = 1; day < days; day++) {
+                expected.merge(dayByDay.endOfDay());
+            }
+            EndOfDaySummary actual = engine.advanceTo(engine.getCurrentDate().plusDays(days));
+
+            assertEquals(dayByDay.getCurrentDate(), engine.getCurrentDate());
+            assertEquals(expected.getEvaluatedCount(), actual.getEvaluatedCount(), "round " + round);
+            assertEquals(expected.getStandingCounts(), actual.getStandingCounts(), "round " + round);
+            assertEquals(expected.getTransitionCount(), actual.getTransitionCount(), "round " + round);
+            assertEquals(sorted(expected.getNewlyDelinquent()), sorted(actual.getNewlyDelinquent()), "round " + round);
+            assertEquals(byDateAndLoan(expectedTransitions), byDateAndLoan(actualTransitions), "round " + round);
+            for (int i = 0; i < loanCount; i++) {
+                if (hasLoan(dayByDay, "L" + i)) {
+                    Loan expectedLoan = dayByDay.getLoan("L" + i);
+                    Loan actualLoan = engine.getLoan("L" + i);
+                    assertEquals(expectedLoan.getStanding(), actualLoan.getStanding(), "L" + i);
+                    assertEquals(expectedLoan.getOverdueMinor(), actualLoan.getOverdueMinor(), "L" + i);
+                }
+            }
+            assertEquals(dayByDay.getAggregates().getLoanCounts(), engine.getAggregates().getLoanCounts());
+            assertEquals(dayByDay.getAggregates().getTotalOverdueMinor(), engine.getAggregates().getTotalOverdueMinor());
+        }
+        assertFalse(actualTransitions.isEmpty());
+        for (int i = 1; i < actualTransitions.size(); i++) {
+            assertFalse(actualTransitions.get(i).getDate().isBefore(actualTransitions.get(i - 1).getDate()));
+        }
+        assertThrows(IllegalArgumentException.class, () -> engine.advanceTo(engine.getCurrentDate()));
+    }
+
+    @Test
+    void given_closedLoans_when_compacted_then_archivedAndStillFoundWhileLiveBookMatches() {
+        LoanEngine uncompacted = new LoanEngine(startDate, loanFactory);
+        int loanCount = 80;
+        for (int i = 0; i < loanCount; i++) {
+            // even loans run 3 weeks and are paid on time, odd loans run 20 weeks
+            int numberOfWeeks = i % 2 == 0 ? 3 : 20;
+            uncompacted.createLoan("L" + i, BigDecimal.valueOf(1_000_000 + i * 1000), BigDecimal.valueOf(0.1), numberOfWeeks);
+            engine.createLoan("L" + i, BigDecimal.valueOf(1_000_000 + i * 1000), BigDecimal.valueOf(0.1), numberOfWeeks);
+        }
+
+        for (int day = 1; day <= 60; day++) {
+            for (int i = 0; i < loanCount; i++) {
+                if ((i % 2 == 0 || i % 3 == 0) && day % 7 == 0) {
+                    long amount = weeklyPaymentOf(uncompacted, "L" + i);
+                    assertEquals(expectedResult(uncompacted, "L" + i, amount), resultOf(engine, "L" + i, amount), "L" + i);
+                }
+            }
+            EndOfDaySummary expected = uncompacted.endOfDay();
+            EndOfDaySummary actual = engine.endOfDay();
+            assertEquals(expected.getStandingCounts(), actual.getStandingCounts(), "day " + day);
+            if (day % 10 == 0) {
+                Set<String> paidOff = paidOff(engine, engine.getLoanIds(LoanStanding.CLOSED));
+                assertEquals(paidOff.size(), engine.compact());
+                assertTrue(paidOff(engine, engine.getLoanIds(LoanStanding.CLOSED)).isEmpty());
+                assertTrue(engine.getArchive().getLoanIds().containsAll(paidOff));
+            }
+        }
+
+        LoanArchive archive = engine.getArchive();
+        assertEquals(paidOff(uncompacted, uncompacted.getLoanIds(LoanStanding.CLOSED)), archive.getLoanIds());
+        assertEquals(loanCount / 2, archive.getLoanCount());
+        assertTrue(archive.getBytes() > 0);
+        assertEquals(0, paidOff(engine, engine.getLoanIds(LoanStanding.CLOSED)).size());
+        for (LoanStanding standing : List.of(LoanStanding.GOOD_STANDING, LoanStanding.LATE, LoanStanding.DELINQUENT)) {
+            assertEquals(uncompacted.getLoanIds(standing), engine.getLoanIds(standing));
+            assertEquals(uncompacted.getAggregates().getLoanCount(standing), engine.getAggregates().getLoanCount(standing));
+        }
+        for (int i = 0; i < loanCount; i++) {
+            String loanId = "L" + i;
+            Loan expectedLoan = uncompacted.getLoan(loanId);
+            Loan actualLoan = engine.getLoan(loanId);
+            assertEquals(expectedLoan.getStanding(), actualLoan.getStanding(), loanId);
+            assertEquals(expectedLoan.getPaidCount(), actualLoan.getPaidCount(), loanId);
+            assertEquals(expectedLoan.getSchedule().toString(), actualLoan.getSchedule().toString(), loanId);
+            assertEquals(uncompacted.getOutstanding(loanId), engine.getOutstanding(loanId));
+            assertEquals(uncompacted.isDelinquent(loanId), engine.isDelinquent(loanId));
+            assertEquals(expectedResult(uncompacted, loanId, 1), resultOf(engine, loanId, 1), loanId);
+        }
+        IllegalStateException rejected = assertThrows(IllegalStateException.class, () -> engine.makePayment("L2", 1));
+        assertEquals("No more payments due", rejected.getMessage());
+
+        engine.createLoan("L0", BigDecimal.valueOf(2_000_000), BigDecimal.valueOf(0.1), 10);
+        assertFalse(archive.contains("L0"));
+        assertEquals(LoanStanding.GOOD_STANDING, engine.getLoan("L0").getStanding());
+        assertEquals(1, engine.getAggregates().getLoanCount(LoanStanding.GOOD_STANDING)
+                - uncompacted.getAggregates().getLoanCount(LoanStanding.GOOD_STANDING));
+    }
+
+    @Test
+    void given_loanBatch_when_createLoans_then_sameLoansAsCreateLoanAndRejectsReported() {
+        LoanEngine sequential = new LoanEngine(startDate, loanFactory);
+        engine = new LoanEngine(startDate, loanFactory, new ForkJoinPool(4));
+        engine.createLoan("EXISTING", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        sequential.createLoan("EXISTING", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        int loanCount = 5000;
+        LoanBatch batch = new LoanBatch();
+        List<OriginationResult> expected = new ArrayList<>();
+        for (int i = 0; i < loanCount; i++) {
+            BigDecimal loanAmount = BigDecimal.valueOf(random.nextInt(9000000) + 1000000);
+            BigDecimal interestRate = BigDecimal.valueOf(random.nextInt(20), 2);
+            int numberOfWeeks = random.nextInt(96) + 4;
+            batch.add("L" + i, loanAmount, interestRate, numberOfWeeks);
+            sequential.createLoan("L" + i, loanAmount, interestRate, numberOfWeeks);
+            expected.add(OriginationResult.CREATED);
+        }
+        batch.add("L7", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        expected.add(OriginationResult.DUPLICATE_IN_BATCH);
+        batch.add("EXISTING", BigDecimal.valueOf(2_000_000), BigDecimal.valueOf(0.1), 10);
+        expected.add(OriginationResult.ALREADY_EXISTS);
+        batch.add("", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        batch.add("ZERO", BigDecimal.ZERO, BigDecimal.valueOf(0.1), 10);
+        batch.add("NEGATIVE_RATE", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(-0.1), 10);
+        batch.add("NO_WEEKS", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 0);
+        batch.add("FRACTION", new BigDecimal("1000000.001"), BigDecimal.valueOf(0.1), 10);
+        for (int i = 0; i < 5; i++) {
+            expected.add(OriginationResult.INVALID);
+        }
+
+        OriginationResult[] results = engine.createLoans(batch);
+
+        assertEquals(expected, List.of(results));
+        assertEquals(loanCount + 1, engine.getLoanIds(LoanStanding.GOOD_STANDING).size());
+        assertEquals(0, BigDecimal.valueOf(1_000_000).compareTo(engine.getLoan("EXISTING").getLoanAmount()));
+        assertFalse(hasLoan(engine, "ZERO"));
+        assertFalse(hasLoan(engine, "NO_WEEKS"));
+        for (int i = 0; i < loanCount; i++) {
+            Loan expectedLoan = sequential.getLoan("L" + i);
+            Loan actualLoan = engine.getLoan("L" + i);
+            assertEquals(expectedLoan.getWeeklyPaymentMinor(), actualLoan.getWeeklyPaymentMinor());
+            assertEquals(expectedLoan.getSchedule().toString(), actualLoan.getSchedule().toString());
+        }
+        for (int day = 0; day < 7; day++) {
+            assertEquals(sequential.endOfDay().getStandingCounts(), engine.endOfDay().getStandingCounts());
+        }
+        assertEquals(sequential.getLoanIds(LoanStanding.LATE), engine.getLoanIds(LoanStanding.LATE));
+    }
+
+    @Test
+    void given_severalInstallmentsInOnePayment_when_applied_then_bookIsUpdatedOnceAndPaidOffLoanIsArchived() {
+        for (int i = 0; i < 3; i++) {
+            engine.createLoan("L" + i, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10);
+        }
+        engine.advanceTo(startDate.plusDays(22));
+        assertEquals(Set.of("L0", "L1", "L2"), engine.getLoanIds(LoanStanding.DELINQUENT));
+        long weeklyPayment = weeklyPaymentOf(engine, "L0");
+        long totalOutstanding = engine.getAggregates().getTotalOutstandingMinor();
+
+        engine.makePayment("L0", 3 * weeklyPayment);
+        PaymentBatch batch = new PaymentBatch()
+                .add("L1", 5 * weeklyPayment)
+                .add("L2", 10 * weeklyPayment)
+                .add("L0", 11 * weeklyPayment)
+                .add("L0", weeklyPayment * 5 / 2);
+        assertArrayEquals(new PaymentResult[]{PaymentResult.OK, PaymentResult.OK, PaymentResult.WRONG_AMOUNT,
+                PaymentResult.WRONG_AMOUNT}, engine.makePayments(batch));
+
+        assertEquals(Set.of("L0", "L1"), engine.getLoanIds(LoanStanding.GOOD_STANDING));
+        assertEquals(Set.of("L2"), engine.getLoanIds(LoanStanding.CLOSED));
+        assertEquals(0, engine.getAggregates().getTotalOverdueMinor());
+        assertEquals(totalOutstanding - 18 * weeklyPayment, engine.getAggregates().getTotalOutstandingMinor());
+        assertEquals(startDate.plusWeeks(6), engine.getLoan("L1").getNextDueDate());
+        assertEquals(Set.of("L1"), engine.getLoanIdsDueOn(startDate.plusWeeks(6)));
+        assertThrows(IllegalStateException.class, () -> engine.makePayment("L1", weeklyPayment));
+
+        assertEquals(1, engine.compact());
+        assertEquals(PaymentResult.NO_MORE_DUE, resultOf(engine, "L2", weeklyPayment));
+        for (int day = 0; day < 70; day++) {
+            engine.endOfDay();
+        }
+        assertEquals(Set.of("L0", "L1"), engine.getLoanIds(LoanStanding.DELINQUENT));
+    }
+
+    @Test
+    void given_openView_when_bookChanges_then_viewSeesBookAsOpened() {
+        int loanCount = 30;
+        for (int i = 0; i < loanCount; i++) {
+            engine.createLoan("L" + i, BigDecimal.valueOf(1_000_000 + i * 1000), BigDecimal.valueOf(0.1), i % 2 == 0 ? 2 : 10);
+        }
+        engine.advanceTo(startDate.plusDays(8));
+        engine.makePayment("L1", weeklyPaymentOf(engine, "L1"));
+        List<Loan> expected = new ArrayList<>();
+        for (int i = 0; i < loanCount; i++) {
+            expected.add(engine.getLoan("L" + i).copy());
+        }
+
+        BookView view = engine.openView();
+        for (int day = 0; day < 14; day++) {
+            for (int i = 0; i < loanCount; i += 3) {
+                resultOf(engine, "L" + i, weeklyPaymentOf(engine, "L" + i));
+            }
+            engine.endOfDay();
+        }
+        engine.createLoan("L5", BigDecimal.valueOf(3_000_000), BigDecimal.valueOf(0.1), 20);
+        engine.createLoan("NEW", BigDecimal.valueOf(3_000_000), BigDecimal.valueOf(0.1), 20);
+        assertTrue(engine.compact() > 0);
+        BookView laterView = engine.openView();
+        engine.makePayment("L1", weeklyPaymentOf(engine, "L1"));
+
+        assertEquals(startDate.plusDays(8), view.getDate());
+        List<String> seen = new ArrayList<>();
+        view.forEach(loan -> seen.add(loan.getLoanId()));
+        assertEquals(expected.stream().map(Loan::getLoanId).toList(), seen);
+        for (Loan expectedLoan : expected) {
+            LoanVersion loan = view.getLoan(expectedLoan.getLoanId());
+            assertEquals(expectedLoan.getPaidCount(), loan.getPaidCount());
+            assertEquals(expectedLoan.getStanding(), loan.getStanding());
+            assertEquals(expectedLoan.getOutstandingMinor(), loan.getOutstandingMinor());
+            assertEquals(expectedLoan.getOverdueMinor(), loan.getOverdueMinor());
+            assertEquals(expectedLoan.getNextDueDate(), loan.getNextDueDate());
+            assertEquals(expectedLoan.getSchedule().toString(), loan.toLoan().getSchedule().toString());
+        }
+        assertThrows(IllegalArgumentException.class, () -> view.getLoan("NEW"));
+        view.close();
+        assertThrows(IllegalStateException.class, () -> view.getLoan("L1"));
+
+        assertEquals(0, BigDecimal.valueOf(3_000_000).compareTo(laterView.getLoan("L5").getLoanAmount()));
+        assertEquals(engine.getLoan("L1").getPaidCount() - 1, laterView.getLoan("L1").getPaidCount());
+        assertThrows(IllegalArgumentException.class, () -> laterView.getLoan("L0"));
+        laterView.close();
+        try (BookView current = engine.openView()) {
+            assertEquals(engine.getLoan("L1").getPaidCount(), current.getLoan("L1").getPaidCount());
+            assertEquals(engine.getLoan("NEW").getOutstandingMinor(), current.getLoan("NEW").getOutstandingMinor());
+        }
+    }
+
+    @Test
+    void given_paymentsInBatchesOfTwo_when_viewedConcurrently_then_everyViewSeesWholeBatches() throws Exception {
+        int pairCount = 200;
+        int numberOfWeeks = 104;
+        for (int i = 0; i < pairCount; i++) {
+            engine.createLoan("A" + i, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), numberOfWeeks);
+            engine.createLoan("B" + i, BigDecimal.valueOf(2_000_000), BigDecimal.valueOf(0.1), numberOfWeeks);
+        }
+        engine.advanceTo(startDate.plusWeeks(numberOfWeeks + 1));
+        long paymentA = engine.getLoan("A0").getWeeklyPaymentMinor();
+        long paymentB = engine.getLoan("B0").getWeeklyPaymentMinor();
+
+        int payerCount = 4;
+        Thread[] payers = new Thread[payerCount];
+        for (int t = 0; t < payerCount; t++) {
+            int payer = t;
+            payers[t] = new Thread(() -> {
+                for (int week = 0; week < numberOfWeeks; week++) {
+                    for (int i = payer; i < pairCount; i += payerCount) {
+                        PaymentResult[] results = engine.makePayments(new PaymentBatch()
+                                .add("A" + i, paymentA)
+                                .add("B" + i, paymentB));
+                        assertArrayEquals(new PaymentResult[]{PaymentResult.OK, PaymentResult.OK}, results);
+                    }
+                }
+            });
+            payers[t].start();
+        }
+        int views = 0;
+        boolean paying = true;
+        while (paying) {
+            paying = false;
+            for (Thread payer : payers) {
+                paying |= payer.isAlive();
+            }
+            try (BookView view = engine.openView()) {
+                int[] paidCounts = new int[2 * pairCount];
+                view.forEach(loan -> {
+                    int pair = Integer.parseInt(loan.getLoanId().substring(1));
+                    paidCounts[2 * pair + (loan.getLoanId().charAt(0) == 'A' ? 0 : 1)] = loan.getPaidCount();
+                });
+                for (int i = 0; i < pairCount; i++) {
+                    assertEquals(paidCounts[2 * i], paidCounts[2 * i + 1], "pair " + i + " in view " + views);
+                    assertEquals(view.getLoan("A" + i).getPaidCount(), paidCounts[2 * i]);
+                }
+            }
+            views++;
+        }
+        for (Thread payer : payers) {
+            payer.join();
+        }
+        try (BookView view = engine.openView()) {
+            view.forEach(loan -> assertEquals(numberOfWeeks, loan.getPaidCount()));
+        }
+    }
+
+    @Test
+    void given_penaltyPolicy_when_loanFallsBehind_then_feesAndInterestAccrueIntoOutstanding() {
+        LoanFactory penalizing = new ConsumptiveWeeklyLoanFactory(null,
+                new DailyPenaltyPolicy(BigDecimal.valueOf(1000), new BigDecimal("0.001")));
+        LoanEngine engine = new LoanEngine(startDate, penalizing);
+        engine.createLoan("BEHIND", BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), 50);
+        engine.createLoan("ON_TIME", BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), 50);
+
+        for (int day = 1; day <= 15; day++) {
+            engine.endOfDay();
+            if (day % 7 == 0) {
+                engine.makePayment("ON_TIME", 11_084_000);
+            }
+        }
+
+        // day 8: fee and a day's interest on one installment; days 9-14: interest; day 15: fee and interest on two
+        long penalty = 100_000 + 11_084 + 6 * 11_084 + 100_000 + 22_168;
+        Loan behind = engine.getLoan("BEHIND");
+        assertEquals(LoanStanding.DELINQUENT, behind.getStanding());
+        assertEquals(penalty, behind.getPenaltyMinor());
+        assertEquals(554_200_000 + penalty, behind.getOutstandingMinor());
+        assertEquals(0, engine.getLoan("ON_TIME").getPenaltyMinor());
+
+        engine.makePayment("BEHIND", 2 * 11_084_000);
+        engine.endOfDay();
+        assertEquals(LoanStanding.GOOD_STANDING, engine.getLoan("BEHIND").getStanding());
+        assertEquals(penalty, engine.getLoan("BEHIND").getPenaltyMinor());
+        assertEquals(554_200_000 - 2 * 11_084_000 + penalty, engine.getLoan("BEHIND").getOutstandingMinor());
+        assertEquals(engine.getLoan("BEHIND").getOutstandingMinor() + engine.getLoan("ON_TIME").getOutstandingMinor(),
+                engine.getAggregates().getTotalOutstandingMinor());
+    }
+
+    @Test
+    void given_amountPastDueAtTheLimitOfTheFixedPointProduct_when_accrued_then_interestIsExact() {
+        DailyPenaltyPolicy policy = new DailyPenaltyPolicy(BigDecimal.ZERO, BigDecimal.ONE);
+        long limit = (Long.MAX_VALUE - (1L << (DailyPenaltyPolicy.RATE_SHIFT - 1))) >> DailyPenaltyPolicy.RATE_SHIFT;
+        long[] overdue = {limit, limit + 1, 500_000_000_000L, Long.MAX_VALUE};
+        long[] penalty = new long[overdue.length];
+
+        policy.accrue(overdue, new int[overdue.length], penalty, overdue.length);
+
+        assertArrayEquals(overdue, penalty);
+
+        DailyPenaltyPolicy fractional = new DailyPenaltyPolicy(BigDecimal.ZERO, new BigDecimal("0.001"));
+        fractional.accrue(overdue, new int[overdue.length], penalty, overdue.length);
+        long rateFixed = BigDecimal.valueOf(1L << DailyPenaltyPolicy.RATE_SHIFT).multiply(new BigDecimal("0.001"))
+                .setScale(0, RoundingMode.HALF_UP).longValueExact();
+        for (int i = 0; i < overdue.length; i++) {
+            long expected = BigDecimal.valueOf(overdue[i]).multiply(BigDecimal.valueOf(rateFixed))
+                    .divide(BigDecimal.valueOf(1L << DailyPenaltyPolicy.RATE_SHIFT), 0, RoundingMode.HALF_UP)
+                    .longValueExact();
+            assertEquals(expected, penalty[i], "past due " + overdue[i]);
+        }
+    }
+
+    @Test
+    void given_installmentsPaidWithPenaltyOwed_when_compacted_then_archivedOnlyOncePenaltyIsPaid() {
+        LoanFactory penalizing = new ConsumptiveWeeklyLoanFactory(null,
+                new DailyPenaltyPolicy(BigDecimal.valueOf(1000), BigDecimal.ZERO));
+        LoanEngine engine = new LoanEngine(startDate, penalizing);
+        engine.createLoan("L1", BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 4);
+        engine.advanceTo(startDate.plusDays(8));
+        long weeklyPayment = weeklyPaymentOf(engine, "L1");
+        assertEquals(100_000, engine.getLoan("L1").getPenaltyMinor());
+
+        engine.makePayment("L1", 4 * weeklyPayment);
+        engine.endOfDay();
+        assertEquals(LoanStanding.CLOSED, engine.getLoan("L1").getStanding());
+        assertEquals(100_000, engine.getLoan("L1").getOutstandingMinor());
+        assertEquals(0, engine.compact());
+
+        assertEquals(PaymentResult.WRONG_AMOUNT, resultOf(engine, "L1", 100_001));
+        engine.makePayment("L1", 100_000);
+        assertEquals(0, engine.getAggregates().getTotalOutstandingMinor());
+        assertEquals(1, engine.compact());
+        assertEquals(PaymentResult.NO_MORE_DUE, resultOf(engine, "L1", 100_000));
+        assertEquals(0, engine.getLoan("L1").getOutstandingMinor());
+    }
+
+    @Test
+    void given_penaltyPolicy_when_advanceTo_then_samePenaltiesAsEndOfDayEveryDay() {
+        LoanFactory penalizing = new ConsumptiveWeeklyLoanFactory(null,
+                new DailyPenaltyPolicy(BigDecimal.valueOf(250), new BigDecimal("0.0005")));
+        LoanEngine dayByDay = new LoanEngine(startDate, penalizing);
+        LoanEngine engine = new LoanEngine(startDate, penalizing);
+        int loanCount = 40;
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 4; i++) {
+                String loanId = "L" + random.nextInt(loanCount);
+                int numberOfWeeks = 2 + random.nextInt(12);
+                dayByDay.createLoan(loanId, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), numberOfWeeks);
+                engine.createLoan(loanId, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), numberOfWeeks);
+            }
+            for (int i = 0; i < 10; i++) {
+                String loanId = "L" + random.nextInt(loanCount);
+                long amount = weeklyPaymentOf(dayByDay, loanId);
+                assertEquals(resultOf(dayByDay, loanId, amount), resultOf(engine, loanId, amount));
+            }
+
+            int days = 1 + random.nextInt(30);
+            for (int day = 0; day < days; day++) {
+                dayByDay.endOfDay();
+            }
+            engine.advanceTo(engine.getCurrentDate().plusDays(days));
+
+            for (int i = 0; i < loanCount; i++) {
+                if (hasLoan(dayByDay, "L" + i)) {
+                    Loan expectedLoan = dayByDay.getLoan("L" + i);
+                    Loan actualLoan = engine.getLoan("L" + i);
+                    assertEquals(expectedLoan.getPenaltyMinor(), actualLoan.getPenaltyMinor(), "L" + i);
+                    assertEquals(expectedLoan.getOutstandingMinor(), actualLoan.getOutstandingMinor(), "L" + i);
+                }
+            }
+            assertEquals(dayByDay.getAggregates().getTotalOutstandingMinor(), engine.getAggregates().getTotalOutstandingMinor());
+        }
+        assertTrue(engine.getAggregates().getTotalOutstandingMinor() > 0);
+    }
+
+    private static Set<String> paidOff(LoanEngine engine, Set<String> loanIds) {
+        Set<String> paidOff = new HashSet<>();
+        for (String loanId : loanIds) {
+            if (engine.getLoan(loanId).getOutstandingMinor() == 0) {
+                paidOff.add(loanId);
+            }
+        }
+        return paidOff;
+    }
+
+    private static PaymentResult resultOf(LoanEngine engine, String loanId, long amountMinor) {
+        PaymentBatch batch = new PaymentBatch(1);
+        batch.add(loanId, amountMinor);
+        return engine.makePayments(batch)[0];
+    }
+
+    private static long weeklyPaymentOf(LoanEngine engine, String loanId) {
+        return hasLoan(engine, loanId) ? engine.getLoan(loanId).getWeeklyPaymentMinor() : 100;
+    }
+
+    private static boolean hasLoan(LoanEngine engine, String loanId) {
+        try {
+            engine.getHandle(loanId);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static List<String> sorted(List<String> loanIds) {
+        List<String> sorted = new ArrayList<>(loanIds);
+        sorted.sort(null);
+        return sorted;
+    }
+
+    private static List<StandingTransition> byDateAndLoan(List<StandingTransition> transitions) {
+        List<StandingTransition> sorted = new ArrayList<>(transitions);
+        sorted.sort(Comparator.comparing(StandingTransition::getDate).thenComparing(StandingTransition::getLoanId));
+        return sorted;
+    }
+
+    private static PaymentResult expectedResult(LoanEngine engine, String loanId, long amountMinor) {
+        try {
+            engine.makePayment(loanId, amountMinor);
+            return PaymentResult.OK;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage().equals("Loan not found") ? PaymentResult.UNKNOWN_LOAN : PaymentResult.WRONG_AMOUNT;
+        } catch (IllegalStateException e) {
+            return e.getMessage().equals("No more payments due") ? PaymentResult.NO_MORE_DUE : PaymentResult.NOT_DUE;
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoanEventBusTest {
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+
+    @Test
+    void given_concurrentPaymentsAndEndOfDay_when_subscribed_then_eventsOfEachLoanArriveInOrder() throws Exception {
+        LoanEngine engine = new LoanEngine(START_DATE, new ConsumptiveWeeklyLoanFactory());
+        LoanEventBus bus = new LoanEventBus(1 << 16);
+        engine.setEventBus(bus);
+        List<LoanEvent> events = new ArrayList<>();
+        LoanEventBus.Subscription subscription = bus.subscribe(events::add);
+        int loanCount = 40;
+        for (int i = 0; i < loanCount; i++) {
+            engine.createLoan("L" + i, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 3 + i % 6);
+        }
+
+        ExecutorService payers = Executors.newFixedThreadPool(4);
+        try {
+            for (int day = 0; day < 70; day++) {
+                List<Future<?>> payments = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    Random random = new Random(day * 4L + t);
+                    payments.add(payers.submit(() -> {
+                        for (int i = 0; i < 10; i++) {
+                            Loan loan = engine.getLoan("L" + random.nextInt(loanCount));
+                            try {
+                                engine.makePayment(loan.getLoanId(), loan.getWeeklyPaymentMinor());
+                            } catch (IllegalStateException ignored) {
+                                // not due yet or paid off
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> payment : payments) {
+                    payment.get();
+                }
+                if (day % 10 == 9) {
+                    engine.advanceTo(engine.getCurrentDate().plusDays(3));
+                } else {
+                    engine.endOfDay();
+                }
+            }
+        } finally {
+            payers.shutdown();
+            assertTrue(payers.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        bus.close();
+
+        assertEquals(0, subscription.getDroppedCount());
+        assertEquals(bus.getPublishedCount(), subscription.getDeliveredCount());
+        assertEquals(bus.getPublishedCount(), events.size());
+        Map<String, List<LoanEvent>> byLoan = new HashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i, events.get(i).getSequence());
+            byLoan.computeIfAbsent(events.get(i).getLoanId(), id -> new ArrayList<>()).add(events.get(i));
+        }
+        for (int i = 0; i < loanCount; i++) {
+            Loan loan = engine.getLoan("L" + i);
+            int paidCount = 0;
+            LoanStanding standing = LoanStanding.GOOD_STANDING;
+            LocalDate date = START_DATE;
+            LoanEvent previous = null;
+            for (LoanEvent event : byLoan.getOrDefault(loan.getLoanId(), List.of())) {
+                assertFalse(event.getDate().isBefore(date), event.toString());
+                switch (event.getType()) {
+                    case PAYMENT_APPLIED:
+                        assertEquals(++paidCount, event.getPaidCount(), event.toString());
+                        assertEquals(loan.getWeeklyPaymentMinor(), event.getAmountMinor());
+                        break;
+                    case STANDING_CHANGED:
+                        assertEquals(standing, event.getFrom(), event.toString());
+                        assertNotEquals(standing, event.getTo(), event.toString());
+                        standing = event.getTo();
+                        break;
+                    case LOAN_CLOSED:
+                        assertEquals(LoanEvent.Type.STANDING_CHANGED, previous.getType());
+                        assertEquals(LoanStanding.CLOSED, previous.getTo());
+                        break;
+                }
+                date = event.getDate();
+                previous = event;
+            }
+            assertEquals(loan.getPaidCount(), paidCount, loan.getLoanId());
+            assertEquals(loan.getStanding(), standing, loan.getLoanId());
+        }
+        assertTrue(byLoan.values().stream().flatMap(List::stream).anyMatch(e -> e.getType() == LoanEvent.Type.LOAN_CLOSED));
+    }
+
+    @Test
+    void given_slowSubscriber_when_publishing_then_publisherIsNotHeldUpAndDropsAreCounted() {
+        LoanEventBus bus = new LoanEventBus(16);
+        List<LoanEvent> received = new ArrayList<>();
+        LoanEventBus.Subscription slow = bus.subscribe(event -> {
+            received.add(event);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        long started = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            bus.paymentApplied("L1", START_DATE, 100, i + 1);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        long lag = slow.getLag();
+        bus.close();
+
+        assertTrue(elapsedMillis < 5_000, "publishing took " + elapsedMillis + " ms");
+        assertTrue(lag > 0);
+        assertTrue(slow.getDroppedCount() > 0);
+        assertEquals(10_000, slow.getDeliveredCount() + slow.getDroppedCount());
+        assertEquals(received.size(), slow.getDeliveredCount());
+        for (int i = 1; i < received.size(); i++) {
+            assertTrue(received.get(i).getSequence() > received.get(i - 1).getSequence());
+        }
+        assertEquals(0, slow.getLag());
+    }
+
+    @Test
+    void given_idleSubscriber_when_eventPublished_then_unparkedWithoutWaitingForBackstop() throws Exception {
+        LoanEventBus bus = new LoanEventBus(16);
+        CountDownLatch received = new CountDownLatch(1);
+        LoanEventBus.Subscription subscription = bus.subscribe(event -> received.countDown());
+        Thread.sleep(100);
+
+        bus.paymentApplied("L1", START_DATE, 100, 1);
+
+        assertTrue(received.await(500, TimeUnit.MILLISECONDS));
+        bus.close();
+        assertEquals(1, subscription.getDeliveredCount());
+    }
+
+    @Test
+    void given_noSubscribers_when_publishing_then_nothingIsPublished() {
+        LoanEventBus bus = new LoanEventBus(100);
+
+        bus.standingChanged("L1", START_DATE, LoanStanding.LATE, LoanStanding.CLOSED);
+
+        assertEquals(0, bus.getPublishedCount());
+        assertEquals(128, bus.getCapacity());
+    }
+}
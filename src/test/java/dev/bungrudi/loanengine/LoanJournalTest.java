@@ -0,0 +1,171 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+public class LoanJournalTest {
+
+    private static final int REGION_SIZE = 256;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void given_appendedRecords_when_replayed_then_sameRecordsInOrder() throws IOException {
+        Path file = directory.resolve("journal.log");
+        try (LoanJournal journal = LoanJournal.open(file, REGION_SIZE, true)) {
+            long position = journal.appendCreateLoan("L001", BigDecimal.valueOf(5_000_000), new BigDecimal("0.1"), 50);
+            journal.commit(position);
+            journal.appendPayment("L001", 11_084_000L);
+            journal.appendEndOfDay(LocalDate.of(2023, 3, 2));
+        }
+
+        List<String> records = replay(file);
+
+        assertEquals(List.of("create L001 5000000 0.1 50", "pay L001 11084000", "eod 2023-03-02"), records);
+    }
+
+    @Test
+    void given_recordsSpanningRegions_when_reopenedAndAppended_then_allRecordsReplayed() throws IOException {
+        Path file = directory.resolve("journal.log");
+        List<String> expected = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            try (LoanJournal journal = LoanJournal.open(file, REGION_SIZE, false)) {
+                for (int i = 0; i < 40; i++) {
+                    String loanId = "LOAN-" + round + "-" + i;
+                    journal.appendPayment(loanId, i);
+                    expected.add("pay " + loanId + " " + i);
+                }
+            }
+        }
+
+        assertTrue(Files.size(file) > 3 * REGION_SIZE);
+        assertEquals(expected, replay(file));
+    }
+
+    @Test
+    void given_crashAtAnyByte_when_replayed_then_onlyCompleteRecordsAreRead() throws IOException {
+        Path file = directory.resolve("journal.log");
+        List<Long> ends = new ArrayList<>();
+        try (LoanJournal journal = LoanJournal.open(file, REGION_SIZE, false)) {
+            for (int i = 0; i < 30; i++) {
+                ends.add(journal.appendPayment("L" + i, i));
+            }
+        }
+        byte[] full = Files.readAllBytes(file);
+
+        Path torn = directory.resolve("torn.log");
+        for (int cut = 8; cut <= ends.get(ends.size() - 1); cut++) {
+            byte[] bytes = Arrays.copyOf(full, full.length);
+            // whatever did not reach the file is either zero or garbage from an earlier use of the page
+            Arrays.fill(bytes, cut, bytes.length, cut % 2 == 0 ? 0 : (byte) 0x5A);
+            Files.write(torn, bytes);
+
+            int complete = 0;
+            while (complete < ends.size() && ends.get(complete) <= cut) {
+                complete++;
+            }
+            assertEquals(complete, replay(torn).size(), "cut at " + cut);
+        }
+    }
+
+    @Test
+    void given_tornTail_when_reopened_then_appendsContinueAfterLastValidRecord() throws IOException {
+        Path file = directory.resolve("journal.log");
+        long end;
+        try (LoanJournal journal = LoanJournal.open(file, REGION_SIZE, false)) {
+            journal.appendPayment("L1", 1);
+            end = journal.appendPayment("L2", 2);
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) end - 6] ^= 0x01;
+        Files.write(file, bytes);
+
+        try (LoanJournal journal = LoanJournal.open(file, REGION_SIZE, false)) {
+            journal.appendPayment("L3", 3);
+        }
+
+        assertEquals(List.of("pay L1 1", "pay L3 3"), replay(file));
+    }
+
+    @Test
+    void given_idAndAmountLongerThanAShortOrByteLength_when_replayed_then_readBackWhole() throws IOException {
+        Path file = directory.resolve("journal.log");
+        String loanId = "L".repeat(40_000);
+        BigDecimal loanAmount = BigDecimal.TEN.pow(400);
+        try (LoanJournal journal = LoanJournal.open(file, 1 << 17, false)) {
+            journal.appendCreateLoan(loanId, loanAmount, new BigDecimal("0.1"), 50);
+            journal.appendPayment(loanId, 1);
+        }
+
+        assertEquals(List.of("create " + loanId + " " + loanAmount + " 0.1 50", "pay " + loanId + " 1"), replay(file));
+    }
+
+    @Test
+    void given_recordTooLongForARegion_when_appended_then_rejectedAndJournalUnchanged() throws IOException {
+        Path file = directory.resolve("journal.log");
+        try (LoanJournal journal = LoanJournal.open(file, REGION_SIZE, false)) {
+            journal.appendPayment("L1", 1);
+            long position = journal.position();
+
+            assertThrows(IllegalArgumentException.class, () -> journal.appendPayment("L".repeat(REGION_SIZE), 2));
+            assertEquals(position, journal.position());
+            journal.appendPayment("L3", 3);
+        }
+
+        assertEquals(List.of("pay L1 1", "pay L3 3"), replay(file));
+    }
+
+    @Test
+    void given_recordWithValidChecksumButMalformedPayload_when_replayed_then_treatedAsTornTail() throws IOException {
+        Path file = directory.resolve("journal.log");
+        long end;
+        try (LoanJournal journal = LoanJournal.open(file, REGION_SIZE, false)) {
+            end = journal.appendPayment("L1", 1);
+            journal.appendPayment("L2", 2);
+        }
+        // the second record's id length says -2, with the checksum recomputed to match
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        int length = bytes.getInt((int) end);
+        bytes.putInt((int) end + 5, -2);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.slice((int) end + 4, length));
+        bytes.putInt((int) end + 4 + length, (int) crc.getValue());
+        Files.write(file, bytes.array());
+
+        assertEquals(List.of("pay L1 1"), replay(file));
+    }
+
+    private static List<String> replay(Path file) throws IOException {
+        List<String> records = new ArrayList<>();
+        LoanJournal.replay(file, new LoanJournal.RecordHandler() {
+            @Override
+            public void createLoan(String loanId, BigDecimal loanAmount, BigDecimal interestRate, int numberOfWeeks) {
+                records.add("create " + loanId + " " + loanAmount + " " + interestRate + " " + numberOfWeeks);
+            }
+
+            @Override
+            public void payment(String loanId, long amountMinor) {
+                records.add("pay " + loanId + " " + amountMinor);
+            }
+
+            @Override
+            public void endOfDay(LocalDate newDate) {
+                records.add("eod " + newDate);
+            }
+        });
+        return records;
+    }
+}
@@ -0,0 +1,56 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoanRegistryTest {
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+
+    @Test
+    void given_concurrentRegistrations_when_lookingUp_then_registeredIdsAreAlwaysFound() throws InterruptedException {
+        LoanRegistry registry = new LoanRegistry();
+        LoanFactory factory = new ConsumptiveWeeklyLoanFactory();
+        int count = 200_000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                int checked = 0;
+                while (checked < count) {
+                    // ids are registered in order, so every id below the current size must resolve
+                    int size = registry.size();
+                    for (int i = checked; i < size; i++) {
+                        assertEquals(i, registry.find("LOAN-" + i));
+                    }
+                    assertEquals(LoanRegistry.NOT_FOUND, registry.find("LOAN-" + (count + size)));
+                    checked = size;
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < count; i++) {
+            String loanId = "LOAN-" + i;
+            int handle = registry.register(loanId);
+            assertEquals(i, handle);
+            registry.set(handle, factory.createLoan(loanId, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 10, START_DATE));
+        }
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(count, registry.values().size());
+        for (int i = 0; i < count; i += 997) {
+            Loan loan = registry.get(i);
+            assertEquals("LOAN-" + i, loan.getLoanId());
+            assertEquals(i, loan.getHandle());
+            assertEquals(i, registry.register("LOAN-" + i));
+        }
+        assertNull(registry.get(count));
+    }
+}
@@ -0,0 +1,165 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoanServerTest {
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+
+    private LoanEngine engine;
+    private LoanServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        engine = new LoanEngine(START_DATE, new ConsumptiveWeeklyLoanFactory());
+        server = new LoanServer(engine, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void given_requests_when_sentOneByOne_then_repliesMatchEngine() throws IOException {
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            Writer out = writer(socket);
+            assertEquals("1 OK 110840.00", call(in, out, "1 CREATE L1 5000000 0.1 50"));
+            assertEquals("2 OK 5542000.00", call(in, out, "2 OUTSTANDING L1"));
+            assertEquals("3 OK false", call(in, out, "3 DELINQUENT L1"));
+            for (int day = 0; day < 7; day++) {
+                assertEquals((4 + day) + " OK " + START_DATE.plusDays(day + 1), call(in, out, (4 + day) + " EOD"));
+            }
+            assertEquals("11 OK", call(in, out, "11 PAY L1 110840"));
+            assertEquals("12 OK 5431160.00", call(in, out, "12 OUTSTANDING L1"));
+
+            assertEquals("13 ERR Loan not found", call(in, out, "13 OUTSTANDING L2"));
+            assertTrue(call(in, out, "14 PAY L1 1").startsWith("14 ERR "));
+            assertEquals("15 ERR Unknown command: CLOSE", call(in, out, "15 CLOSE L1"));
+            assertEquals("16 ERR PAY takes 2 arguments", call(in, out, "16 PAY L1"));
+            assertTrue(call(in, out, "17 CREATE L3 lots 0.1 50").startsWith("17 ERR "));
+        }
+        assertEquals(0, BigDecimal.valueOf(5_431_160).compareTo(engine.getOutstanding("L1")));
+    }
+
+    @Test
+    void given_pipelinedRequestsFromSeveralConnections_when_served_then_everyRequestGetsItsReply() throws Exception {
+        int loanCount = 50;
+        for (int i = 0; i < loanCount; i++) {
+            engine.createLoan("L" + i, BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), 50);
+        }
+        for (int day = 0; day < 7; day++) {
+            engine.endOfDay();
+        }
+
+        int connections = 4;
+        Thread[] clients = new Thread[connections];
+        List<Map<String, String>> replies = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            int client = c;
+            replies.add(new ConcurrentHashMap<>());
+            clients[c] = Thread.ofVirtual().start(() -> {
+                try (Socket socket = connect()) {
+                    Writer out = writer(socket);
+                    BufferedReader in = reader(socket);
+                    // every connection pays its own loans once, then asks for their outstanding amounts
+                    for (int i = client; i < loanCount; i += connections) {
+                        out.write("p" + i + " PAY L" + i + " 110840\n");
+                    }
+                    out.flush();
+                    for (int i = client; i < loanCount; i += connections) {
+                        String reply = in.readLine();
+                        replies.get(client).put(reply.substring(0, reply.indexOf(' ')), reply);
+                    }
+                    for (int i = client; i < loanCount; i += connections) {
+                        out.write("o" + i + " OUTSTANDING L" + i + "\n");
+                    }
+                    out.flush();
+                    for (int i = client; i < loanCount; i += connections) {
+                        String reply = in.readLine();
+                        replies.get(client).put(reply.substring(0, reply.indexOf(' ')), reply);
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        for (int i = 0; i < loanCount; i++) {
+            Map<String, String> clientReplies = replies.get(i % connections);
+            assertEquals("p" + i + " OK", clientReplies.get("p" + i));
+            assertEquals("o" + i + " OK 5431160.00", clientReplies.get("o" + i));
+            assertEquals(1, engine.getLoan("L" + i).getPaidCount());
+        }
+    }
+
+    @Test
+    void given_pipelinedRequestsForOneLoan_when_served_then_runInArrivalOrder() throws IOException {
+        try (Socket socket = connect()) {
+            Writer out = writer(socket);
+            BufferedReader in = reader(socket);
+            StringBuilder requests = new StringBuilder("c CREATE L1 5000000 0.1 50\n");
+            for (int day = 0; day < 21; day++) {
+                requests.append("e").append(day).append(" EOD\n");
+            }
+            for (int i = 0; i < 3; i++) {
+                requests.append("p").append(i).append(" PAY L1 110840\n");
+            }
+            requests.append("o OUTSTANDING L1\nd DELINQUENT L1\n");
+            out.write(requests.toString());
+            out.flush();
+
+            List<String> replies = new ArrayList<>();
+            for (int i = 0; i < 27; i++) {
+                replies.add(in.readLine());
+            }
+            assertEquals("c OK 110840.00", replies.get(0));
+            assertEquals("e20 OK " + START_DATE.plusDays(21), replies.get(21));
+            for (int i = 0; i < 3; i++) {
+                assertEquals("p" + i + " OK", replies.get(22 + i));
+            }
+            assertEquals("o OK 5209480.00", replies.get(25));
+            assertEquals("d OK false", replies.get(26));
+        }
+    }
+
+    private Socket connect() throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    private static String call(BufferedReader in, Writer out, String request) throws IOException {
+        out.write(request + "\n");
+        out.flush();
+        return in.readLine();
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static Writer writer(Socket socket) throws IOException {
+        return new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+    }
+}
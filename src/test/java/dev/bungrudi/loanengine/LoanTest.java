@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.time.LocalDate;
 import java.math.BigDecimal;
+import java.util.Random;
 
 public class LoanTest {
 
@@ -55,6 +56,22 @@ public class LoanTest {
         assertEquals(2, loan.getCurrentWeek(date5));
     }
 
+    @Test
+    void given_loan_when_gettingNextWeekBoundary_then_returnsDateWhereWeekChanges() {
+        assertEquals(startDate.plusDays(1), loan.getNextWeekBoundary(startDate));
+        assertEquals(startDate.plusDays(8), loan.getNextWeekBoundary(startDate.plusDays(1)));
+        assertEquals(startDate.plusDays(8), loan.getNextWeekBoundary(startDate.plusDays(7)));
+        assertEquals(startDate.plusDays(15), loan.getNextWeekBoundary(startDate.plusDays(8)));
+
+        for (LocalDate date = startDate; date.isBefore(startDate.plusDays(7L * 49 + 1)); date = date.plusDays(1)) {
+            LocalDate boundary = loan.getNextWeekBoundary(date);
+            assertNotEquals(loan.getCurrentWeek(date), loan.getCurrentWeek(boundary));
+            assertEquals(loan.getCurrentWeek(date), loan.getCurrentWeek(boundary.minusDays(1)));
+        }
+        // last week, the current week never changes again
+        assertNull(loan.getNextWeekBoundary(startDate.plusDays(7L * 49 + 1)));
+    }
+
     @Test
     void given_loan_when_makePayment_then_outstandingIsUpdated() {
         loan.makePayment(BigDecimal.valueOf(110_840), startDate.plusDays(7));
@@ -75,6 +92,103 @@ public class LoanTest {
         });
     }
 
+    @Test
+    void given_loan_when_tryPayment_then_resultReportedWithoutException() {
+        assertEquals(PaymentResult.NOT_DUE, loan.tryPayment(11_084_000L, startDate));
+        assertEquals(PaymentResult.WRONG_AMOUNT, loan.tryPayment(10_000_000L, startDate.plusDays(7)));
+        assertEquals(0, loan.getPaidCount());
+
+        assertEquals(PaymentResult.OK, loan.tryPayment(11_084_000L, startDate.plusDays(7)));
+        assertEquals(1, loan.getPaidCount());
+
+        for (int i = 1; i < 50; i++) {
+            assertEquals(PaymentResult.OK, loan.tryPayment(11_084_000L, startDate.plusDays(7L * 50)));
+        }
+        assertEquals(PaymentResult.NO_MORE_DUE, loan.tryPayment(11_084_000L, startDate.plusDays(7L * 50)));
+    }
+
+    @Test
+    void given_missedWeeks_when_paidInOneCall_then_sameAsOnePaymentEach() {
+        Loan separately = loanFactory.createLoan("L002", BigDecimal.valueOf(5_000_000), BigDecimal.valueOf(0.1), 50, startDate);
+        LocalDate date = startDate.plusDays(22);
+        for (int i = 0; i < 3; i++) {
+            separately.makePayment(11_084_000L, date);
+        }
+        separately.updateStatus(date);
+
+        assertEquals(PaymentResult.OK, loan.tryPayment(3 * 11_084_000L, date));
+        loan.updateStatus(date);
+
+        assertEquals(3, loan.getPaidCount());
+        assertEquals(separately.getOutstandingMinor(), loan.getOutstandingMinor());
+        assertEquals(LoanStanding.GOOD_STANDING, loan.getStanding());
+        assertEquals(separately.getSchedule().toString(), loan.getSchedule().toString());
+    }
+
+    @Test
+    void given_dueWeek_when_paidAlongWithLaterWeeks_then_laterWeeksArePrepaid() {
+        LocalDate date = startDate.plusDays(7);
+        assertEquals(PaymentResult.OK, loan.tryPayment(5 * 11_084_000L, date));
+        loan.updateStatus(date);
+
+        assertEquals(5, loan.getPaidCount());
+        assertEquals(0, BigDecimal.valueOf(5_542_000 - 5 * 110_840).compareTo(loan.getOutstanding()));
+        assertEquals(date, loan.getSchedule().get(4).getPaymentDate());
+        assertEquals(startDate.plusWeeks(6), loan.getNextDueDate());
+        assertEquals(LoanStanding.GOOD_STANDING, loan.getStanding());
+        // nothing due until the prepaid weeks have passed, for one installment or several
+        assertEquals(PaymentResult.NOT_DUE, loan.tryPayment(11_084_000L, startDate.plusDays(29)));
+        assertEquals(PaymentResult.NOT_DUE, loan.tryPayment(2 * 11_084_000L, startDate.plusDays(29)));
+        assertEquals(PaymentResult.OK, loan.tryPayment(11_084_000L, startDate.plusDays(36)));
+    }
+
+    @Test
+    void given_amountsNotWholeInstallments_when_paying_then_rejectedAsWrongAmount() {
+        LocalDate date = startDate.plusDays(7);
+        assertEquals(PaymentResult.WRONG_AMOUNT, loan.tryPayment(11_084_000L * 3 / 2, date));
+        assertEquals(PaymentResult.WRONG_AMOUNT, loan.tryPayment(2 * 11_084_000L + 1, date));
+        assertEquals(PaymentResult.WRONG_AMOUNT, loan.tryPayment(0, date));
+        assertEquals(PaymentResult.WRONG_AMOUNT, loan.tryPayment(-11_084_000L, date));
+        assertEquals(PaymentResult.WRONG_AMOUNT, loan.tryPayment(51 * 11_084_000L, date));
+        assertEquals(PaymentResult.WRONG_AMOUNT, loan.tryPayment(Money.INVALID, date));
+        assertEquals(0, loan.getPaidCount());
+        IllegalArgumentException rejected = assertThrows(IllegalArgumentException.class,
+                () -> loan.makePayment(BigDecimal.valueOf(221_680.01), date));
+        assertEquals("Payment must be exact amount due for week 0", rejected.getMessage());
+
+        assertEquals(PaymentResult.OK, loan.tryPayment(50 * 11_084_000L, date));
+        loan.updateStatus(date);
+        assertEquals(0, loan.getOutstandingMinor());
+        assertEquals(LoanStanding.CLOSED, loan.getStanding());
+        assertNull(loan.getNextDueDate());
+        assertEquals(PaymentResult.NO_MORE_DUE, loan.tryPayment(11_084_000L, date));
+    }
+
+    @Test
+    void given_accruedPenalty_when_paying_then_installmentsArePaidFirstAndTheRestPaysThePenalty() {
+        LocalDate date = startDate.plusDays(15);
+        loan.updateStatus(date);
+        loan.accruePenalty(300_000);
+        long installment = 11_084_000L;
+
+        assertEquals(PaymentResult.WRONG_AMOUNT, loan.tryPayment(installment + 300_001, date));
+        assertEquals(PaymentResult.OK, loan.tryPayment(installment + 100_000, date));
+        assertEquals(1, loan.getPaidCount());
+        assertEquals(200_000, loan.getPenaltyMinor());
+        assertEquals(554_200_000 - installment + 200_000, loan.getOutstandingMinor());
+        // smaller than an installment: penalties only, even when no installment is due
+        assertEquals(PaymentResult.OK, loan.tryPayment(50_000, startDate));
+        assertEquals(1, loan.getPaidCount());
+        assertEquals(150_000, loan.getPenaltyMinor());
+
+        assertEquals(PaymentResult.OK, loan.tryPayment(49 * installment, date));
+        assertEquals(150_000, loan.getOutstandingMinor());
+        assertEquals(PaymentResult.WRONG_AMOUNT, loan.tryPayment(installment, date));
+        assertEquals(PaymentResult.OK, loan.tryPayment(150_000, date));
+        assertEquals(0, loan.getOutstandingMinor());
+        assertEquals(PaymentResult.NO_MORE_DUE, loan.tryPayment(1, date));
+    }
+
     @Test
     void given_loan_when_checkingStanding_then_statusIsCorrect() {
         LocalDate date1 = startDate.plusDays(7);
@@ -162,4 +276,60 @@ public class LoanTest {
         }
         assertEquals(0, BigDecimal.ZERO.compareTo(loan.getOutstanding()), "Outstanding after all payments should be 0");
     }
+
+    @Test
+    void given_randomPaymentHistories_when_paying_then_matchesScheduleScan() {
+        Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            int weeks = random.nextInt(104) + 1;
+            Loan subject = loanFactory.createLoan("R" + run, BigDecimal.valueOf(random.nextInt(9_000_000) + 1_000_000),
+                    BigDecimal.valueOf(random.nextInt(20), 2), weeks, startDate);
+            for (int day = 0; day <= 7 * weeks + 14; day++) {
+                LocalDate date = startDate.plusDays(day);
+                if (random.nextInt(9) == 0) {
+                    try {
+                        subject.makePayment(subject.getWeeklyPayment(), date);
+                    } catch (IllegalStateException e) {
+                        // not yet due or fully paid
+                    }
+                }
+                subject.updateStatus(date);
+                assertEquals(0, scannedOutstanding(subject).compareTo(subject.getOutstanding()));
+                assertEquals(scannedStanding(subject, date), subject.getStanding());
+            }
+        }
+    }
+
+    /**
+     * reference implementation recomputing the outstanding from the schedule
+     */
+    private static BigDecimal scannedOutstanding(Loan loan) {
+        BigDecimal outstanding = loan.getTotalAmount();
+        for (PaymentDue payment : loan.getSchedule()) {
+            if (payment.isPaid()) {
+                outstanding = outstanding.subtract(payment.getAmountDue());
+            }
+        }
+        return outstanding;
+    }
+
+    /**
+     * reference implementation counting unpaid weeks from the start of the schedule
+     */
+    private static LoanStanding scannedStanding(Loan loan, LocalDate date) {
+        int currentWeek = loan.getCurrentWeek(date);
+        if (currentWeek < 0) {
+            return LoanStanding.GOOD_STANDING;
+        }
+        int unpaidCount = 0;
+        for (int i = 0; i < currentWeek; i++) {
+            if (!loan.getSchedule().get(i).isPaid()) {
+                unpaidCount++;
+            }
+        }
+        if (currentWeek == loan.getNumberOfWeeks() - 1 && unpaidCount == 0) {
+            return LoanStanding.CLOSED;
+        }
+        return unpaidCount == 0 ? LoanStanding.GOOD_STANDING : unpaidCount == 1 ? LoanStanding.LATE : LoanStanding.DELINQUENT;
+    }
 }
@@ -0,0 +1,54 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+public class MoneyTest {
+
+    @Test
+    void given_amount_when_toMinor_then_scaledToCents() {
+        assertEquals(11_084_000L, Money.toMinor(BigDecimal.valueOf(110_840)));
+        assertEquals(11_084_000L, Money.toMinor(BigDecimal.valueOf(110_840.0)));
+        assertEquals(1_597_223L, Money.toMinor(new BigDecimal("15972.23")));
+        assertEquals(1_597_220L, Money.toMinor(new BigDecimal("15972.2000")));
+    }
+
+    @Test
+    void given_fractionOfCent_when_toMinor_then_exceptionIsThrown() {
+        assertThrows(ArithmeticException.class, () -> Money.toMinor(new BigDecimal("0.001")));
+    }
+
+    @Test
+    void given_unrepresentableAmount_when_toMinorOrInvalid_then_invalid() {
+        assertEquals(Money.INVALID, Money.toMinorOrInvalid(new BigDecimal("15972.231")));
+        assertEquals(Money.INVALID, Money.toMinorOrInvalid(new BigDecimal("1e30")));
+        assertEquals(1_597_223L, Money.toMinorOrInvalid(new BigDecimal("15972.2300")));
+    }
+
+    @Test
+    void given_minorUnits_when_toBigDecimal_then_roundTrips() {
+        assertEquals(new BigDecimal("15972.23"), Money.toBigDecimal(1_597_223L));
+        assertEquals(0, BigDecimal.valueOf(110_840).compareTo(Money.toBigDecimal(Money.toMinor(BigDecimal.valueOf(110_840)))));
+    }
+
+    @Test
+    void given_amounts_when_divideHalfEven_then_sameAsBigDecimal() {
+        Random random = new Random(3);
+        for (int i = 0; i < 10_000; i++) {
+            long amount = random.nextInt(2_000_000_000) - 1_000_000_000L;
+            long divisor = random.nextInt(200) + 1;
+            if (random.nextBoolean()) {
+                divisor = -divisor;
+            }
+            BigDecimal expected = Money.toBigDecimal(amount).divide(BigDecimal.valueOf(divisor), Money.SCALE, RoundingMode.HALF_EVEN);
+            assertEquals(Money.toMinor(expected), Money.divideHalfEven(amount, divisor), amount + " / " + divisor);
+        }
+        assertEquals(2, Money.divideHalfEven(5, 2));
+        assertEquals(4, Money.divideHalfEven(7, 2));
+        assertEquals(-4, Money.divideHalfEven(-7, 2));
+    }
+}
@@ -0,0 +1,64 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public class RepaymentScheduleTest {
+
+    private RepaymentSchedule schedule;
+    private LocalDate firstDueDate;
+
+    @BeforeEach
+    void setUp() {
+        firstDueDate = LocalDate.of(2023, 3, 8);
+        schedule = new RepaymentSchedule(firstDueDate, 104, 5_328_850L);
+    }
+
+    @Test
+    void given_schedule_when_readingInstallments_then_derivedFromCadence() {
+        assertEquals(104, schedule.size());
+        for (int week = 0; week < 104; week++) {
+            assertEquals(firstDueDate.plusWeeks(week), schedule.getDueDate(week));
+            assertEquals(5_328_850L, schedule.getAmountDue(week));
+            assertFalse(schedule.isPaid(week));
+            assertNull(schedule.getPaymentDate(week));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> schedule.getDueDate(104));
+    }
+
+    @Test
+    void given_paidWeeksAcrossBitmapWords_when_markPaid_then_onlyThoseWeeksArePaid() {
+        schedule.markPaid(0, firstDueDate);
+        schedule.markPaid(63, firstDueDate.plusDays(1));
+        schedule.markPaid(64, firstDueDate.plusDays(2));
+        schedule.markPaid(103, firstDueDate.plusDays(3));
+
+        for (int week = 0; week < 104; week++) {
+            boolean expected = week == 0 || week == 63 || week == 64 || week == 103;
+            assertEquals(expected, schedule.isPaid(week), "week " + week);
+        }
+        assertEquals(firstDueDate, schedule.getPaymentDate(0));
+        assertEquals(firstDueDate.plusDays(1), schedule.getPaymentDate(63));
+        assertEquals(firstDueDate.plusDays(2), schedule.getPaymentDate(64));
+        assertEquals(firstDueDate.plusDays(3), schedule.getPaymentDate(103));
+    }
+
+    @Test
+    void given_listView_when_paymentMadeLater_then_viewReflectsIt() {
+        List<PaymentDue> view = schedule.asList();
+        assertFalse(view.get(1).isPaid());
+
+        schedule.markPaid(1, firstDueDate.plusWeeks(1));
+
+        PaymentDue payment = view.get(1);
+        assertTrue(payment.isPaid());
+        assertEquals(1, payment.getWeekNumber());
+        assertEquals(firstDueDate.plusWeeks(1), payment.getDueDate());
+        assertEquals(firstDueDate.plusWeeks(1), payment.getPaymentDate());
+        assertThrows(UnsupportedOperationException.class, () -> view.remove(0));
+    }
+}
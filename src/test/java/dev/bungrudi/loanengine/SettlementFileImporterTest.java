@@ -0,0 +1,177 @@
+package dev.bungrudi.loanengine;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+
+public class SettlementFileImporterTest {
+
+    private static final LocalDate START_DATE = LocalDate.of(2023, 3, 1);
+    private static final int LOANS = 500;
+
+    @TempDir
+    Path directory;
+
+    private LoanEngine engine;
+    private LoanEngine reference;
+
+    @BeforeEach
+    void setUp() {
+        LoanFactory loanFactory = new ConsumptiveWeeklyLoanFactory();
+        engine = new LoanEngine(START_DATE, loanFactory);
+        reference = new LoanEngine(START_DATE, loanFactory);
+        for (int i = 0; i < LOANS; i++) {
+            int weeks = 4 + i % 30;
+            engine.createLoan("LOAN-" + i, BigDecimal.valueOf(1_000_000 + i * 1_000L), BigDecimal.valueOf(0.1), weeks);
+            reference.createLoan("LOAN-" + i, BigDecimal.valueOf(1_000_000 + i * 1_000L), BigDecimal.valueOf(0.1), weeks);
+        }
+        for (int day = 0; day < 60; day++) {
+            engine.endOfDay();
+            reference.endOfDay();
+        }
+    }
+
+    @Test
+    void given_generatedCsvFile_when_imported_then_balancesMatchOneByOnePayments() throws IOException {
+        Path file = directory.resolve("settlement.csv");
+        Random random = new Random(5);
+        long expectedMalformed = 0;
+        long expectedApplied = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int line = 0; line < 20_000; line++) {
+                int kind = random.nextInt(20);
+                String loanId = "LOAN-" + random.nextInt(LOANS + 10);
+                String amount = reference.getLoan("LOAN-" + random.nextInt(LOANS)).getWeeklyPayment().toPlainString();
+                if (kind == 0) {
+                    writer.write(loanId + ";" + amount);
+                    expectedMalformed++;
+                } else if (kind == 1) {
+                    writer.write(loanId + "," + amount + "x");
+                    expectedMalformed++;
+                } else if (kind == 2) {
+                    writer.write("");
+                } else {
+                    if (kind == 3) {
+                        loanId = " " + loanId + " ";
+                    } else if (random.nextBoolean()) {
+                        // the loan's own installment rather than a random loan's
+                        amount = reference.getLoan(loanIdOrFirst(loanId)).getWeeklyPayment().toPlainString();
+                    }
+                    writer.write(loanId + "," + amount);
+                    if (apply(loanId.trim(), new BigDecimal(amount))) {
+                        expectedApplied++;
+                    }
+                }
+                writer.write(random.nextBoolean() ? "\n" : "\r\n");
+            }
+            writer.write("LOAN-1,1");
+        }
+        apply("LOAN-1", BigDecimal.ONE);
+
+        // small buffer and batches, so lines straddle buffer refills and the queue fills up
+        SettlementFileImporter importer = new SettlementFileImporter(engine, 64, 2, 4096);
+        ImportSummary summary = importer.importFile(file, SettlementFormat.csv());
+
+        assertEquals(expectedMalformed, summary.getMalformedLines());
+        assertEquals(expectedApplied, summary.getAppliedPayments());
+        assertEquals(summary.getLines() - expectedApplied, summary.getRejectedLines());
+        assertTrue(summary.getResultCount(PaymentResult.UNKNOWN_LOAN) > 0);
+        assertTrue(summary.getLinesPerSecond() > 0);
+        assertSameBalances();
+    }
+
+    @Test
+    void given_fixedWidthFile_when_imported_then_paymentsApplied() throws IOException {
+        Path file = directory.resolve("settlement.txt");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < LOANS; i++) {
+            String amount = reference.getLoan("LOAN-" + i).getWeeklyPayment().toPlainString();
+            content.append(String.format("%-16s%16s%n", "LOAN-" + i, amount));
+            apply("LOAN-" + i, new BigDecimal(amount));
+        }
+        content.append("too short\n");
+        content.append("X".repeat(10_000)).append('\n');
+        Files.writeString(file, content);
+
+        SettlementFileImporter importer = new SettlementFileImporter(engine, 100, 4, 1024);
+        ImportSummary summary = importer.importFile(file, SettlementFormat.fixedWidth(16, 16));
+
+        assertEquals(LOANS + 2, summary.getLines());
+        assertEquals(2, summary.getMalformedLines());
+        assertEquals(LOANS, summary.getAppliedPayments());
+        assertSameBalances();
+    }
+
+    @Test
+    void given_nonAsciiLoanId_when_imported_then_decodedAsUtf8() throws IOException {
+        String loanId = "PINJAMAN-\u00e9\u8d37";
+        engine.createLoan(loanId, BigDecimal.valueOf(1_000_000), BigDecimal.valueOf(0.1), 4);
+        for (int day = 0; day < 7; day++) {
+            engine.endOfDay();
+        }
+        Path file = directory.resolve("settlement.csv");
+        Files.writeString(file, loanId + "," + engine.getLoan(loanId).getWeeklyPayment().toPlainString() + "\n");
+
+        ImportSummary summary = new SettlementFileImporter(engine, 64, 2, 4096)
+                .importFile(file, SettlementFormat.csv());
+
+        assertEquals(0, summary.getMalformedLines());
+        assertEquals(1, summary.getAppliedPayments());
+        assertEquals(1, engine.getLoan(loanId).getPaidCount());
+    }
+
+    @Test
+    void given_amountBytes_when_parseAmount_then_minorUnits() {
+        assertEquals(11_084_000L, parse("110840"));
+        assertEquals(11_084_000L, parse("110840.0"));
+        assertEquals(1_597_223L, parse("15972.23"));
+        assertEquals(50L, parse(".5"));
+        assertEquals(Money.INVALID, parse("15972.231"));
+        assertEquals(Money.INVALID, parse("1.2.3"));
+        assertEquals(Money.INVALID, parse("-5"));
+        assertEquals(Money.INVALID, parse(""));
+        assertEquals(Money.INVALID, parse("."));
+        assertEquals(500L, parse("5."));
+        assertEquals(Money.INVALID, parse("99999999999999999999"));
+    }
+
+    private static long parse(String amount) {
+        byte[] bytes = amount.getBytes();
+        return SettlementFormat.parseAmount(bytes, 0, bytes.length);
+    }
+
+    private String loanIdOrFirst(String loanId) {
+        try {
+            reference.getLoan(loanId);
+            return loanId;
+        } catch (IllegalArgumentException e) {
+            return "LOAN-0";
+        }
+    }
+
+    private boolean apply(String loanId, BigDecimal amount) {
+        try {
+            reference.makePayment(loanId, amount);
+            return true;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private void assertSameBalances() {
+        for (int i = 0; i < LOANS; i++) {
+            String loanId = "LOAN-" + i;
+            assertEquals(reference.getOutstanding(loanId), engine.getOutstanding(loanId), loanId);
+            assertEquals(reference.getLoan(loanId).getStanding(), engine.getLoan(loanId).getStanding(), loanId);
+        }
+    }
+}